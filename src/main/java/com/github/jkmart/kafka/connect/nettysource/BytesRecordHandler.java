@@ -32,19 +32,25 @@ public class BytesRecordHandler extends SourceRecordHandler {
   public BytesRecordHandler() {
   }
 
+  @Override
+  protected HeadersMode defaultHeadersMode() {
+    return HeadersMode.NONE;
+  }
+
   @Override
   public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
 
     byte[] msg = null;
 
-    try {
-      ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
-      msg = buffer.array();
-    } catch (Exception exception) {
-      exception.printStackTrace();
-      LOG.warn("Could not get bytes from buffer", exception);
+    Object m = e.getMessage();
+    if (m instanceof ChannelBuffer) {
+      msg = toBytes((ChannelBuffer) m);
+    } else if (m instanceof byte[]) {
+      msg = (byte[]) m;
+    } else if (m != null) {
+      LOG.warn("Could not get bytes from message of type: {}", m.getClass());
     }
-    if (msg == null) {
+    if (msg == null || msg.length == 0) {
       return;
     }
     Map<String, ?> sourcePartition = new HashMap<>();
@@ -54,11 +60,25 @@ public class BytesRecordHandler extends SourceRecordHandler {
       throw new IllegalStateException("recordQueue is not configured");
     }
 
-    SourceRecord srcRec = new SourceRecord(sourcePartition, sourceOffset, topic, Schema.BYTES_SCHEMA, msg);
+    SourceRecord srcRec = new SourceRecord(sourcePartition, sourceOffset, topicFor(ctx, e, msg), Schema.BYTES_SCHEMA, msg);
 
-    recordQueue.add(srcRec);
-    checkQueueCapacity();
+    addConnectionHeaders(ctx, e, srcRec);
+    enqueue(ctx, e, srcRec);
 
   }
 
+  /**
+   * Readable bytes of the buffer. Backing array is returned as is if it holds exactly the frame
+   * (frames produced by FrameDecoders and SinglePacketHandler), otherwise bytes are copied.
+   */
+  public static byte[] toBytes(ChannelBuffer buffer) {
+    int length = buffer.readableBytes();
+    if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.readerIndex() == 0 && buffer.array().length == length) {
+      return buffer.array();
+    }
+    byte[] bytes = new byte[length];
+    buffer.getBytes(buffer.readerIndex(), bytes);
+    return bytes;
+  }
+
 }
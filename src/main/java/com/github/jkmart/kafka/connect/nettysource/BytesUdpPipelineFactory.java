@@ -28,8 +28,7 @@ public class BytesUdpPipelineFactory extends NettyPipelineFactory {
     LinkedHashMap<String, ChannelHandler> defaultHandlers = new LinkedHashMap<>();
     defaultHandlers.put("framer", new SinglePacketHandler());
     SourceRecordHandler handler = new BytesRecordHandler();
-    handler.setTopic(topic);
-    handler.setRecordQueue(messageQueue);
+    initRecordHandler(handler);
     defaultHandlers.put("recordHandler", handler);
     return defaultHandlers;
   }
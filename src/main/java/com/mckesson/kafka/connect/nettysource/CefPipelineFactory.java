@@ -0,0 +1,28 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+/**
+ * Syslog framing and filtering of {@link SyslogPipelineFactory}, records are built by {@link CefRecordHandler}
+ */
+public class CefPipelineFactory extends SyslogPipelineFactory {
+
+  @Override
+  protected SourceRecordHandler createRecordHandler() {
+    return new CefRecordHandler();
+  }
+
+}
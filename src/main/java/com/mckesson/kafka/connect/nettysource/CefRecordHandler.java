@@ -0,0 +1,186 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mckesson.kafka.connect.nettysource.utils.CefParser;
+import com.mckesson.kafka.connect.nettysource.utils.SyslogFrameParser;
+
+/**
+ * Parses ArcSight CEF and IBM LEEF events carried in syslog messages.
+ * Syslog header is optional. Frames without CEF/LEEF event are emitted with '{@value #MESSAGE}' only.
+ */
+public class CefRecordHandler extends SourceRecordHandler {
+
+  public static final String DATE = SyslogRecordHandler.DATE;
+  public static final String FACILITY = SyslogRecordHandler.FACILITY;
+  public static final String LEVEL = SyslogRecordHandler.LEVEL;
+  public static final String HOST = SyslogRecordHandler.HOST;
+  public static final String REMOTE_ADDRESS = SyslogRecordHandler.REMOTE_ADDRESS;
+  public static final String TRANSPORT_PROTOCOL = SyslogRecordHandler.TRANSPORT_PROTOCOL;
+  public static final String FORMAT = "format";
+  public static final String VERSION = "version";
+  public static final String DEVICE_VENDOR = "deviceVendor";
+  public static final String DEVICE_PRODUCT = "deviceProduct";
+  public static final String DEVICE_VERSION = "deviceVersion";
+  public static final String SIGNATURE_ID = "signatureId";
+  public static final String NAME = "name";
+  public static final String SEVERITY = "severity";
+  public static final String EXTENSIONS = "extensions";
+  public static final String MESSAGE = SyslogRecordHandler.MESSAGE;
+
+  static final Schema VALUE_SCHEMA = SchemaBuilder.struct().name("com.mckesson.kafka.connect.cef.CefValue")
+      .doc("This schema represents a CEF or LEEF security event that is written to Kafka.")
+      .field(DATE, Timestamp.builder().optional().doc("The timestamp of the syslog message.").build())
+      .field(FACILITY, SchemaBuilder.int32().optional().doc("The facility of the syslog message.").build())
+      .field(LEVEL, SchemaBuilder.int32().optional().doc("The level of the syslog message.").build())
+      .field(HOST, SchemaBuilder.string().optional().doc("The host of the syslog message.").build())
+      .field(REMOTE_ADDRESS, SchemaBuilder.string().optional().doc("The ip address of the host that sent the message.").build())
+      .field(TRANSPORT_PROTOCOL, SchemaBuilder.string().optional().doc("Transport protocol.").build())
+      .field(FORMAT, SchemaBuilder.string().optional().doc("CEF or LEEF, null if the message is not an event.").build())
+      .field(VERSION, SchemaBuilder.string().optional().doc("CEF or LEEF version.").build())
+      .field(DEVICE_VENDOR, SchemaBuilder.string().optional().doc("Device Vendor.").build())
+      .field(DEVICE_PRODUCT, SchemaBuilder.string().optional().doc("Device Product.").build())
+      .field(DEVICE_VERSION, SchemaBuilder.string().optional().doc("Device Version.").build())
+      .field(SIGNATURE_ID, SchemaBuilder.string().optional().doc("CEF Device Event Class ID or LEEF EventID.").build())
+      .field(NAME, SchemaBuilder.string().optional().doc("CEF Name.").build())
+      .field(SEVERITY, SchemaBuilder.string().optional().doc("CEF Severity.").build())
+      .field(EXTENSIONS, SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.STRING_SCHEMA).optional().doc("Extension fields, escapes removed.").build())
+      .field(MESSAGE, SchemaBuilder.string().optional().doc("The text of the message if it is not CEF or LEEF event.").build())
+      .build();
+
+  private static final Logger LOG = LoggerFactory.getLogger(CefRecordHandler.class);
+
+  private final SyslogFrameParser.Cursor cursor = new SyslogFrameParser.Cursor();
+  private final CefParser parser = new CefParser();
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+
+    Object msg = e.getMessage();
+    byte[] bytes;
+    int offset;
+    int length;
+    if (msg instanceof ChannelBuffer) {
+      ChannelBuffer buf = (ChannelBuffer) msg;
+      length = buf.readableBytes();
+      if (buf.hasArray()) {
+        bytes = buf.array();
+        offset = buf.arrayOffset() + buf.readerIndex();
+      } else {
+        bytes = new byte[length];
+        buf.getBytes(buf.readerIndex(), bytes);
+        offset = 0;
+      }
+    } else if (msg instanceof String) {
+      bytes = ((String) msg).getBytes(StandardCharsets.UTF_8);
+      offset = 0;
+      length = bytes.length;
+    } else {
+      ctx.sendUpstream(e);
+      return;
+    }
+
+    SocketAddress remoteAddr = e.getRemoteAddress();
+    if (remoteAddr == null) {
+      remoteAddr = ctx.getChannel().getRemoteAddress();
+    }
+    String remoteAddress = remoteAddr == null ? null : remoteAddr.toString();
+
+    Channel channel = e.getChannel() != null ? e.getChannel() : ctx.getChannel();
+    String transportProtocol = transportProtocol(channel);
+
+    if (SyslogFrameParser.isBlank(bytes, offset, length)) {
+      LOG.trace("Skipped empty message from {}", remoteAddress);
+      return;
+    }
+
+    SyslogFrameParser.Cursor syslog = this.cursor;
+    Date date = null;
+    String host = null;
+    if (SyslogFrameParser.parse(bytes, offset, length, syslog)) {
+      if (syslog.getTimestamp() != SyslogFrameParser.NO_TIMESTAMP) {
+        date = new Date(syslog.getTimestamp());
+      } else if (syslog.hasTimestampField()) {
+        date = new Date();
+      }
+      host = syslog.getHost(StandardCharsets.UTF_8);
+    }
+
+    Struct valueStruct = new Struct(VALUE_SCHEMA)
+        .put(DATE, date)
+        .put(FACILITY, syslog.getFacility())
+        .put(LEVEL, syslog.getLevel())
+        .put(HOST, host)
+        .put(REMOTE_ADDRESS, remoteAddress)
+        .put(TRANSPORT_PROTOCOL, transportProtocol);
+
+    if (parser.parse(bytes, syslog.getMessageOffset(), offset + length)) {
+      valueStruct
+          .put(FORMAT, parser.getFormat().name())
+          .put(VERSION, parser.getVersion())
+          .put(DEVICE_VENDOR, parser.getDeviceVendor())
+          .put(DEVICE_PRODUCT, parser.getDeviceProduct())
+          .put(DEVICE_VERSION, parser.getDeviceVersion())
+          .put(SIGNATURE_ID, parser.getSignatureId())
+          .put(NAME, parser.getName())
+          .put(SEVERITY, parser.getSeverity())
+          .put(EXTENSIONS, parser.getExtensions());
+    } else {
+      LOG.trace("No CEF/LEEF event in message from {}", remoteAddress);
+      valueStruct.put(MESSAGE, syslog.getMessage(StandardCharsets.UTF_8));
+    }
+
+    Map<String, String> partition = Collections.singletonMap(HOST, host);
+    Map<String, String> sourceOffset = Collections.emptyMap();
+    Struct keyStruct = new Struct(SyslogRecordHandler.KEY_SCHEMA)
+        .put(REMOTE_ADDRESS, remoteAddress);
+
+    Object routingValue = null;
+    if (topicRouter != null) {
+      routingValue = msg instanceof String ? msg : Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+    SourceRecord sourceRecord = new SourceRecord(
+        partition,
+        sourceOffset,
+        topicFor(ctx, e, routingValue),
+        null,
+        SyslogRecordHandler.KEY_SCHEMA,
+        keyStruct,
+        VALUE_SCHEMA,
+        valueStruct);
+    enqueue(ctx, e, sourceRecord);
+  }
+
+}
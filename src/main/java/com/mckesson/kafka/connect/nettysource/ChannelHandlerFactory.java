@@ -15,6 +15,7 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
+import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -66,6 +67,32 @@ public class ChannelHandlerFactory {
       return new LineBasedFrameDecoder(maxLength, stripDelimiter, failFast);
     });
     
+    /**
+     * LengthFieldFrameDecoder
+     * {@code maxLength (8192)}, {@code lengthFieldOffset (0)}, {@code lengthFieldLength (4)},
+     * {@code lengthAdjustment (0)}, {@code initialBytesToStrip (lengthFieldOffset + lengthFieldLength)},
+     * {@code byteOrder (BIG_ENDIAN)}
+     */
+    handlersMap.put(LengthFieldFrameDecoder.class.getName(), config -> {
+      int maxLength = Integer.valueOf(config.getOrDefault("maxLength", "8192").toString());
+      int lengthFieldOffset = Integer.valueOf(config.getOrDefault("lengthFieldOffset", "0").toString());
+      int lengthFieldLength = Integer.valueOf(config.getOrDefault("lengthFieldLength", "4").toString());
+      int lengthAdjustment = Integer.valueOf(config.getOrDefault("lengthAdjustment", "0").toString());
+      int initialBytesToStrip = Integer.valueOf(config.getOrDefault("initialBytesToStrip", String.valueOf(lengthFieldOffset + lengthFieldLength)).toString());
+      ByteOrder byteOrder = "LITTLE_ENDIAN".equalsIgnoreCase(config.getOrDefault("byteOrder", "BIG_ENDIAN").toString()) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+      return new LengthFieldFrameDecoder(maxLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip, byteOrder);
+    });
+
+    /**
+     * StreamDecompressor
+     * {@code format (AUTO)}, {@code chunkSize (8192)}
+     */
+    handlersMap.put(StreamDecompressor.class.getName(), config -> {
+      StreamDecompressor.Format format = StreamDecompressor.Format.valueOf(config.getOrDefault("format", "AUTO").toString().toUpperCase());
+      int chunkSize = Integer.valueOf(config.getOrDefault("chunkSize", String.valueOf(StreamDecompressor.CHUNK_SIZE_DEFAULT)).toString());
+      return new StreamDecompressor(format, chunkSize);
+    });
+
     /**
      * HttpRequestDecoder
      * {@code maxInitialLineLength (4096}}, {@code maxHeaderSize (8192)}, and
@@ -0,0 +1,256 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mckesson.kafka.connect.nettysource.utils.XxHash64;
+
+/**
+ * Drops repeated frames (retransmitted datagrams) seen within a time window.
+ *
+ * Frame bytes are fingerprinted with xxHash64 seeded by the sender IP and checked
+ * against two rotating bloom filter generations: the current one and the one of
+ * the previous window. Frames are remembered for {@code windowMs} at least and
+ * {@code 2 * windowMs} at most. False positives (unique frames dropped) are bounded
+ * by configured fpp while number of frames per window does not exceed expectedItems.
+ */
+@Sharable
+public class DedupHandler extends SimpleChannelUpstreamHandler implements Configurable {
+
+  private static final Logger log = LoggerFactory.getLogger(DedupHandler.class);
+
+  public static final String WINDOW_MS_CONFIG = "windowMs";
+  private static final Long WINDOW_MS_DEFAULT = 2000L;
+
+  public static final String EXPECTED_ITEMS_CONFIG = "expectedItems";
+  private static final int EXPECTED_ITEMS_DEFAULT = 100000;
+
+  public static final String FPP_CONFIG = "fpp";
+  private static final Double FPP_DEFAULT = 0.001;
+
+  public static final String INCLUDE_SENDER_CONFIG = "includeSender";
+  private static final Boolean INCLUDE_SENDER_DEFAULT = Boolean.TRUE;
+
+  public static final String REPORT_INTERVAL_MS_CONFIG = "reportIntervalMs";
+  private static final Long REPORT_INTERVAL_MS_DEFAULT = 60000L;
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(WINDOW_MS_CONFIG, ConfigDef.Type.LONG, WINDOW_MS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.HIGH, "repeats within the window are dropped (millis)")
+      .define(EXPECTED_ITEMS_CONFIG, ConfigDef.Type.INT, EXPECTED_ITEMS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.MEDIUM, "expected number of frames per window")
+      .define(FPP_CONFIG, ConfigDef.Type.DOUBLE, FPP_DEFAULT, ConfigDef.Range.between(0.0000001, 0.5), ConfigDef.Importance.MEDIUM, "false positive probability at expectedItems")
+      .define(INCLUDE_SENDER_CONFIG, ConfigDef.Type.BOOLEAN, INCLUDE_SENDER_DEFAULT, ConfigDef.Importance.MEDIUM, "same frame from different senders is not a repeat")
+      .define(REPORT_INTERVAL_MS_CONFIG, ConfigDef.Type.LONG, REPORT_INTERVAL_MS_DEFAULT, ConfigDef.Importance.LOW, "interval to log dedup ratio (millis). 0 - disabled");
+
+  private long windowNanos = TimeUnit.MILLISECONDS.toNanos(WINDOW_MS_DEFAULT);
+  private boolean includeSender = true;
+  private long reportIntervalNanos;
+  private int numHashes;
+  private int numWords;
+
+  private volatile Generation current;
+  private volatile Generation previous;
+
+  private final AtomicLong seen = new AtomicLong();
+  private final AtomicLong duplicates = new AtomicLong();
+  private long lastReport = System.nanoTime();
+  private long lastReportSeen;
+  private long lastReportDuplicates;
+
+  public DedupHandler() {
+    init(EXPECTED_ITEMS_DEFAULT, FPP_DEFAULT);
+  }
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(WINDOW_MS_CONFIG));
+    this.includeSender = conf.getBoolean(INCLUDE_SENDER_CONFIG);
+    this.reportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(REPORT_INTERVAL_MS_CONFIG));
+    init(conf.getInt(EXPECTED_ITEMS_CONFIG), conf.getDouble(FPP_CONFIG));
+  }
+
+  private void init(int expectedItems, double fpp) {
+    double ln2 = Math.log(2);
+    long bits = (long) Math.ceil(-expectedItems * Math.log(fpp) / (ln2 * ln2));
+    // round up to power of two words to use mask instead of modulo
+    this.numWords = Integer.highestOneBit((int) Math.max(1, Math.min((bits + 63) / 64, 1 << 24)) * 2 - 1);
+    this.numHashes = Math.min(16, Math.max(1, (int) Math.round((double) numWords * 64 / expectedItems * ln2)));
+    this.current = new Generation(numWords, System.nanoTime());
+    this.previous = new Generation(numWords, current.start);
+    log.debug("Dedup filter: {} bits, {} hashes per generation", (long) numWords * 64, numHashes);
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object m = e.getMessage();
+    ChannelBuffer frame;
+    if (m instanceof ChannelBuffer) {
+      frame = (ChannelBuffer) m;
+    } else if (m instanceof String) {
+      frame = ChannelBuffers.wrappedBuffer(((String) m).getBytes(StandardCharsets.UTF_8));
+    } else {
+      ctx.sendUpstream(e);
+      return;
+    }
+
+    long seed = 0;
+    if (includeSender) {
+      SocketAddress remoteAddr = e.getRemoteAddress();
+      if (remoteAddr == null) {
+        remoteAddr = ctx.getChannel().getRemoteAddress();
+      }
+      if (remoteAddr instanceof InetSocketAddress && ((InetSocketAddress) remoteAddr).getAddress() != null) {
+        seed = senderSeed(((InetSocketAddress) remoteAddr).getAddress());
+      }
+    }
+    long hash = XxHash64.hash(frame, frame.readerIndex(), frame.readableBytes(), seed);
+
+    long now = System.nanoTime();
+    Generation cur = current;
+    if (now - cur.start >= windowNanos) {
+      cur = rotate(now);
+    }
+
+    seen.incrementAndGet();
+    if (cur.mightContain(hash, numHashes) || previous.mightContain(hash, numHashes)) {
+      duplicates.incrementAndGet();
+      log.trace("Dropped repeated frame from {}", e.getRemoteAddress());
+      return;
+    }
+    cur.put(hash, numHashes);
+    ctx.sendUpstream(e);
+  }
+
+  private static long senderSeed(InetAddress addr) {
+    byte[] bytes = addr.getAddress();
+    long seed = 0;
+    for (int i = 0; i < bytes.length; i += 8) {
+      long v = 0;
+      for (int j = i; j < i + 8 && j < bytes.length; j++) {
+        v = (v << 8) | (bytes[j] & 0xff);
+      }
+      seed = XxHash64.hash(v, seed);
+    }
+    return seed;
+  }
+
+  private synchronized Generation rotate(long now) {
+    Generation cur = current;
+    if (now - cur.start < windowNanos) {
+      return cur;
+    }
+    Generation next = new Generation(numWords, now);
+    // previous window is stale if nothing was received for a whole window
+    previous = now - cur.start >= 2 * windowNanos ? new Generation(numWords, now) : cur;
+    current = next;
+    report(now);
+    return next;
+  }
+
+  private void report(long now) {
+    if (reportIntervalNanos <= 0 || now - lastReport < reportIntervalNanos) {
+      return;
+    }
+    long s = seen.get();
+    long d = duplicates.get();
+    long ds = s - lastReportSeen;
+    long dd = d - lastReportDuplicates;
+    if (dd > 0) {
+      log.info("Dedup: seen {}, dropped {} ({}%), total dropped {}", ds, dd, String.format("%.2f", 100.0 * dd / ds), d);
+    }
+    lastReport = now;
+    lastReportSeen = s;
+    lastReportDuplicates = d;
+  }
+
+  public long getSeen() {
+    return seen.get();
+  }
+
+  public long getDuplicates() {
+    return duplicates.get();
+  }
+
+  /**
+   * @return dropped to seen frames ratio
+   */
+  public double getDedupRatio() {
+    long s = seen.get();
+    return s == 0 ? 0 : (double) duplicates.get() / s;
+  }
+
+  private static final class Generation {
+    private final AtomicLongArray words;
+    private final int mask;
+    private final long start;
+
+    Generation(int numWords, long start) {
+      this.words = new AtomicLongArray(numWords);
+      this.mask = numWords * 64 - 1;
+      this.start = start;
+    }
+
+    boolean mightContain(long hash, int k) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for (int i = 1; i <= k; i++) {
+        int bit = (h1 + i * h2) & mask;
+        if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void put(long hash, int k) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for (int i = 1; i <= k; i++) {
+        int bit = (h1 + i * h2) & mask;
+        int idx = bit >>> 6;
+        long m = 1L << bit;
+        long v;
+        do {
+          v = words.get(idx);
+          if ((v & m) != 0) {
+            break;
+          }
+        } while (!words.compareAndSet(idx, v, v | m));
+      }
+    }
+  }
+
+}
@@ -17,12 +17,14 @@ package com.mckesson.kafka.connect.nettysource;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.kafka.common.config.ConfigDef;
@@ -32,7 +34,9 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.handler.codec.string.StringDecoder;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
-import org.jboss.netty.util.HashedWheelTimer;
+
+import com.github.jkmart.kafka.connect.nettysource.BytesRecordHandler;
+import com.mckesson.kafka.connect.utils.ConfigUtils;
 
 public class DefaultTcpPipelineFactory extends NettyPipelineFactory {
 
@@ -49,9 +53,60 @@ public class DefaultTcpPipelineFactory extends NettyPipelineFactory {
   public static final String DELIMETERS_CONFIG = FRAME_CONFIG_PREFIX + "delimeters";
   public static final List<String> DELIMETERS_DEFAULT = Arrays.asList("\\0", "\\n");
 
+  public enum FrameMode {
+    DELIMITER, LENGTH_FIELD
+  }
+
+  public static final String FRAME_MODE_CONFIG = FRAME_CONFIG_PREFIX + "mode";
+  private static final String FRAME_MODE_DEFAULT = FrameMode.DELIMITER.name();
+
+  public static final String LENGTH_FIELD_OFFSET_CONFIG = FRAME_CONFIG_PREFIX + "lengthField.offset";
+  private static final int LENGTH_FIELD_OFFSET_DEFAULT = 0;
+
+  public static final String LENGTH_FIELD_LENGTH_CONFIG = FRAME_CONFIG_PREFIX + "lengthField.length";
+  private static final int LENGTH_FIELD_LENGTH_DEFAULT = 4;
+
+  public static final String LENGTH_FIELD_BYTE_ORDER_CONFIG = FRAME_CONFIG_PREFIX + "lengthField.byteOrder";
+  private static final String LENGTH_FIELD_BYTE_ORDER_DEFAULT = "BIG_ENDIAN";
+
+  public static final String LENGTH_ADJUSTMENT_CONFIG = FRAME_CONFIG_PREFIX + "lengthField.adjustment";
+  private static final int LENGTH_ADJUSTMENT_DEFAULT = 0;
+
+  public static final String INITIAL_BYTES_TO_STRIP_CONFIG = FRAME_CONFIG_PREFIX + "lengthField.bytesToStrip";
+
   public static final String NODATA_TIMEOUT_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".tcp.nodataTimeout";
   private static final Long NODATA_TIMEOUT_DEFAULT = 0L;
 
+  private static final String MULTILINE_CONFIG_PREFIX = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".tcp.multiline.";
+  public static final String MULTILINE_PATTERN_CONFIG = MULTILINE_CONFIG_PREFIX + "pattern";
+
+  public static final String MULTILINE_MATCH_CONFIG = MULTILINE_CONFIG_PREFIX + "match";
+  private static final String MULTILINE_MATCH_DEFAULT = MultilineAggregator.Match.START.name();
+
+  public static final String MULTILINE_MAX_LINES_CONFIG = MULTILINE_CONFIG_PREFIX + "maxLines";
+  private static final int MULTILINE_MAX_LINES_DEFAULT = 500;
+
+  public static final String MULTILINE_MAX_BYTES_CONFIG = MULTILINE_CONFIG_PREFIX + "maxBytes";
+  private static final int MULTILINE_MAX_BYTES_DEFAULT = 65536;
+
+  public static final String MULTILINE_TIMEOUT_CONFIG = MULTILINE_CONFIG_PREFIX + "timeout";
+  private static final Long MULTILINE_TIMEOUT_DEFAULT = 1000L;
+
+  public static final String MULTILINE_SEPARATOR_CONFIG = MULTILINE_CONFIG_PREFIX + "separator";
+  private static final String MULTILINE_SEPARATOR_DEFAULT = "\\n";
+
+  public static final String COMPRESSION_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".tcp.compression";
+  private static final String COMPRESSION_DEFAULT = StreamDecompressor.Format.NONE.name();
+
+  public static final String COMPRESSION_CHUNK_SIZE_CONFIG = COMPRESSION_CONFIG + ".chunkSize";
+  private static final int COMPRESSION_CHUNK_SIZE_DEFAULT = StreamDecompressor.CHUNK_SIZE_DEFAULT;
+
+  public static final String COMPRESSION_MAX_BYTES_CONFIG = COMPRESSION_CONFIG + ".maxBytes";
+  private static final Long COMPRESSION_MAX_BYTES_DEFAULT = StreamDecompressor.MAX_BYTES_DEFAULT;
+
+  public static final String COMPRESSION_MAX_RATIO_CONFIG = COMPRESSION_CONFIG + ".maxRatio";
+  private static final int COMPRESSION_MAX_RATIO_DEFAULT = StreamDecompressor.MAX_RATIO_DEFAULT;
+
   //TODO: implement appropriate handlers 
   public static final String MAX_CONNECTIONS_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".tcp.maxConnections";
   private static final int MAX_CONNECTIONS_DEFAULT = 0;
@@ -62,6 +117,26 @@ public class DefaultTcpPipelineFactory extends NettyPipelineFactory {
       .define(STRIP_DELIMETER_CONFIG, ConfigDef.Type.BOOLEAN, STRIP_DELIMETER_DEFAULT, ConfigDef.Importance.MEDIUM, "whether the decoded frame should strip out the delimiter or not")
       .define(FAIL_FAST_CONFIG, ConfigDef.Type.BOOLEAN, FAIL_FAST_DEFAULT, ConfigDef.Importance.MEDIUM, "see LineBasedFrameDecoder javadoc")
       .define(DELIMETERS_CONFIG, ConfigDef.Type.LIST, DELIMETERS_DEFAULT, ConfigDef.Importance.MEDIUM, "list of delimeter strings")
+      .define(FRAME_MODE_CONFIG, ConfigDef.Type.STRING, FRAME_MODE_DEFAULT, ConfigUtils.validEnum(FrameMode.class), ConfigDef.Importance.MEDIUM, "framing mode: DELIMITER or LENGTH_FIELD")
+      .define(LENGTH_FIELD_OFFSET_CONFIG, ConfigDef.Type.INT, LENGTH_FIELD_OFFSET_DEFAULT, ConfigDef.Importance.LOW, "offset of the length field")
+      .define(LENGTH_FIELD_LENGTH_CONFIG, ConfigDef.Type.INT, LENGTH_FIELD_LENGTH_DEFAULT, ConfigUtils.validInt(1, 2, 3, 4, 8), ConfigDef.Importance.LOW, "length of the length field: 1, 2, 3, 4 or 8")
+      .define(LENGTH_FIELD_BYTE_ORDER_CONFIG, ConfigDef.Type.STRING, LENGTH_FIELD_BYTE_ORDER_DEFAULT, ConfigDef.ValidString.in("BIG_ENDIAN", "LITTLE_ENDIAN"), ConfigDef.Importance.LOW, "byte order of the length field")
+      .define(LENGTH_ADJUSTMENT_CONFIG, ConfigDef.Type.INT, LENGTH_ADJUSTMENT_DEFAULT, ConfigDef.Importance.LOW, "compensation value to add to the value of the length field")
+      .define(INITIAL_BYTES_TO_STRIP_CONFIG, ConfigDef.Type.INT, null, ConfigDef.Importance.LOW, "number of first bytes to strip out from the decoded frame. default: offset + length")
+      .define(MULTILINE_PATTERN_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.MEDIUM, "regex to detect multi-line events. multi-line aggregation is disabled if empty")
+      .define(MULTILINE_MATCH_CONFIG, ConfigDef.Type.STRING, MULTILINE_MATCH_DEFAULT, ConfigUtils.validEnum(MultilineAggregator.Match.class), ConfigDef.Importance.MEDIUM,
+          "START - pattern matches the first line of an event, CONTINUATION - pattern matches continuation lines")
+      .define(MULTILINE_MAX_LINES_CONFIG, ConfigDef.Type.INT, MULTILINE_MAX_LINES_DEFAULT, ConfigDef.Importance.LOW, "max number of lines in one event")
+      .define(MULTILINE_MAX_BYTES_CONFIG, ConfigDef.Type.INT, MULTILINE_MAX_BYTES_DEFAULT, ConfigDef.Importance.LOW, "max size of one event in bytes")
+      .define(MULTILINE_TIMEOUT_CONFIG, ConfigDef.Type.LONG, MULTILINE_TIMEOUT_DEFAULT, ConfigDef.Importance.LOW, "pending event is flushed if no lines received within timeout (millis)")
+      .define(MULTILINE_SEPARATOR_CONFIG, ConfigDef.Type.STRING, MULTILINE_SEPARATOR_DEFAULT, ConfigDef.Importance.LOW, "lines separator in joined event")
+      .define(COMPRESSION_CONFIG, ConfigDef.Type.STRING, COMPRESSION_DEFAULT, ConfigUtils.validEnum(StreamDecompressor.Format.class), ConfigDef.Importance.MEDIUM,
+          "stream compression: NONE, AUTO (detect by magic bytes), GZIP or ZLIB")
+      .define(COMPRESSION_CHUNK_SIZE_CONFIG, ConfigDef.Type.INT, COMPRESSION_CHUNK_SIZE_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, "max size of decompressed chunk passed to the framer")
+      .define(COMPRESSION_MAX_BYTES_CONFIG, ConfigDef.Type.LONG, COMPRESSION_MAX_BYTES_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW,
+          "connection is closed when decompressed bytes exceed this. 0 - unlimited")
+      .define(COMPRESSION_MAX_RATIO_CONFIG, ConfigDef.Type.INT, COMPRESSION_MAX_RATIO_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW,
+          "connection is closed when decompressed bytes exceed compressed bytes this many times (checked after 1MB). 0 - unlimited")
       .define(NODATA_TIMEOUT_CONFIG, ConfigDef.Type.LONG, NODATA_TIMEOUT_DEFAULT, ConfigDef.Importance.MEDIUM, "when no data was read within a certain period of time")
       .define(MAX_CONNECTIONS_CONFIG, ConfigDef.Type.INT, MAX_CONNECTIONS_DEFAULT, ConfigDef.Importance.MEDIUM, "max number of connections allowed. default 4096. set to 0 to disable")
       .define(MAX_CONNECTIONS_PER_IP_CONFIG, ConfigDef.Type.INT, null, ConfigDef.Importance.MEDIUM, "max number of connections per IP allowed. default: maxConnections");
@@ -70,9 +145,27 @@ public class DefaultTcpPipelineFactory extends NettyPipelineFactory {
   private boolean stripDelimiter = true;
   private boolean failFast = false;
   private List<ChannelBuffer> delimeters;
+  private FrameMode frameMode;
+  private int lengthFieldOffset;
+  private int lengthFieldLength;
+  private int lengthAdjustment;
+  private int initialBytesToStrip;
+  private ByteOrder lengthFieldByteOrder;
 
   private ReadTimeoutHandler readTimeoutHandler;
 
+  private StreamDecompressor.Format compression;
+  private int compressionChunkSize;
+  private long compressionMaxBytes;
+  private int compressionMaxRatio;
+
+  private Pattern multilinePattern;
+  private MultilineAggregator.Match multilineMatch;
+  private int multilineMaxLines;
+  private int multilineMaxBytes;
+  private long multilineTimeout;
+  private byte[] multilineSeparator;
+
   public LinkedHashMap<String, ChannelHandler> defaultHandlers(NettySourceConnectorConfig conf) {
 
     LinkedHashMap<String, ChannelHandler> defaultHandlers = new LinkedHashMap<>();
@@ -81,11 +174,34 @@ public class DefaultTcpPipelineFactory extends NettyPipelineFactory {
       defaultHandlers.put("nodataTimeout", readTimeoutHandler);
     }
 
-    defaultHandlers.put("framer", new DelimeterOrMaxLengthFrameDecoder(maxLength, stripDelimiter, failFast, delimeters.toArray(new ChannelBuffer[0])));
-    defaultHandlers.put("decoder", new StringDecoder());
-    SourceRecordHandler handler = new StringRecordHandler();
-    handler.setTopic(topic);
-    handler.setRecordQueue(messageQueue);
+    if (compression != StreamDecompressor.Format.NONE) {
+      defaultHandlers.put("decompressor", new StreamDecompressor(compression, compressionChunkSize, compressionMaxBytes, compressionMaxRatio));
+    }
+
+    boolean fused = false;
+    if (frameMode == FrameMode.LENGTH_FIELD) {
+      defaultHandlers.put("framer", new LengthFieldFrameDecoder(maxLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip, lengthFieldByteOrder));
+    } else if (fusedDecoder && multilinePattern == null && valueFormat == ValueFormat.STRING) {
+      defaultHandlers.put("framer", new StringFrameDecoder(maxLength, stripDelimiter, failFast, delimeters.toArray(new ChannelBuffer[0])));
+      fused = true;
+    } else {
+      defaultHandlers.put("framer", new DelimeterOrMaxLengthFrameDecoder(maxLength, stripDelimiter, failFast, delimeters.toArray(new ChannelBuffer[0])));
+    }
+
+    if (multilinePattern != null) {
+      defaultHandlers.put("multiline", new MultilineAggregator(multilinePattern, multilineMatch, multilineMaxLines, multilineMaxBytes,
+          multilineTimeout, multilineSeparator, getTimer()));
+    }
+    SourceRecordHandler handler;
+    if (valueFormat == ValueFormat.BYTES) {
+      handler = new BytesRecordHandler();
+    } else {
+      if (!fused) {
+        defaultHandlers.put("decoder", new StringDecoder());
+      }
+      handler = new StringRecordHandler();
+    }
+    initRecordHandler(handler);
     defaultHandlers.put("recordHandler", handler);
     return defaultHandlers;
   }
@@ -106,17 +222,39 @@ public class DefaultTcpPipelineFactory extends NettyPipelineFactory {
         this.delimeters.add(new ByteBufferBackedChannelBuffer(ByteBuffer.wrap(str.getBytes())));
       }
     }
+    this.frameMode = ConfigUtils.getEnum(syslogConfig, FRAME_MODE_CONFIG, FrameMode.class);
+    this.lengthFieldOffset = syslogConfig.getInt(LENGTH_FIELD_OFFSET_CONFIG);
+    this.lengthFieldLength = syslogConfig.getInt(LENGTH_FIELD_LENGTH_CONFIG);
+    this.lengthAdjustment = syslogConfig.getInt(LENGTH_ADJUSTMENT_CONFIG);
+    Integer bytesToStrip = syslogConfig.getInt(INITIAL_BYTES_TO_STRIP_CONFIG);
+    this.initialBytesToStrip = bytesToStrip == null ? lengthFieldOffset + lengthFieldLength : bytesToStrip;
+    this.lengthFieldByteOrder = "LITTLE_ENDIAN".equals(syslogConfig.getString(LENGTH_FIELD_BYTE_ORDER_CONFIG)) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+    String mlPattern = syslogConfig.getString(MULTILINE_PATTERN_CONFIG);
+    if (mlPattern != null && mlPattern.length() > 0) {
+      this.multilinePattern = Pattern.compile(mlPattern);
+      this.multilineMatch = ConfigUtils.getEnum(syslogConfig, MULTILINE_MATCH_CONFIG, MultilineAggregator.Match.class);
+      this.multilineMaxLines = syslogConfig.getInt(MULTILINE_MAX_LINES_CONFIG);
+      this.multilineMaxBytes = syslogConfig.getInt(MULTILINE_MAX_BYTES_CONFIG);
+      this.multilineTimeout = syslogConfig.getLong(MULTILINE_TIMEOUT_CONFIG);
+      this.multilineSeparator = StringEscapeUtils.unescapeJava(syslogConfig.getString(MULTILINE_SEPARATOR_CONFIG)).getBytes();
+    }
+
+    this.compression = ConfigUtils.getEnum(syslogConfig, COMPRESSION_CONFIG, StreamDecompressor.Format.class);
+    this.compressionChunkSize = syslogConfig.getInt(COMPRESSION_CHUNK_SIZE_CONFIG);
+    this.compressionMaxBytes = syslogConfig.getLong(COMPRESSION_MAX_BYTES_CONFIG);
+    this.compressionMaxRatio = syslogConfig.getInt(COMPRESSION_MAX_RATIO_CONFIG);
+
     long readTimeout = syslogConfig.getLong(NODATA_TIMEOUT_CONFIG);
     if (readTimeout > 0) {
-      this.readTimeoutHandler = new ReadTimeoutHandler(new HashedWheelTimer(), readTimeout, TimeUnit.MILLISECONDS);
+      this.readTimeoutHandler = new ReadTimeoutHandler(getTimer(), readTimeout, TimeUnit.MILLISECONDS);
     }
   }
 
   @Override
   public void close() throws IOException {
-    if (this.readTimeoutHandler != null) {
-      this.readTimeoutHandler.releaseExternalResources();
-    }
+    this.readTimeoutHandler = null;
+    super.close();
   }
 
 }
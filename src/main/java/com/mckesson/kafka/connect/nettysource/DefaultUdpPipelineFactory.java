@@ -15,20 +15,31 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
+import java.nio.charset.Charset;
 import java.util.LinkedHashMap;
 
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.handler.codec.string.StringDecoder;
 
+import com.github.jkmart.kafka.connect.nettysource.BytesRecordHandler;
+
 public class DefaultUdpPipelineFactory extends NettyPipelineFactory {
 
   public LinkedHashMap<String, ChannelHandler> defaultHandlers(NettySourceConnectorConfig conf) {
     LinkedHashMap<String, ChannelHandler> defaultHandlers = new LinkedHashMap<>();
-    defaultHandlers.put("framer", new SinglePacketHandler());
-    defaultHandlers.put("decoder", new StringDecoder());
-    SourceRecordHandler handler = new StringRecordHandler();
-    handler.setTopic(topic);
-    handler.setRecordQueue(messageQueue);
+    SourceRecordHandler handler;
+    if (valueFormat == ValueFormat.BYTES) {
+      defaultHandlers.put("framer", new SinglePacketHandler());
+      handler = new BytesRecordHandler();
+    } else if (fusedDecoder) {
+      defaultHandlers.put("framer", new SinglePacketHandler(Charset.defaultCharset()));
+      handler = new StringRecordHandler();
+    } else {
+      defaultHandlers.put("framer", new SinglePacketHandler());
+      defaultHandlers.put("decoder", new StringDecoder());
+      handler = new StringRecordHandler();
+    }
+    initRecordHandler(handler);
     defaultHandlers.put("recordHandler", handler);
     return defaultHandlers;
   }
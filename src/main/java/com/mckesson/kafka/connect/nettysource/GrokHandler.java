@@ -0,0 +1,336 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mckesson.kafka.connect.nettysource.utils.Grok;
+import com.mckesson.kafka.connect.utils.ConfigUtils;
+
+/**
+ * Extracts fields from lines with grok-style patterns.
+ *
+ * Patterns are compiled once and tried in configured order, the first match wins.
+ * Patterns are matched from the start of the line and indexed by their literal prefix,
+ * so only patterns with a prefix of the line (and patterns without a prefix) are run.
+ * Matched lines are passed upstream as a map of fields ({@link Fields}, keeps the original line),
+ * to be converted by {@link StructuredLineRecordHandler}. Handler is {@code @Sharable}, pattern stats are
+ * kept per factory.
+ */
+@Sharable
+public class GrokHandler extends SimpleChannelUpstreamHandler implements Configurable {
+
+  private static final Logger log = LoggerFactory.getLogger(GrokHandler.class);
+
+  public enum NoMatch {
+    PASS, DROP
+  }
+
+  public static final String PATTERNS_CONFIG = "patterns";
+
+  public static final String PATTERN_CONFIG_PREFIX = "pattern.";
+
+  public static final String DEFINITION_CONFIG_PREFIX = "definition.";
+
+  public static final String DEFINITIONS_FILE_CONFIG = "definitionsFile";
+
+  public static final String ON_NO_MATCH_CONFIG = "onNoMatch";
+  private static final String ON_NO_MATCH_DEFAULT = NoMatch.PASS.name();
+
+  public static final String MESSAGE_FIELD_CONFIG = "messageField";
+
+  public static final String PATTERN_FIELD_CONFIG = "patternField";
+
+  public static final String REPORT_INTERVAL_MS_CONFIG = "reportIntervalMs";
+  private static final Long REPORT_INTERVAL_MS_DEFAULT = 60000L;
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(PATTERNS_CONFIG, ConfigDef.Type.LIST, ConfigDef.NO_DEFAULT_VALUE, ConfigDef.Importance.HIGH, "names of patterns in match order, each defined by 'pattern.<name>'")
+      .define(DEFINITIONS_FILE_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.LOW, "named patterns file: NAME regex")
+      .define(ON_NO_MATCH_CONFIG, ConfigDef.Type.STRING, ON_NO_MATCH_DEFAULT, ConfigUtils.validEnum(NoMatch.class), ConfigDef.Importance.MEDIUM, "PASS - line is passed as is, DROP")
+      .define(MESSAGE_FIELD_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.LOW, "field to keep original line in. default: not kept")
+      .define(PATTERN_FIELD_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.LOW, "field to keep name of matched pattern in. default: not kept")
+      .define(REPORT_INTERVAL_MS_CONFIG, ConfigDef.Type.LONG, REPORT_INTERVAL_MS_DEFAULT, ConfigDef.Importance.LOW, "interval to log pattern stats (millis). 0 - disabled");
+
+  private Entry[] entries = new Entry[0];
+  /**
+   * candidates by the first char of the line, for chars not found - {@link #unprefixed}
+   */
+  private Map<Character, Entry[]> index = new HashMap<>();
+  private Entry[] unprefixed = new Entry[0];
+
+  private NoMatch onNoMatch = NoMatch.PASS;
+  private String messageField;
+  private String patternField;
+  private long reportIntervalNanos;
+
+  private final LongAdder lines = new LongAdder();
+  private final LongAdder unmatched = new LongAdder();
+  private final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
+    this.onNoMatch = ConfigUtils.getEnum(conf, ON_NO_MATCH_CONFIG, NoMatch.class);
+    this.messageField = conf.getString(MESSAGE_FIELD_CONFIG);
+    this.patternField = conf.getString(PATTERN_FIELD_CONFIG);
+    this.reportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(REPORT_INTERVAL_MS_CONFIG));
+
+    Map<String, String> definitions = new HashMap<>();
+    String definitionsFile = conf.getString(DEFINITIONS_FILE_CONFIG);
+    if (definitionsFile != null) {
+      try {
+        for (String line : Files.readAllLines(Paths.get(definitionsFile), StandardCharsets.UTF_8)) {
+          String l = line.trim();
+          int sp = l.indexOf(' ');
+          if (!l.isEmpty() && !l.startsWith("#") && sp > 0) {
+            definitions.put(l.substring(0, sp), l.substring(sp + 1).trim());
+          }
+        }
+      } catch (IOException e) {
+        throw new ConfigException(DEFINITIONS_FILE_CONFIG, definitionsFile, "Failed to read: " + e.getMessage());
+      }
+    }
+    for (Map.Entry<String, Object> d : conf.originalsWithPrefix(DEFINITION_CONFIG_PREFIX).entrySet()) {
+      definitions.put(d.getKey(), d.getValue().toString());
+    }
+
+    Map<String, Object> expressions = conf.originalsWithPrefix(PATTERN_CONFIG_PREFIX);
+    List<String> names = conf.getList(PATTERNS_CONFIG);
+    Entry[] compiled = new Entry[names.size()];
+    for (int i = 0; i < compiled.length; i++) {
+      String name = names.get(i);
+      Object expr = expressions.get(name);
+      if (expr == null) {
+        throw new ConfigException(PATTERN_CONFIG_PREFIX + name, null, "Pattern is not defined");
+      }
+      try {
+        compiled[i] = new Entry(name, Grok.compile(expr.toString(), definitions));
+      } catch (IllegalArgumentException e) {
+        throw new ConfigException(PATTERN_CONFIG_PREFIX + name, expr, e.getMessage());
+      }
+      log.debug("Grok pattern '{}': prefix '{}', regex {}", name, compiled[i].prefix, compiled[i].grok.getPattern());
+    }
+    buildIndex(compiled);
+  }
+
+  private void buildIndex(Entry[] compiled) {
+    List<Entry> noPrefix = new ArrayList<>();
+    Map<Character, List<Entry>> byChar = new HashMap<>();
+    for (Entry e : compiled) {
+      if (e.prefix.isEmpty()) {
+        noPrefix.add(e);
+        // keep match order: patterns without prefix are candidates for every char
+        byChar.values().forEach(l -> l.add(e));
+      } else {
+        byChar.computeIfAbsent(e.prefix.charAt(0), c -> new ArrayList<>(noPrefix)).add(e);
+      }
+    }
+    Map<Character, Entry[]> idx = new HashMap<>();
+    byChar.forEach((c, l) -> idx.put(c, l.toArray(new Entry[0])));
+
+    this.entries = compiled;
+    this.unprefixed = noPrefix.toArray(new Entry[0]);
+    this.index = idx;
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object m = e.getMessage();
+    String line;
+    if (m instanceof String) {
+      line = (String) m;
+    } else if (m instanceof ChannelBuffer) {
+      line = ((ChannelBuffer) m).toString(StandardCharsets.UTF_8);
+    } else {
+      ctx.sendUpstream(e);
+      return;
+    }
+    lines.increment();
+
+    Entry[] candidates = line.isEmpty() ? unprefixed : index.getOrDefault(line.charAt(0), unprefixed);
+    Fields out = new Fields(line);
+    Fields fields = null;
+    for (Entry c : candidates) {
+      if (!c.prefix.isEmpty() && !line.startsWith(c.prefix)) {
+        continue;
+      }
+      long start = System.nanoTime();
+      boolean matched = c.grok.match(line, out);
+      c.nanos.add(System.nanoTime() - start);
+      c.attempts.increment();
+      if (matched) {
+        c.hits.increment();
+        if (patternField != null) {
+          out.put(patternField, c.name);
+        }
+        fields = out;
+        break;
+      }
+    }
+    report();
+
+    if (fields == null) {
+      unmatched.increment();
+      if (onNoMatch == NoMatch.PASS) {
+        ctx.sendUpstream(e);
+      } else {
+        log.trace("Dropped unmatched line from {}", e.getRemoteAddress());
+      }
+      return;
+    }
+    if (messageField != null) {
+      fields.put(messageField, line);
+    }
+    Channels.fireMessageReceived(ctx, fields, e.getRemoteAddress());
+  }
+
+  /**
+   * Fields of a matched line, sorted by name
+   */
+  public static final class Fields extends TreeMap<String, Object> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient String line;
+
+    Fields(String line) {
+      this.line = line;
+    }
+
+    /**
+     * @return matched line
+     */
+    public String getLine() {
+      return line;
+    }
+  }
+
+  private void report() {
+    if (reportIntervalNanos <= 0) {
+      return;
+    }
+    long now = System.nanoTime();
+    long last = lastReport.get();
+    if (now - last < reportIntervalNanos || !lastReport.compareAndSet(last, now)) {
+      return;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Entry c : entries) {
+      long attempts = c.attempts.sum();
+      sb.append(' ').append(c.name).append(": hits=").append(c.hits.sum()).append(", attempts=").append(attempts)
+          .append(", avgNanos=").append(attempts == 0 ? 0 : c.nanos.sum() / attempts).append(';');
+    }
+    log.info("Grok: lines={}, unmatched={};{}", lines.sum(), unmatched.sum(), sb);
+  }
+
+  public long getLines() {
+    return lines.sum();
+  }
+
+  public long getUnmatched() {
+    return unmatched.sum();
+  }
+
+  /**
+   * @return stats per pattern name in match order
+   */
+  public Map<String, PatternStats> getPatternStats() {
+    Map<String, PatternStats> result = new LinkedHashMap<>();
+    for (Entry c : entries) {
+      result.put(c.name, new PatternStats(c.hits.sum(), c.attempts.sum(), c.nanos.sum()));
+    }
+    return result;
+  }
+
+  /**
+   * Snapshot of pattern counters
+   */
+  public static final class PatternStats {
+    private final long hits;
+    private final long attempts;
+    private final long nanos;
+
+    PatternStats(long hits, long attempts, long nanos) {
+      this.hits = hits;
+      this.attempts = attempts;
+      this.nanos = nanos;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    /**
+     * @return number of lines the pattern was run against
+     */
+    public long getAttempts() {
+      return attempts;
+    }
+
+    /**
+     * @return time spent matching, including misses
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    @Override
+    public String toString() {
+      return "hits=" + hits + ", attempts=" + attempts + ", nanos=" + nanos;
+    }
+  }
+
+  private static final class Entry {
+    private final String name;
+    private final Grok grok;
+    private final String prefix;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    Entry(String name, Grok grok) {
+      this.name = name;
+      this.grok = grok;
+      this.prefix = grok.getLiteralPrefix();
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.connect.source.SourceRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splunk HEC indexer acknowledgement state, shared by all connections of a pipeline factory.
+ *
+ * Each request of a data channel gets an ack id. Records of the request are queued as {@link AckedRecord}s,
+ * the ack id is acknowledged when all of them are committed by the task ({@code SourceTask.commitRecord}),
+ * i.e. written to Kafka. Acknowledged ids are removed once reported to the client,
+ * idle channels are removed with their ids.
+ */
+public class HecAckTracker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HecAckTracker.class);
+
+  private final ConcurrentMap<String, AckChannel> channels = new ConcurrentHashMap<>();
+  private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+  /**
+   * Starts a batch for the next request of the channel.
+   *
+   * @param maxPending max number of not reported ack ids of the channel
+   * @return batch, null if the channel has too many pending ack ids
+   */
+  public Batch newBatch(String channel, int maxPending) {
+    AckChannel ch = channels.computeIfAbsent(channel, AckChannel::new);
+    ch.lastAccess = System.currentTimeMillis();
+    if (ch.batches.size() >= maxPending) {
+      return null;
+    }
+    Batch batch = new Batch(ch, ch.nextId.getAndIncrement());
+    ch.batches.put(batch.id, batch);
+    return batch;
+  }
+
+  /**
+   * Reports ack status of the ids, acknowledged ids are removed.
+   * Unknown ids (never issued, already reported or expired) are reported as not acknowledged.
+   */
+  public Map<Long, Boolean> query(String channel, Collection<Long> ids) {
+    Map<Long, Boolean> result = new LinkedHashMap<>();
+    AckChannel ch = channels.get(channel);
+    if (ch != null) {
+      ch.lastAccess = System.currentTimeMillis();
+    }
+    for (Long id : ids) {
+      Batch batch = ch == null ? null : ch.batches.get(id);
+      boolean acked = batch != null && batch.isAcked();
+      if (acked) {
+        ch.batches.remove(id);
+      }
+      result.put(id, acked);
+    }
+    return result;
+  }
+
+  /**
+   * Removes channels not accessed for idleTimeoutMs. Runs at most once per second
+   */
+  public void sweep(long idleTimeoutMs) {
+    long now = System.currentTimeMillis();
+    long last = lastSweep.get();
+    if (idleTimeoutMs <= 0 || now - last < 1000 || !lastSweep.compareAndSet(last, now)) {
+      return;
+    }
+    for (Iterator<AckChannel> it = channels.values().iterator(); it.hasNext();) {
+      AckChannel ch = it.next();
+      if (now - ch.lastAccess > idleTimeoutMs) {
+        it.remove();
+        LOG.debug("Removed idle HEC channel {} with {} ack ids", ch.name, ch.batches.size());
+      }
+    }
+  }
+
+  public int getChannels() {
+    return channels.size();
+  }
+
+  private static final class AckChannel {
+    private final String name;
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentMap<Long, Batch> batches = new ConcurrentHashMap<>();
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    AckChannel(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Records of one request
+   */
+  public static final class Batch {
+    private final AckChannel channel;
+    private final long id;
+    // one for the request itself, released by seal()
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    Batch(AckChannel channel, long id) {
+      this.channel = channel;
+      this.id = id;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    /**
+     * @return record to queue instead of the given one
+     */
+    public SourceRecord track(SourceRecord record) {
+      pending.incrementAndGet();
+      return new AckedRecord(record, this);
+    }
+
+    /**
+     * All records of the request are tracked
+     */
+    public void seal() {
+      pending.decrementAndGet();
+    }
+
+    /**
+     * Request is rejected, the ack id is never acknowledged
+     */
+    public void cancel() {
+      channel.batches.remove(id, this);
+    }
+
+    boolean isAcked() {
+      return pending.get() <= 0;
+    }
+
+    void committed() {
+      pending.decrementAndGet();
+    }
+  }
+
+  /**
+   * Record acknowledged to its batch on commit
+   */
+  public static final class AckedRecord extends SourceRecord {
+    private final Batch batch;
+
+    AckedRecord(SourceRecord r, Batch batch) {
+      super(r.sourcePartition(), r.sourceOffset(), r.topic(), r.kafkaPartition(), r.keySchema(), r.key(), r.valueSchema(), r.value(),
+          r.timestamp(), r.headers());
+      this.batch = batch;
+    }
+
+    /**
+     * Called when the record is written to Kafka
+     */
+    public void committed() {
+      batch.committed();
+    }
+  }
+
+}
@@ -0,0 +1,510 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.header.Header;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.net.HttpHeaders;
+import com.mckesson.kafka.connect.nettysource.utils.JsonStreamUtils;
+import com.mckesson.kafka.connect.utils.ConfigUtils;
+
+/**
+ * Splunk HTTP Event Collector compatible endpoint.
+ *
+ * {@code /services/collector[/event]} accepts concatenated JSON events, {@code /services/collector/raw}
+ * accepts newline delimited text with metadata in query parameters, {@code /services/collector/health}
+ * reports health. Events are split with a streaming parser, record value is the event text
+ * (original JSON if the event is not a string). {@code host}, {@code source}, {@code sourcetype},
+ * {@code index} and indexed {@code fields} become record headers, {@code index} and {@code sourcetype}
+ * may select the topic. Requests are answered with HEC status JSON. A batch with an invalid event
+ * is rejected as a whole. Requires aggregated requests (not streaming mode).
+ *
+ * With indexer acknowledgement enabled requests of a data channel get {@code ackId},
+ * which {@code /services/collector/ack} reports once all records of the request are committed to Kafka,
+ * see {@link HecAckTracker}.
+ */
+public class HecRecordHandler extends HttpRequestRecordHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HecRecordHandler.class);
+
+  public static final String HOST_HEADER = "hec.host";
+  public static final String SOURCE_HEADER = "hec.source";
+  public static final String SOURCETYPE_HEADER = "hec.sourcetype";
+  public static final String INDEX_HEADER = "hec.index";
+  public static final String FIELDS_HEADER_PREFIX = "hec.fields.";
+
+  public static final String TOKENS_CONFIG = "tokens";
+
+  public static final String INDEX_TOPICS_CONFIG = "indexTopics";
+
+  public static final String SOURCETYPE_TOPICS_CONFIG = "sourcetypeTopics";
+
+  public static final String ACK_ENABLED_CONFIG = "ack.enabled";
+  public static final Boolean ACK_ENABLED_DEFAULT = Boolean.FALSE;
+
+  public static final String ACK_MAX_PENDING_CONFIG = "ack.maxPending";
+  public static final int ACK_MAX_PENDING_DEFAULT = 10000;
+
+  public static final String ACK_IDLE_TIMEOUT_MS_CONFIG = "ack.idleTimeoutMs";
+  public static final Long ACK_IDLE_TIMEOUT_MS_DEFAULT = 600000L;
+
+  public static final String CHANNEL_HEADER = "X-Splunk-Request-Channel";
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(TOKENS_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.HIGH, "accepted HEC tokens. empty - token is not required")
+      .define(INDEX_TOPICS_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.MEDIUM,
+          "aliases of index to topic entries: '" + INDEX_TOPICS_CONFIG + ".<alias>.value' is the topic, '.key' is the index (default: alias)")
+      .define(SOURCETYPE_TOPICS_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.MEDIUM,
+          "aliases of sourcetype to topic entries, used if index is not mapped")
+      .define(ACK_ENABLED_CONFIG, ConfigDef.Type.BOOLEAN, ACK_ENABLED_DEFAULT, ConfigDef.Importance.MEDIUM,
+          "indexer acknowledgement: requests require data channel and get ackId, acknowledged when records are committed to Kafka")
+      .define(ACK_MAX_PENDING_CONFIG, ConfigDef.Type.INT, ACK_MAX_PENDING_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW,
+          "max number of ack ids of a channel not reported to the client, requests are rejected with 503 when reached")
+      .define(ACK_IDLE_TIMEOUT_MS_CONFIG, ConfigDef.Type.LONG, ACK_IDLE_TIMEOUT_MS_DEFAULT, ConfigDef.Importance.LOW,
+          "channels not used for this time are removed with their ack ids (millis). 0 - never");
+
+  private static final Set<String> EVENT_PATHS = new HashSet<>(Arrays.asList("/services/collector", "/services/collector/event", "/services/collector/event/1.0"));
+  private static final Set<String> RAW_PATHS = new HashSet<>(Arrays.asList("/services/collector/raw", "/services/collector/raw/1.0"));
+  private static final Set<String> HEALTH_PATHS = new HashSet<>(Arrays.asList("/services/collector/health", "/services/collector/health/1.0"));
+  private static final Set<String> ACK_PATHS = new HashSet<>(Arrays.asList("/services/collector/ack", "/services/collector/ack/1.0"));
+
+  private static final String AUTH_SCHEME = "Splunk ";
+
+  private Set<String> tokens = Collections.emptySet();
+  private Map<String, String> indexTopics = Collections.emptyMap();
+  private Map<String, String> sourcetypeTopics = Collections.emptyMap();
+  private boolean ackEnabled = ACK_ENABLED_DEFAULT;
+  private int ackMaxPending = ACK_MAX_PENDING_DEFAULT;
+  private long ackIdleTimeoutMs = ACK_IDLE_TIMEOUT_MS_DEFAULT;
+  private HecAckTracker ackTracker;
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    super.configure(configs);
+    SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
+    this.tokens = new HashSet<>(conf.getList(TOKENS_CONFIG));
+    this.indexTopics = ConfigUtils.getMap(conf, INDEX_TOPICS_CONFIG);
+    this.sourcetypeTopics = ConfigUtils.getMap(conf, SOURCETYPE_TOPICS_CONFIG);
+    this.ackEnabled = conf.getBoolean(ACK_ENABLED_CONFIG);
+    this.ackMaxPending = conf.getInt(ACK_MAX_PENDING_CONFIG);
+    this.ackIdleTimeoutMs = conf.getLong(ACK_IDLE_TIMEOUT_MS_CONFIG);
+    if (ackEnabled && isEnvelopeEnabled()) {
+      throw new ConfigException(ACK_ENABLED_CONFIG, true, "indexer acknowledgement can't be used with envelopes");
+    }
+    if (ackEnabled && ackTracker == null) {
+      // replaced by the tracker shared by all connections, see HttpPipelineFactory
+      this.ackTracker = new HecAckTracker();
+    }
+  }
+
+  /**
+   * Sets ack state shared by all connections of the factory
+   */
+  public void setAckTracker(HecAckTracker ackTracker) {
+    this.ackTracker = ackTracker;
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object msg = e.getMessage();
+    if (!(msg instanceof HttpRequest)) {
+      ctx.sendUpstream(e);
+      return;
+    }
+    HttpRequest request = (HttpRequest) msg;
+    if (!acceptRequest(e)) {
+      return;
+    }
+
+    HttpResponse response;
+    try {
+      response = handle(ctx, e, request);
+    } catch (HecException ex) {
+      LOG.debug("HEC request {} from {} failed: {}", request.getUri(), e.getRemoteAddress(), ex.getMessage());
+      response = reply(ex.status, ex.code, ex.getMessage(), ex.invalidEvent);
+      if (ex.status == HttpResponseStatus.SERVICE_UNAVAILABLE) {
+        response.headers().set(HttpHeaders.RETRY_AFTER, OVERLOADED_RETRY_AFTER_SECONDS);
+      }
+    }
+    writeResponse(e, request, response);
+  }
+
+  private HttpResponse handle(ChannelHandlerContext ctx, MessageEvent e, HttpRequest request) throws IOException {
+    QueryStringDecoder query = new QueryStringDecoder(request.getUri());
+    String path = query.getPath();
+    if (path.length() > 1 && path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    if (HEALTH_PATHS.contains(path)) {
+      return reply(HttpResponseStatus.OK, 17, "HEC is healthy", -1);
+    }
+    boolean ack = ACK_PATHS.contains(path);
+    boolean raw = RAW_PATHS.contains(path);
+    if (!ack && !raw && !EVENT_PATHS.contains(path)) {
+      throw new HecException(HttpResponseStatus.NOT_FOUND, 404, "The requested URL was not found on this server.", -1);
+    }
+
+    if (!tokens.isEmpty()) {
+      String auth = request.headers().get(HttpHeaders.AUTHORIZATION);
+      if (auth == null || !auth.regionMatches(true, 0, AUTH_SCHEME, 0, AUTH_SCHEME.length())) {
+        throw new HecException(HttpResponseStatus.UNAUTHORIZED, 2, "Token is required", -1);
+      }
+      if (!tokens.contains(auth.substring(AUTH_SCHEME.length()).trim())) {
+        throw new HecException(HttpResponseStatus.FORBIDDEN, 4, "Invalid token", -1);
+      }
+    }
+
+    String channel = null;
+    if (ackEnabled) {
+      channel = request.headers().get(CHANNEL_HEADER);
+      if (channel == null) {
+        channel = param(query, "channel");
+      }
+      if (channel == null || channel.isEmpty()) {
+        throw new HecException(HttpResponseStatus.BAD_REQUEST, 10, "Data channel is missing", -1);
+      }
+      ackTracker.sweep(ackIdleTimeoutMs);
+    } else if (ack) {
+      throw new HecException(HttpResponseStatus.BAD_REQUEST, 14, "ACK is disabled", -1);
+    }
+
+    ChannelBuffer content = request.getContent();
+    if (content == null || !content.readable()) {
+      throw new HecException(HttpResponseStatus.BAD_REQUEST, 5, "No data", -1);
+    }
+    byte[] data = new byte[content.readableBytes()];
+    content.getBytes(content.readerIndex(), data);
+    if (ack) {
+      return ackReply(channel, data);
+    }
+
+    Meta defaults = new Meta();
+    defaults.host = param(query, "host");
+    defaults.source = param(query, "source");
+    defaults.sourcetype = param(query, "sourcetype");
+    defaults.index = param(query, "index");
+
+    List<Header> connHeaders = connectionHeaders(ctx, e, false);
+    List<SourceRecord> records = raw ? parseRaw(ctx, e, data, defaults, connHeaders) : parseEvents(ctx, e, data, defaults, connHeaders);
+    if (records.isEmpty()) {
+      throw new HecException(HttpResponseStatus.BAD_REQUEST, 5, "No data", -1);
+    }
+    HecAckTracker.Batch batch = null;
+    if (ackEnabled) {
+      batch = ackTracker.newBatch(channel, ackMaxPending);
+      if (batch == null) {
+        LOG.debug("HEC channel {} has {} pending ack ids", channel, ackMaxPending);
+        throw new HecException(HttpResponseStatus.SERVICE_UNAVAILABLE, 9, "Server is busy", -1);
+      }
+    }
+    if (batch != null) {
+      List<SourceRecord> tracked = new ArrayList<>(records.size());
+      for (SourceRecord r : records) {
+        tracked.add(batch.track(r));
+      }
+      records = tracked;
+    }
+    if (!enqueueAll(ctx, e, records)) {
+      if (batch != null) {
+        batch.cancel();
+      }
+      throw new HecException(HttpResponseStatus.SERVICE_UNAVAILABLE, 9, "Server is busy", -1);
+    }
+    LOG.trace("Queued {} HEC events from {}", records.size(), e.getRemoteAddress());
+    if (batch == null) {
+      return reply(HttpResponseStatus.OK, 0, "Success", -1);
+    }
+    batch.seal();
+    return reply(HttpResponseStatus.OK, "{\"text\":\"Success\",\"code\":0,\"ackId\":" + batch.getId() + "}");
+  }
+
+  /**
+   * {@code {"acks":[0,1]}} is answered with {@code {"acks":{"0":true,"1":false}}}
+   */
+  private HttpResponse ackReply(String channel, byte[] data) throws IOException {
+    Set<Long> ids = new LinkedHashSet<>();
+    try (JsonParser p = JsonStreamUtils.JSON_FACTORY.createParser(data)) {
+      if (p.nextToken() != JsonToken.START_OBJECT) {
+        throw new HecException(HttpResponseStatus.BAD_REQUEST, 6, "Invalid data format", -1);
+      }
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String name = p.getCurrentName();
+        JsonToken t = p.nextToken();
+        if (!"acks".equals(name)) {
+          p.skipChildren();
+          continue;
+        }
+        if (t != JsonToken.START_ARRAY) {
+          throw new HecException(HttpResponseStatus.BAD_REQUEST, 6, "Invalid data format", -1);
+        }
+        while ((t = p.nextToken()) == JsonToken.VALUE_NUMBER_INT) {
+          ids.add(p.getLongValue());
+        }
+        if (t != JsonToken.END_ARRAY) {
+          throw new HecException(HttpResponseStatus.BAD_REQUEST, 6, "Invalid data format", -1);
+        }
+      }
+    } catch (JsonProcessingException ex) {
+      throw new HecException(HttpResponseStatus.BAD_REQUEST, 6, "Invalid data format", -1);
+    }
+
+    StringBuilder body = new StringBuilder("{\"acks\":{");
+    for (Map.Entry<Long, Boolean> a : ackTracker.query(channel, ids).entrySet()) {
+      if (body.charAt(body.length() - 1) != '{') {
+        body.append(',');
+      }
+      body.append('"').append(a.getKey()).append("\":").append(a.getValue());
+    }
+    return reply(HttpResponseStatus.OK, body.append("}}").toString());
+  }
+
+  private List<SourceRecord> parseEvents(ChannelHandlerContext ctx, MessageEvent e, byte[] data, Meta defaults, List<Header> connHeaders) throws IOException {
+    List<SourceRecord> records = new ArrayList<>();
+    try (JsonParser p = JsonStreamUtils.JSON_FACTORY.createParser(data)) {
+      JsonToken t;
+      while ((t = p.nextToken()) != null) {
+        if (t != JsonToken.START_OBJECT) {
+          throw new HecException(HttpResponseStatus.BAD_REQUEST, 6, "Invalid data format", records.size());
+        }
+        Meta meta = defaults.copy();
+        String event = null;
+        Long time = null;
+        List<String[]> fields = null;
+        while ((t = p.nextToken()) == JsonToken.FIELD_NAME) {
+          String name = p.getCurrentName();
+          t = p.nextToken();
+          switch (name) {
+            case "event":
+              if (t == JsonToken.VALUE_STRING) {
+                event = p.getText();
+              } else if (t != JsonToken.VALUE_NULL) {
+                int start = (int) p.getTokenLocation().getByteOffset();
+                int end = JsonStreamUtils.valueEnd(p, t);
+                event = new String(data, start, end - start, StandardCharsets.UTF_8);
+              }
+              break;
+            case "time":
+              time = parseTime(p, t);
+              break;
+            case "host":
+              meta.host = scalar(p, t);
+              break;
+            case "source":
+              meta.source = scalar(p, t);
+              break;
+            case "sourcetype":
+              meta.sourcetype = scalar(p, t);
+              break;
+            case "index":
+              meta.index = scalar(p, t);
+              break;
+            case "fields":
+              if (t == JsonToken.START_OBJECT) {
+                fields = new ArrayList<>();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                  String field = p.getCurrentName();
+                  String value = scalar(p, p.nextToken());
+                  if (value != null) {
+                    fields.add(new String[] {field, value});
+                  }
+                }
+              } else {
+                p.skipChildren();
+              }
+              break;
+            default:
+              p.skipChildren();
+          }
+        }
+        if (event == null) {
+          throw new HecException(HttpResponseStatus.BAD_REQUEST, 12, "Event field is required", records.size());
+        }
+        if (event.isEmpty()) {
+          throw new HecException(HttpResponseStatus.BAD_REQUEST, 13, "Event field cannot be blank", records.size());
+        }
+        SourceRecord rec = createRecord(ctx, e, event, meta, time, connHeaders);
+        if (fields != null) {
+          for (String[] f : fields) {
+            rec.headers().addString(FIELDS_HEADER_PREFIX + f[0], f[1]);
+          }
+        }
+        records.add(rec);
+      }
+    } catch (JsonProcessingException ex) {
+      throw new HecException(HttpResponseStatus.BAD_REQUEST, 6, "Invalid data format", records.size());
+    }
+    return records;
+  }
+
+  private List<SourceRecord> parseRaw(ChannelHandlerContext ctx, MessageEvent e, byte[] data, Meta meta, List<Header> connHeaders) {
+    List<SourceRecord> records = new ArrayList<>();
+    int start = 0;
+    while (start < data.length) {
+      int end = start;
+      while (end < data.length && data[end] != '\n') {
+        end++;
+      }
+      int lineEnd = end > start && data[end - 1] == '\r' ? end - 1 : end;
+      if (lineEnd > start) {
+        String line = new String(data, start, lineEnd - start, StandardCharsets.UTF_8);
+        if (!line.trim().isEmpty()) {
+          records.add(createRecord(ctx, e, line, meta, null, connHeaders));
+        }
+      }
+      start = end + 1;
+    }
+    return records;
+  }
+
+  private SourceRecord createRecord(ChannelHandlerContext ctx, MessageEvent e, String event, Meta meta, Long time, List<Header> connHeaders) {
+    String recordTopic = meta.index == null ? null : indexTopics.get(meta.index);
+    if (recordTopic == null && meta.sourcetype != null) {
+      recordTopic = sourcetypeTopics.get(meta.sourcetype);
+    }
+    if (recordTopic == null) {
+      recordTopic = topicFor(ctx, e, event);
+    }
+    SourceRecord rec = new SourceRecord(Collections.emptyMap(), Collections.emptyMap(), recordTopic, null, null, null, Schema.STRING_SCHEMA, event, time);
+    for (Header h : connHeaders) {
+      rec.headers().add(h);
+    }
+    addHeader(rec, HOST_HEADER, meta.host);
+    addHeader(rec, SOURCE_HEADER, meta.source);
+    addHeader(rec, SOURCETYPE_HEADER, meta.sourcetype);
+    addHeader(rec, INDEX_HEADER, meta.index);
+    return rec;
+  }
+
+  private static void addHeader(SourceRecord rec, String key, String value) {
+    if (value != null) {
+      rec.headers().addString(key, value);
+    }
+  }
+
+  private static String param(QueryStringDecoder query, String name) {
+    List<String> values = query.getParameters().get(name);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+
+  /**
+   * @return text of scalar value, null for null, objects and arrays
+   */
+  private static String scalar(JsonParser p, JsonToken t) throws IOException {
+    if (t == null || t == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (t.isStructStart()) {
+      p.skipChildren();
+      return null;
+    }
+    return p.getText();
+  }
+
+  /**
+   * HEC time is epoch seconds with optional fraction, number or string
+   *
+   * @return epoch millis, null if missing or invalid
+   */
+  private static Long parseTime(JsonParser p, JsonToken t) throws IOException {
+    if (t == JsonToken.VALUE_NUMBER_INT || t == JsonToken.VALUE_NUMBER_FLOAT) {
+      return (long) (p.getDoubleValue() * 1000);
+    }
+    String text = scalar(p, t);
+    if (text != null) {
+      try {
+        return (long) (Double.parseDouble(text) * 1000);
+      } catch (NumberFormatException e) {
+        LOG.trace("Invalid HEC time: {}", text);
+      }
+    }
+    return null;
+  }
+
+  private HttpResponse reply(HttpResponseStatus status, int code, String text, int invalidEvent) {
+    return reply(status, "{\"text\":\"" + text + "\",\"code\":" + code + (invalidEvent >= 0 ? ",\"invalid-event-number\":" + invalidEvent : "") + "}");
+  }
+
+  private HttpResponse reply(HttpResponseStatus status, String body) {
+    HttpResponse response = createResponse(status);
+    response.setContent(ChannelBuffers.copiedBuffer(body, StandardCharsets.UTF_8));
+    response.headers().set(HttpHeaders.CONTENT_TYPE, "application/json; charset=UTF-8");
+    return response;
+  }
+
+  private static final class Meta {
+    private String host;
+    private String source;
+    private String sourcetype;
+    private String index;
+
+    Meta copy() {
+      Meta m = new Meta();
+      m.host = host;
+      m.source = source;
+      m.sourcetype = sourcetype;
+      m.index = index;
+      return m;
+    }
+  }
+
+  /**
+   * Request is answered with HEC status
+   */
+  private static final class HecException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final HttpResponseStatus status;
+    private final int code;
+    private final int invalidEvent;
+
+    HecException(HttpResponseStatus status, int code, String text, int invalidEvent) {
+      super(text, null, false, false);
+      this.status = status;
+      this.code = code;
+      this.invalidEvent = invalidEvent;
+    }
+  }
+
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.kafka.connect.source.SourceRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.net.HttpHeaders;
+
+/**
+ * Rejects HTTP requests while the record queue is under pressure.
+ *
+ * Placed right after the request decoder, so a rejected body is neither decompressed nor aggregated:
+ * its chunks are dropped and the connection is closed after the response. {@code 429} is returned
+ * when the queue is filled above the threshold, {@code 503} when it's full. {@code Retry-After}
+ * grows linearly from min to max seconds with the fill above the threshold.
+ *
+ * A request is rejected only when no earlier request of the connection is in flight (accepted but not answered yet):
+ * an early rejection and close would drop the pending responses of pipelined requests.
+ * Otherwise the request is passed to the record handler which answers it in order. Final responses are counted
+ * on their way down, so the handler must sit above the response encoder.
+ * Handler is {@code @Sharable}, counters are kept per factory.
+ */
+@Sharable
+public class HttpLoadShedHandler extends SimpleChannelHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HttpLoadShedHandler.class);
+
+  public static final HttpResponseStatus TOO_MANY_REQUESTS = new HttpResponseStatus(429, "Too Many Requests");
+
+  private final BlockingQueue<SourceRecord> queue;
+  private final double threshold;
+  private final long queueLimit;
+  private final int retryAfterMin;
+  private final int retryAfterMax;
+
+  private final LongAdder shedRequests = new LongAdder();
+  private final LongAdder shedBytes = new LongAdder();
+  private final AtomicBoolean shedding = new AtomicBoolean();
+
+  /**
+   * @param thresholdPercent queue fill in percent requests are rejected from
+   * @param queueLimit max number of queued records, 0 - queue capacity. Makes unbounded queues bounded for shedding
+   */
+  public HttpLoadShedHandler(BlockingQueue<SourceRecord> queue, int thresholdPercent, long queueLimit, int retryAfterMin, int retryAfterMax) {
+    this.queue = queue;
+    this.threshold = thresholdPercent / 100.0;
+    this.queueLimit = queueLimit;
+    this.retryAfterMin = retryAfterMin;
+    this.retryAfterMax = Math.max(retryAfterMin, retryAfterMax);
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object msg = e.getMessage();
+    ChannelState state = state(ctx);
+    if (msg instanceof HttpChunk) {
+      if (!state.discarding) {
+        ctx.sendUpstream(e);
+        return;
+      }
+      // body of a rejected request
+      HttpChunk chunk = (HttpChunk) msg;
+      shedBytes.add(chunk.getContent().readableBytes());
+      if (chunk.isLast()) {
+        state.discarding = false;
+      }
+      return;
+    }
+    if (!(msg instanceof HttpRequest)) {
+      ctx.sendUpstream(e);
+      return;
+    }
+
+    long size = queue.size();
+    long capacity = size + queue.remainingCapacity();
+    if (queueLimit > 0 && capacity > queueLimit) {
+      capacity = queueLimit;
+    }
+    double fill = capacity <= 0 ? 1.0 : (double) size / capacity;
+    if (fill < threshold) {
+      if (shedding.compareAndSet(true, false)) {
+        LOG.info("Queue fill is {}%, requests are accepted", Math.round(fill * 100));
+      }
+      accept(ctx, e, state);
+      return;
+    }
+    if (shedding.compareAndSet(false, true)) {
+      LOG.warn("Queue fill is {}% ({} of {}), requests are rejected", Math.round(fill * 100), size, capacity);
+    }
+    if (state.inFlight.get() > 0) {
+      // record handler answers it after the earlier ones
+      accept(ctx, e, state);
+      return;
+    }
+
+    HttpRequest request = (HttpRequest) msg;
+    ChannelBuffer content = request.getContent();
+    shedRequests.increment();
+    shedBytes.add(content == null ? 0 : content.readableBytes());
+    if (request.isChunked()) {
+      state.discarding = true;
+    }
+
+    HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, size >= capacity ? HttpResponseStatus.SERVICE_UNAVAILABLE : TOO_MANY_REQUESTS);
+    response.headers().set(HttpHeaders.RETRY_AFTER, retryAfter(fill));
+    response.headers().set(HttpHeaders.CONTENT_LENGTH, 0);
+    response.headers().set(HttpHeaders.CONNECTION, "close");
+    LOG.debug("Rejected request {} from {}: {}", request.getUri(), e.getRemoteAddress(), response.getStatus());
+    e.getChannel().write(response).addListener(ChannelFutureListener.CLOSE);
+  }
+
+  @Override
+  public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object msg = e.getMessage();
+    ChannelState state = (ChannelState) ctx.getAttachment();
+    // 1xx (100 Continue) is not the final response
+    if (state != null && msg instanceof HttpResponse && ((HttpResponse) msg).getStatus().getCode() >= 200) {
+      state.inFlight.updateAndGet(n -> n > 0 ? n - 1 : 0);
+    }
+    ctx.sendDownstream(e);
+  }
+
+  private void accept(ChannelHandlerContext ctx, MessageEvent e, ChannelState state) {
+    state.inFlight.incrementAndGet();
+    ctx.sendUpstream(e);
+  }
+
+  private static ChannelState state(ChannelHandlerContext ctx) {
+    ChannelState state = (ChannelState) ctx.getAttachment();
+    if (state == null) {
+      state = new ChannelState();
+      ctx.setAttachment(state);
+    }
+    return state;
+  }
+
+  /**
+   * Per connection state, kept in the context attachment
+   */
+  private static final class ChannelState {
+    // accepted requests not answered yet, decremented by the writing thread
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // dropping the body of a rejected request, I/O thread only
+    private boolean discarding;
+  }
+
+  /**
+   * @return seconds, min at the threshold, max when the queue is full
+   */
+  int retryAfter(double fill) {
+    double over = threshold >= 1.0 ? 1.0 : (fill - threshold) / (1.0 - threshold);
+    over = Math.max(0.0, Math.min(1.0, over));
+    return retryAfterMin + (int) Math.ceil((retryAfterMax - retryAfterMin) * over);
+  }
+
+  /**
+   * @return number of rejected requests
+   */
+  public long getShedRequests() {
+    return shedRequests.sum();
+  }
+
+  /**
+   * @return body bytes of rejected requests read before the connection was closed
+   */
+  public long getShedBytes() {
+    return shedBytes.sum();
+  }
+
+  public boolean isShedding() {
+    return shedding.get();
+  }
+
+}
@@ -15,28 +15,139 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
 import org.jboss.netty.handler.codec.http.HttpContentDecompressor;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
 
 public class HttpPipelineFactory extends NettyPipelineFactory {
 
+  public static final String IDLE_TIMEOUT_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.idleTimeout";
+  private static final Long IDLE_TIMEOUT_DEFAULT = 60000L;
+
+  public static final String STREAMING_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.streaming";
+  private static final Boolean STREAMING_DEFAULT = Boolean.FALSE;
+
+  public static final String MAX_CHUNK_SIZE_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.maxChunkSize";
+  private static final int MAX_CHUNK_SIZE_DEFAULT = 8192;
+
+  public static final String MAX_CONTENT_LENGTH_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.maxContentLength";
+  private static final int MAX_CONTENT_LENGTH_DEFAULT = 32 * 1024 * 1024;
+
+  public static final String LOAD_SHED_ENABLED_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.loadShed.enabled";
+  private static final Boolean LOAD_SHED_ENABLED_DEFAULT = Boolean.TRUE;
+
+  public static final String LOAD_SHED_THRESHOLD_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.loadShed.threshold";
+  private static final int LOAD_SHED_THRESHOLD_DEFAULT = 90;
+
+  public static final String LOAD_SHED_QUEUE_LIMIT_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.loadShed.queueLimit";
+  private static final Long LOAD_SHED_QUEUE_LIMIT_DEFAULT = 0L;
+
+  public static final String LOAD_SHED_RETRY_AFTER_MIN_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.loadShed.retryAfterMin";
+  private static final int LOAD_SHED_RETRY_AFTER_MIN_DEFAULT = 1;
+
+  public static final String LOAD_SHED_RETRY_AFTER_MAX_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".http.loadShed.retryAfterMax";
+  private static final int LOAD_SHED_RETRY_AFTER_MAX_DEFAULT = 30;
+
+  private static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(IDLE_TIMEOUT_CONFIG, ConfigDef.Type.LONG, IDLE_TIMEOUT_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.MEDIUM,
+          "keep-alive connection is closed if no data was read within timeout (millis). 0 - disabled")
+      .define(STREAMING_CONFIG, ConfigDef.Type.BOOLEAN, STREAMING_DEFAULT, ConfigDef.Importance.MEDIUM,
+          "body chunks are handled as they arrive instead of aggregating whole body, newline delimited lines become records")
+      .define(MAX_CHUNK_SIZE_CONFIG, ConfigDef.Type.INT, MAX_CHUNK_SIZE_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW,
+          "max size of body chunk passed to the record handler")
+      .define(MAX_CONTENT_LENGTH_CONFIG, ConfigDef.Type.INT, MAX_CONTENT_LENGTH_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW,
+          "max size of aggregated body. not used in streaming mode")
+      .define(LOAD_SHED_ENABLED_CONFIG, ConfigDef.Type.BOOLEAN, LOAD_SHED_ENABLED_DEFAULT, ConfigDef.Importance.MEDIUM,
+          "reject requests before the body is read while the record queue is under pressure")
+      .define(LOAD_SHED_THRESHOLD_CONFIG, ConfigDef.Type.INT, LOAD_SHED_THRESHOLD_DEFAULT, ConfigDef.Range.between(1, 100), ConfigDef.Importance.LOW,
+          "queue fill in percent requests are rejected from")
+      .define(LOAD_SHED_QUEUE_LIMIT_CONFIG, ConfigDef.Type.LONG, LOAD_SHED_QUEUE_LIMIT_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW,
+          "queue size used to compute the fill, for unbounded queues. 0 - queue capacity")
+      .define(LOAD_SHED_RETRY_AFTER_MIN_CONFIG, ConfigDef.Type.INT, LOAD_SHED_RETRY_AFTER_MIN_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW,
+          "Retry-After seconds at the threshold")
+      .define(LOAD_SHED_RETRY_AFTER_MAX_CONFIG, ConfigDef.Type.INT, LOAD_SHED_RETRY_AFTER_MAX_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW,
+          "Retry-After seconds when the queue is full");
+
+  private ReadTimeoutHandler idleTimeoutHandler;
+  private boolean streaming;
+  private int maxChunkSize = MAX_CHUNK_SIZE_DEFAULT;
+  private int maxContentLength = MAX_CONTENT_LENGTH_DEFAULT;
+  private HttpLoadShedHandler loadShedHandler;
+  private final HecAckTracker hecAckTracker = new HecAckTracker();
+
   @Override
   public LinkedHashMap<String, ChannelHandler> defaultHandlers(NettySourceConnectorConfig conf) {
     LinkedHashMap<String, ChannelHandler> defaultHandlers = new LinkedHashMap<>();
-    defaultHandlers.put("decoder", new HttpRequestDecoder());
-    defaultHandlers.put("decoder_compress", new HttpContentDecompressor());
-    defaultHandlers.put("aggregator", new HttpChunkAggregator(32 * 1024 * 1024));
+    if (idleTimeoutHandler != null) {
+      defaultHandlers.put("idleTimeout", idleTimeoutHandler);
+    }
+    defaultHandlers.put("decoder", new HttpRequestDecoder(4096, 8192, maxChunkSize));
+    // before loadShed, so it sees responses written by the handlers above it
     defaultHandlers.put("encoder", new HttpResponseEncoder());
-    HttpRequestRecordHandler recordHandler = new HttpRequestRecordHandler();
-    recordHandler.setTopic(topic);
-    recordHandler.setRecordQueue(messageQueue);
+    if (loadShedHandler != null) {
+      defaultHandlers.put("loadShed", loadShedHandler);
+    }
+    defaultHandlers.put("decoder_compress", new HttpContentDecompressor());
+    if (!streaming) {
+      defaultHandlers.put("aggregator", new HttpChunkAggregator(maxContentLength));
+    }
+    HttpRequestRecordHandler recordHandler = streaming ? new HttpStreamingRecordHandler() : new HttpRequestRecordHandler();
+    initRecordHandler(recordHandler);
     defaultHandlers.put("recordHandler", recordHandler);
     return defaultHandlers;
   }
 
+  @Override
+  public void configure(Map<String, ?> configs) {
+    super.configure(configs);
+
+    SimpleConfig httpConfig = new SimpleConfig(CONFIG_DEF, configs);
+    this.streaming = httpConfig.getBoolean(STREAMING_CONFIG);
+    this.maxChunkSize = httpConfig.getInt(MAX_CHUNK_SIZE_CONFIG);
+    this.maxContentLength = httpConfig.getInt(MAX_CONTENT_LENGTH_CONFIG);
+    long idleTimeout = httpConfig.getLong(IDLE_TIMEOUT_CONFIG);
+    if (idleTimeout > 0) {
+      this.idleTimeoutHandler = new ReadTimeoutHandler(getTimer(), idleTimeout, TimeUnit.MILLISECONDS);
+    }
+    if (httpConfig.getBoolean(LOAD_SHED_ENABLED_CONFIG) && messageQueue != null) {
+      this.loadShedHandler = new HttpLoadShedHandler(messageQueue, httpConfig.getInt(LOAD_SHED_THRESHOLD_CONFIG),
+          httpConfig.getLong(LOAD_SHED_QUEUE_LIMIT_CONFIG), httpConfig.getInt(LOAD_SHED_RETRY_AFTER_MIN_CONFIG),
+          httpConfig.getInt(LOAD_SHED_RETRY_AFTER_MAX_CONFIG));
+    }
+  }
+
+  /**
+   * HEC ack ids are shared by all connections, clients poll acks on any connection
+   */
+  @Override
+  protected <T extends SourceRecordHandler> T initRecordHandler(T handler) {
+    if (handler instanceof HecRecordHandler) {
+      ((HecRecordHandler) handler).setAckTracker(hecAckTracker);
+    }
+    return super.initRecordHandler(handler);
+  }
+
+  /**
+   * @return load shedding handler with shed request and byte counters, null if disabled
+   */
+  public HttpLoadShedHandler getLoadShedHandler() {
+    return loadShedHandler;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.idleTimeoutHandler = null;
+    super.close();
+  }
+
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -40,11 +41,13 @@ import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
+import com.mckesson.kafka.connect.nettysource.utils.JsonStreamUtils;
+import com.mckesson.kafka.connect.utils.ConfigUtils;
 
 public class HttpRequestContentRecordHandler extends HttpRequestRecordHandler {
 
@@ -66,16 +69,26 @@ public class HttpRequestContentRecordHandler extends HttpRequestRecordHandler {
   public static final String KEY_CONFIG = "key";
   public static final String HEADERS_CONFIG_PREFIX = "headers.";
   public static final String DATA_JSON_POINTER_CONFIG = "data.jsonPointer";
+
+  public enum DataFormat {
+    STRING, BYTES
+  }
+
+  public static final String DATA_FORMAT_CONFIG = "data.format";
+  public static final String DATA_FORMAT_DEFAULT = DataFormat.STRING.name();
   
 
   public static final ConfigDef CONFIG_DEF = new ConfigDef()
       .define(TOPIC_OVERWRITE_ALLOWED_CONFIG, ConfigDef.Type.BOOLEAN, Boolean.FALSE, ConfigDef.Importance.HIGH, "allow overwrite topic")
       .define(META_ALLOWED_CONFIG, ConfigDef.Type.BOOLEAN, Boolean.TRUE, ConfigDef.Importance.MEDIUM, "allow custom meta: key, headers")
       .define(KEY_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.LOW, "message key. default: null")
-      .define(DATA_JSON_POINTER_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.LOW, "dataPointer for json content type");
+      .define(DATA_JSON_POINTER_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.LOW, "dataPointer for json content type")
+      .define(DATA_FORMAT_CONFIG, ConfigDef.Type.STRING, DATA_FORMAT_DEFAULT, ConfigUtils.validEnum(DataFormat.class), ConfigDef.Importance.LOW,
+          "json elements value: STRING - UTF-8 text, BYTES - original bytes");
 
   private String configuredKey;
   private String dataJsonPointer;
+  private DataFormat dataFormat = DataFormat.STRING;
   private Map<String, Object> configuredHeaders;
   private boolean metaAllowed;
   private boolean topicOverwriteAllowed;
@@ -89,7 +102,10 @@ public class HttpRequestContentRecordHandler extends HttpRequestRecordHandler {
     this.metaAllowed = conf.getBoolean(META_ALLOWED_CONFIG);
     this.topicOverwriteAllowed = conf.getBoolean(TOPIC_OVERWRITE_ALLOWED_CONFIG);
     this.configuredHeaders = conf.originalsWithPrefix(HEADERS_CONFIG_PREFIX);
+    this.configuredHeaders.remove(HEADERS_MODE_CONFIG.substring(HEADERS_CONFIG_PREFIX.length()));
+    this.configuredHeaders.remove(HEADERS_ALLOWLIST_CONFIG.substring(HEADERS_CONFIG_PREFIX.length()));
     this.dataJsonPointer = conf.getString(DATA_JSON_POINTER_CONFIG);
+    this.dataFormat = ConfigUtils.getEnum(conf, DATA_FORMAT_CONFIG, DataFormat.class);
 
   }
 
@@ -179,13 +195,14 @@ public class HttpRequestContentRecordHandler extends HttpRequestRecordHandler {
     if (dataBuffer == null || !dataBuffer.readable()) {
       return Collections.emptyList();
     }
+    int readableBytes = dataBuffer.readableBytes();
     byte[] data;
-    if (dataBuffer.hasArray()) {
+    if (dataBuffer.hasArray() && dataBuffer.arrayOffset() + dataBuffer.readerIndex() == 0 && dataBuffer.array().length == readableBytes) {
       data = dataBuffer.array();
     } else {
-      int readableBytes = dataBuffer.readableBytes();
+      // backing array may be larger than the content
       data = new byte[readableBytes];
-      dataBuffer.getBytes(0, data);
+      dataBuffer.getBytes(dataBuffer.readerIndex(), data);
     }
 
     List<Object> recordValues;
@@ -237,40 +254,48 @@ public class HttpRequestContentRecordHandler extends HttpRequestRecordHandler {
     return values;
   }
 
+  /**
+   * Streams to the value at the pointer and returns original text of each array element
+   * (or of the value if it's not an array), the whole body if pointer is missing.
+   * No tree is built and nothing is re-serialized.
+   */
   private List<Object> parseJson(byte[] inputData, String dataPointer) throws IOException {
 
-    List<Object> data = Collections.emptyList();
-    ObjectMapper jsonMapper = new ObjectMapper();
-    JsonNode node = jsonMapper.readTree(inputData);
-    JsonNode dataNode = node.at(dataPointer);
-    if (dataNode.isMissingNode()) {
-      log.warn("'{}'node is missing in response. Whole response to be returned", dataPointer);
-      try {
-        data = Arrays.asList(jsonMapper.writeValueAsString(node));
-      } catch (JsonProcessingException e) {
-        data = Arrays.asList(node);
-      }
+    JsonPointer pointer;
+    try {
+      pointer = JsonPointer.compile(dataPointer);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid json pointer: " + dataPointer, e);
+    }
 
-    } else if (dataNode.isArray()) {
-      log.debug("Extracting data from array node '{}' (size:{})", dataPointer, dataNode.size());
-      data = new ArrayList<>(dataNode.size());
-      for (JsonNode rec : dataNode) {
-        try {
-          data.add(jsonMapper.writeValueAsString(rec));
-        } catch (JsonProcessingException e) {
-          data.add(rec);
+    List<Object> data = new ArrayList<>();
+    try (JsonParser parser = JsonStreamUtils.JSON_FACTORY.createParser(inputData)) {
+      JsonToken token = JsonStreamUtils.moveTo(parser, pointer);
+      if (token == null) {
+        log.warn("'{}'node is missing in response. Whole response to be returned", dataPointer);
+        data.add(dataValue(inputData, 0, inputData.length));
+      } else if (token == JsonToken.START_ARRAY) {
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+          int start = (int) parser.getTokenLocation().getByteOffset();
+          int end = JsonStreamUtils.valueEnd(parser, token);
+          data.add(dataValue(inputData, start, end - start));
         }
-      }
-
-    } else {
-      log.warn("{} node is not an array, returned as singe object", dataPointer);
-      try {
-        data = Arrays.asList(jsonMapper.writeValueAsString(dataNode));
-      } catch (JsonProcessingException e) {
-        data = Arrays.asList(dataNode);
+        log.debug("Extracted {} elements from array node '{}'", data.size(), dataPointer);
+      } else {
+        log.warn("{} node is not an array, returned as singe object", dataPointer);
+        int start = (int) parser.getTokenLocation().getByteOffset();
+        int end = JsonStreamUtils.valueEnd(parser, token);
+        data.add(dataValue(inputData, start, end - start));
       }
     }
     return data;
   }
 
+  private Object dataValue(byte[] inputData, int offset, int length) {
+    if (dataFormat == DataFormat.BYTES) {
+      return Arrays.copyOfRange(inputData, offset, offset + length);
+    }
+    return new String(inputData, offset, length, StandardCharsets.UTF_8);
+  }
+
 }
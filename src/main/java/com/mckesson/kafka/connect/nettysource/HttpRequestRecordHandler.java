@@ -15,8 +15,8 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
-import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,8 +26,8 @@ import java.util.Map.Entry;
 
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.types.Password;
-import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaAndValue;
+import org.apache.kafka.connect.header.Header;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.kafka.connect.transforms.util.SimpleConfig;
 import org.jboss.netty.buffer.ChannelBuffer;
@@ -39,9 +39,11 @@ import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.timeout.ReadTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,10 +55,29 @@ public class HttpRequestRecordHandler extends SourceRecordHandler {
 
   public static final String AUTH_CONFIG = "authValue";
 
+  public static final String KEEP_ALIVE_CONFIG = "keepAlive";
+  public static final Boolean KEEP_ALIVE_DEFAULT = Boolean.TRUE;
+
+  public static final String MAX_REQUESTS_CONFIG = "maxRequestsPerConnection";
+  public static final int MAX_REQUESTS_DEFAULT = 1000;
+
+  /**
+   * Retry-After of the response to a request which doesn't fit the queue
+   */
+  protected static final int OVERLOADED_RETRY_AFTER_SECONDS = 5;
+
   public static final ConfigDef CONFIG_DEF = new ConfigDef()
-      .define(AUTH_CONFIG, ConfigDef.Type.PASSWORD, null, ConfigDef.Importance.HIGH, "Required Authorization header value");
+      .define(AUTH_CONFIG, ConfigDef.Type.PASSWORD, null, ConfigDef.Importance.HIGH, "Required Authorization header value")
+      .define(KEEP_ALIVE_CONFIG, ConfigDef.Type.BOOLEAN, KEEP_ALIVE_DEFAULT, ConfigDef.Importance.MEDIUM, "keep connection open for next requests if client allows")
+      .define(MAX_REQUESTS_CONFIG, ConfigDef.Type.INT, MAX_REQUESTS_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW,
+          "connection is closed after the response to this request. 0 - unlimited");
 
   private Password authorizationLine;
+  private boolean keepAlive = KEEP_ALIVE_DEFAULT;
+  private int maxRequests = MAX_REQUESTS_DEFAULT;
+
+  private int requests;
+  private boolean closing;
 
   @Override
   public void configure(Map<String, ?> configs) {
@@ -64,6 +85,8 @@ public class HttpRequestRecordHandler extends SourceRecordHandler {
 
     SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
     authorizationLine = conf.getPassword(AUTH_CONFIG);
+    keepAlive = conf.getBoolean(KEEP_ALIVE_CONFIG);
+    maxRequests = conf.getInt(MAX_REQUESTS_CONFIG);
   }
 
   @Override
@@ -73,45 +96,133 @@ public class HttpRequestRecordHandler extends SourceRecordHandler {
     if (msg == null) {
       return;
     }
+    if (!acceptRequest(e)) {
+      return;
+    }
 
-    final HttpResponse response;
-    if (authorizationLine == null ||
-        (msg.headers().contains(HttpHeaders.AUTHORIZATION) && authorizationLine.value().equals(msg.headers().get(HttpHeaders.AUTHORIZATION)))) {
+    HttpResponse response;
+    if (isAuthorized(msg)) {
       response = createResponse(HttpResponseStatus.OK);
 
       Map<String, SchemaAndValue> extraHeaders = new HashMap<>();
-      //add remoteAddr to headers
-      SocketAddress remoteAddr = e.getRemoteAddress();
-      if (remoteAddr == null) {
-        remoteAddr = e.getChannel().getRemoteAddress();
-      }
-      if (remoteAddr == null) {
-        remoteAddr = ctx.getChannel().getRemoteAddress();
-      }
-      if (remoteAddr != null) {
-        if (remoteAddr instanceof InetSocketAddress) {
-          extraHeaders.put("remoteHost", new SchemaAndValue(Schema.STRING_SCHEMA, ((InetSocketAddress) remoteAddr).getHostString()));
-          extraHeaders.put("remotePort", new SchemaAndValue(Schema.INT32_SCHEMA, ((InetSocketAddress) remoteAddr).getPort()));
-        }
-        extraHeaders.put("remoteAddress", new SchemaAndValue(Schema.STRING_SCHEMA, remoteAddr.toString()));
+      for (Header h : connectionHeaders(ctx, e, false)) {
+        extraHeaders.put(h.key(), new SchemaAndValue(h.schema(), h.value()));
       }
 
       List<SourceRecord> records = produceRecordsFromContent(msg, extraHeaders);
-      LOG.debug("Queued for Topic: {}, records: {}", topic, records.size());
-      recordQueue.addAll(records);
+      if (topicRouter != null) {
+        SocketAddress remoteAddr = e.getRemoteAddress() != null ? e.getRemoteAddress() : ctx.getChannel().getRemoteAddress();
+        List<SourceRecord> routed = new ArrayList<>(records.size());
+        for (SourceRecord r : records) {
+          routed.add(route(r, remoteAddr));
+        }
+        records = routed;
+      }
+      if (enqueueAll(ctx, e, records)) {
+        LOG.debug("Queued for Topic: {}, records: {}", topic, records.size());
+      } else {
+        LOG.debug("Queue is full, rejected {} records from {}", records.size(), e.getRemoteAddress());
+        response = createOverloadedResponse();
+      }
     } else {
       response = createResponse(HttpResponseStatus.UNAUTHORIZED);
     }
 
-    // Write the response.
+    writeResponse(e, msg, response);
+  }
+
+  /**
+   * Counts request of the connection.
+   *
+   * @return false if the request is pipelined after the last response of the connection and must be skipped
+   */
+  protected boolean acceptRequest(MessageEvent e) {
+    if (closing) {
+      // client has to resend it
+      LOG.trace("Connection is closing, skipped request from {}", e.getRemoteAddress());
+      return false;
+    }
+    requests++;
+    return true;
+  }
+
+  protected boolean isAuthorized(HttpRequest msg) {
+    return authorizationLine == null ||
+        (msg.headers().contains(HttpHeaders.AUTHORIZATION) && authorizationLine.value().equals(msg.headers().get(HttpHeaders.AUTHORIZATION)));
+  }
+
+  /**
+   * Writes response with {@code Content-Length}. Connection is kept open if keep-alive is enabled,
+   * the client allows it and max number of requests is not reached, otherwise it's closed after the write.
+   * Pipelined requests are answered in order as they are handled one by one.
+   */
+  protected void writeResponse(MessageEvent e, HttpRequest request, HttpResponse response) {
+    boolean keepOpen = keepAlive && org.jboss.netty.handler.codec.http.HttpHeaders.isKeepAlive(request)
+        && (maxRequests <= 0 || requests < maxRequests);
+    if (!response.headers().contains(HttpHeaders.CONTENT_LENGTH)) {
+      ChannelBuffer content = response.getContent();
+      response.headers().set(HttpHeaders.CONTENT_LENGTH, content == null ? 0 : content.readableBytes());
+    }
+    if (!keepOpen) {
+      response.headers().set(HttpHeaders.CONNECTION, "close");
+      closing = true;
+    } else if (request.getProtocolVersion().equals(HttpVersion.HTTP_1_0)) {
+      response.headers().set(HttpHeaders.CONNECTION, "keep-alive");
+    }
+
     ChannelFuture future = e.getChannel().write(response);
-    future.addListener(ChannelFutureListener.CLOSE); // WE DO NOT RESPECT Keep-Alive
+    if (!keepOpen) {
+      future.addListener(ChannelFutureListener.CLOSE);
+    }
   }
 
   protected HttpResponse createResponse(HttpResponseStatus status) {
     return new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
   }
 
+  /**
+   * @return false if the queue has no room for the records
+   */
+  protected boolean hasCapacity(int records) {
+    return recordQueue.remainingCapacity() >= records;
+  }
+
+  /**
+   * Queues all records of a request or none of them, so a rejected request can be resent without duplicates.
+   * Capacity check and adds run under the queue lock taken by all request handlers and envelope flushes,
+   * the task only drains the queue. In envelope mode the check counts records, not envelopes.
+   *
+   * @return false if the queue has no room for all records, nothing is queued
+   */
+  protected boolean enqueueAll(ChannelHandlerContext ctx, MessageEvent e, List<SourceRecord> records) {
+    synchronized (recordQueue) {
+      if (!hasCapacity(records.size())) {
+        return false;
+      }
+      if (!isEnvelopeEnabled()) {
+        recordQueue.addAll(records);
+        return true;
+      }
+      for (SourceRecord r : records) {
+        try {
+          enqueue(ctx, e, r);
+        } catch (QueueOverflowException ex) {
+          // record is queued, overload is answered by the next request
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * {@code 503} with {@code Retry-After}, the request is not queued and has to be resent
+   */
+  protected HttpResponse createOverloadedResponse() {
+    HttpResponse response = createResponse(HttpResponseStatus.SERVICE_UNAVAILABLE);
+    response.headers().set(HttpHeaders.RETRY_AFTER, OVERLOADED_RETRY_AFTER_SECONDS);
+    return response;
+  }
+
   protected List<SourceRecord> produceRecordsFromContent(DefaultHttpRequest msg, Map<String, SchemaAndValue> extraHeaders) throws Exception {
     ChannelBuffer dataBuffer = msg.getContent();
     if (dataBuffer == null || !dataBuffer.readable()) {
@@ -140,6 +251,11 @@ public class HttpRequestRecordHandler extends SourceRecordHandler {
 
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+    if (e.getCause() instanceof ReadTimeoutException) {
+      LOG.trace("Closing idle connection {}", e.getChannel());
+      e.getChannel().close();
+      return;
+    }
     LOG.error("ERROR: {},  {} ", ctx.getName(), e.getChannel(), e.getCause());
     e.getChannel().close();
   }
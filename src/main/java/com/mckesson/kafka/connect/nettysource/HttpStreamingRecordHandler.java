@@ -0,0 +1,238 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.header.Header;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits newline delimited request bodies (text, NDJSON) into String records as chunks arrive.
+ *
+ * Used without {@code HttpChunkAggregator}: only the tail of a line split between chunks is kept,
+ * bounded by {@code maxLineLength}, so memory per request doesn't grow with the body size.
+ * Longer lines are dropped. Body is decoded as UTF-8. Response is written after the last chunk.
+ *
+ * Lines are queued as they arrive, so a body can't be rejected as a whole. If the queue fills up
+ * (or reaches the threshold with {@code closeOnQueueOverflow})
+ * the rest of the body is dropped: {@code 503} with {@code Retry-After} is returned only if no line
+ * was queued, otherwise {@code 413} with the number of queued lines in {@value #ACCEPTED_LINES_HEADER},
+ * so the client resends only the remaining lines instead of duplicating the queued ones.
+ */
+public class HttpStreamingRecordHandler extends HttpRequestRecordHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HttpStreamingRecordHandler.class);
+
+  /**
+   * number of queued lines of a partially accepted request
+   */
+  public static final String ACCEPTED_LINES_HEADER = "X-Accepted-Lines";
+
+  public static final String MAX_LINE_LENGTH_CONFIG = "maxLineLength";
+  public static final int MAX_LINE_LENGTH_DEFAULT = 65536;
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(MAX_LINE_LENGTH_CONFIG, ConfigDef.Type.INT, MAX_LINE_LENGTH_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.MEDIUM,
+          "max length of a line in bytes, longer lines are dropped");
+
+  private static final int CARRY_INITIAL_CAPACITY = 256;
+
+  private int maxLineLength = MAX_LINE_LENGTH_DEFAULT;
+
+  private HttpRequest current;
+  private boolean authorized;
+  private boolean discarding;
+  private boolean overloaded;
+  private int queuedLines;
+  private ChannelBuffer carry;
+  private List<Header> requestHeaders = Collections.emptyList();
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    super.configure(configs);
+    SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
+    this.maxLineLength = conf.getInt(MAX_LINE_LENGTH_CONFIG);
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object msg = e.getMessage();
+    if (msg instanceof HttpRequest) {
+      HttpRequest request = (HttpRequest) msg;
+      current = null;
+      if (!acceptRequest(e)) {
+        return;
+      }
+      current = request;
+      authorized = isAuthorized(request);
+      discarding = false;
+      overloaded = false;
+      queuedLines = 0;
+      if (authorized) {
+        requestHeaders = connectionHeaders(ctx, e, false);
+        if (HttpHeaders.is100ContinueExpected(request)) {
+          e.getChannel().write(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE));
+        }
+        append(ctx, e, request.getContent());
+      }
+      if (!request.isChunked()) {
+        finish(ctx, e);
+      }
+    } else if (msg instanceof HttpChunk) {
+      if (current == null) {
+        // body of a skipped request
+        return;
+      }
+      HttpChunk chunk = (HttpChunk) msg;
+      if (authorized && !overloaded) {
+        append(ctx, e, chunk.getContent());
+      }
+      if (chunk.isLast()) {
+        finish(ctx, e);
+      }
+    } else {
+      ctx.sendUpstream(e);
+    }
+  }
+
+  private void append(ChannelHandlerContext ctx, MessageEvent e, ChannelBuffer buf) {
+    if (buf == null) {
+      return;
+    }
+    int start = buf.readerIndex();
+    int end = buf.writerIndex();
+    while (start < end && !overloaded) {
+      int nl = buf.indexOf(start, end, (byte) '\n');
+      if (nl < 0) {
+        // keep the tail for the next chunk
+        carryOver(buf, start, end - start);
+        return;
+      }
+      if (discarding) {
+        discarding = false;
+      } else if (carry != null && carry.readable()) {
+        if (carry.readableBytes() + nl - start > maxLineLength) {
+          LOG.debug("Dropped line longer than {} bytes from {}", maxLineLength, e.getRemoteAddress());
+        } else {
+          carry.writeBytes(buf, start, nl - start);
+          emitLine(ctx, e, carry, carry.readerIndex(), carry.readableBytes());
+        }
+        carry.clear();
+      } else if (nl - start > maxLineLength) {
+        LOG.debug("Dropped line longer than {} bytes from {}", maxLineLength, e.getRemoteAddress());
+      } else {
+        emitLine(ctx, e, buf, start, nl - start);
+      }
+      start = nl + 1;
+    }
+  }
+
+  private void carryOver(ChannelBuffer buf, int index, int length) {
+    if (discarding) {
+      return;
+    }
+    int carried = carry == null ? 0 : carry.readableBytes();
+    if (carried + length > maxLineLength) {
+      LOG.debug("Dropped line longer than {} bytes", maxLineLength);
+      discarding = true;
+      if (carry != null) {
+        carry.clear();
+      }
+      return;
+    }
+    if (carry == null) {
+      carry = ChannelBuffers.dynamicBuffer(Math.min(CARRY_INITIAL_CAPACITY, maxLineLength));
+    }
+    carry.writeBytes(buf, index, length);
+  }
+
+  private void emitLine(ChannelHandlerContext ctx, MessageEvent e, ChannelBuffer buf, int index, int length) {
+    if (length > 0 && buf.getByte(index + length - 1) == '\r') {
+      length--;
+    }
+    String line = buf.toString(index, length, StandardCharsets.UTF_8);
+    if (line.trim().isEmpty()) {
+      return;
+    }
+    SourceRecord rec = new SourceRecord(Collections.emptyMap(), Collections.emptyMap(), topicFor(ctx, e, line), null, Schema.STRING_SCHEMA, line);
+    for (Header h : requestHeaders) {
+      rec.headers().add(h);
+    }
+    synchronized (recordQueue) {
+      try {
+        enqueue(ctx, e, rec);
+        queuedLines++;
+      } catch (QueueOverflowException ex) {
+        // line is queued, but the queue is over the threshold: the rest of the body is dropped
+        queuedLines++;
+        overloaded = true;
+      } catch (IllegalStateException ex) {
+        // queue is full: the line and the rest of the body are dropped
+        overloaded = true;
+      }
+    }
+    if (overloaded) {
+      LOG.debug("Queue is full, dropped the rest of the request from {} after {} lines", e.getRemoteAddress(), queuedLines);
+    }
+  }
+
+  private void finish(ChannelHandlerContext ctx, MessageEvent e) {
+    if (authorized && !discarding && !overloaded && carry != null && carry.readable()) {
+      emitLine(ctx, e, carry, carry.readerIndex(), carry.readableBytes());
+    }
+    if (carry != null && carry.capacity() > CARRY_INITIAL_CAPACITY) {
+      // release buffer grown by a long line
+      carry = null;
+    } else if (carry != null) {
+      carry.clear();
+    }
+    HttpRequest request = current;
+    current = null;
+    if (!authorized) {
+      writeResponse(e, request, createResponse(HttpResponseStatus.UNAUTHORIZED));
+    } else if (overloaded && queuedLines == 0) {
+      writeResponse(e, request, createOverloadedResponse());
+    } else if (overloaded) {
+      // part of the body is queued, resending the whole body would duplicate it
+      HttpResponse response = createResponse(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+      response.headers().set(ACCEPTED_LINES_HEADER, queuedLines);
+      writeResponse(e, request, response);
+    } else {
+      writeResponse(e, request, createResponse(HttpResponseStatus.OK));
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.nio.ByteOrder;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.CorruptedFrameException;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frames binary messages by the value of a length field (length-prefixed protobuf, avro, etc).
+ *
+ * Same semantic as {@link org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder}
+ * plus configurable byte order of the length field. Frames longer than {@code maxFrameLength}
+ * are discarded.
+ */
+public class LengthFieldFrameDecoder extends FrameDecoder {
+
+  private static final Logger log = LoggerFactory.getLogger(LengthFieldFrameDecoder.class);
+
+  private final int maxFrameLength;
+  private final int lengthFieldOffset;
+  private final int lengthFieldLength;
+  private final int lengthFieldEndOffset;
+  private final int lengthAdjustment;
+  private final int initialBytesToStrip;
+  private final boolean littleEndian;
+
+  private long bytesToDiscard;
+
+  public LengthFieldFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength) {
+    this(maxFrameLength, lengthFieldOffset, lengthFieldLength, 0, 0, ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * Creates a new instance.
+   *
+   * @param maxFrameLength  the maximum length of the frame, longer frames are discarded
+   * @param lengthFieldOffset  the offset of the length field
+   * @param lengthFieldLength  the length of the length field: 1, 2, 3, 4 or 8
+   * @param lengthAdjustment  the compensation value to add to the value of the length field
+   * @param initialBytesToStrip  the number of first bytes to strip out from the decoded frame
+   * @param byteOrder  byte order of the length field
+   */
+  public LengthFieldFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
+      int lengthAdjustment, int initialBytesToStrip, ByteOrder byteOrder) {
+
+    if (maxFrameLength <= 0) {
+      throw new IllegalArgumentException("maxFrameLength must be a positive integer: " + maxFrameLength);
+    }
+    if (lengthFieldOffset < 0) {
+      throw new IllegalArgumentException("lengthFieldOffset must be a non-negative integer: " + lengthFieldOffset);
+    }
+    if (initialBytesToStrip < 0) {
+      throw new IllegalArgumentException("initialBytesToStrip must be a non-negative integer: " + initialBytesToStrip);
+    }
+    if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 3 && lengthFieldLength != 4 && lengthFieldLength != 8) {
+      throw new IllegalArgumentException("lengthFieldLength must be either 1, 2, 3, 4, or 8: " + lengthFieldLength);
+    }
+
+    this.maxFrameLength = maxFrameLength;
+    this.lengthFieldOffset = lengthFieldOffset;
+    this.lengthFieldLength = lengthFieldLength;
+    this.lengthFieldEndOffset = lengthFieldOffset + lengthFieldLength;
+    this.lengthAdjustment = lengthAdjustment;
+    this.initialBytesToStrip = initialBytesToStrip;
+    this.littleEndian = ByteOrder.LITTLE_ENDIAN.equals(byteOrder);
+  }
+
+  @Override
+  protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+
+    if (bytesToDiscard > 0) {
+      int discard = (int) Math.min(bytesToDiscard, buffer.readableBytes());
+      buffer.skipBytes(discard);
+      bytesToDiscard -= discard;
+      if (bytesToDiscard > 0) {
+        return null;
+      }
+    }
+
+    if (buffer.readableBytes() < lengthFieldEndOffset) {
+      return null;
+    }
+
+    long frameLength = getFrameLength(buffer, buffer.readerIndex() + lengthFieldOffset);
+    if (frameLength < 0) {
+      buffer.skipBytes(lengthFieldEndOffset);
+      throw new CorruptedFrameException("negative pre-adjustment length field: " + frameLength);
+    }
+
+    frameLength += lengthAdjustment + lengthFieldEndOffset;
+    if (frameLength < lengthFieldEndOffset) {
+      buffer.skipBytes(lengthFieldEndOffset);
+      throw new CorruptedFrameException("Adjusted frame length (" + frameLength + ") is less than lengthFieldEndOffset: " + lengthFieldEndOffset);
+    }
+
+    if (frameLength > maxFrameLength) {
+      log.warn("Too long frame detected, discarded. Consider to increase max frame length. Current lenght: {}, Max lenght: {}", frameLength, maxFrameLength);
+      int discard = (int) Math.min(frameLength, buffer.readableBytes());
+      buffer.skipBytes(discard);
+      bytesToDiscard = frameLength - discard;
+      return null;
+    }
+
+    int frameLengthInt = (int) frameLength;
+    if (buffer.readableBytes() < frameLengthInt) {
+      return null;
+    }
+
+    if (initialBytesToStrip > frameLengthInt) {
+      buffer.skipBytes(frameLengthInt);
+      throw new CorruptedFrameException("Adjusted frame length (" + frameLength + ") is less than initialBytesToStrip: " + initialBytesToStrip);
+    }
+    buffer.skipBytes(initialBytesToStrip);
+
+    int readerIndex = buffer.readerIndex();
+    int actualFrameLength = frameLengthInt - initialBytesToStrip;
+    ChannelBuffer frame = extractFrame(buffer, readerIndex, actualFrameLength);
+    buffer.readerIndex(readerIndex + actualFrameLength);
+    return frame;
+  }
+
+  private long getFrameLength(ChannelBuffer buffer, int offset) {
+    if (!littleEndian) {
+      switch (lengthFieldLength) {
+        case 1:
+          return buffer.getUnsignedByte(offset);
+        case 2:
+          return buffer.getUnsignedShort(offset);
+        case 3:
+          return buffer.getUnsignedMedium(offset);
+        case 4:
+          return buffer.getUnsignedInt(offset);
+        default:
+          return buffer.getLong(offset);
+      }
+    }
+
+    long value = 0;
+    for (int i = lengthFieldLength - 1; i >= 0; i--) {
+      value = (value << 8) | buffer.getUnsignedByte(offset + i);
+    }
+    return value;
+  }
+
+}
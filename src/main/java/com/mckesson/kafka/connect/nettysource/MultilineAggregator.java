@@ -0,0 +1,177 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mckesson.kafka.connect.nettysource.utils.ByteCharSequence;
+
+/**
+ * Joins continuation lines (stack traces, multi-line app logs) into one event.
+ *
+ * Must be placed after the framer: every received ChannelBuffer is a line.
+ * Line is tested with precompiled pattern directly on frame bytes (ISO-8859-1 view).
+ * Pending event is flushed when next event starts, on maxLines/maxBytes or
+ * when no lines were appended within the timeout.
+ */
+public class MultilineAggregator extends SimpleChannelUpstreamHandler {
+
+  private static final Logger log = LoggerFactory.getLogger(MultilineAggregator.class);
+
+  public enum Match {
+    /**
+     * pattern matches the first line of an event
+     */
+    START,
+    /**
+     * pattern matches continuation lines
+     */
+    CONTINUATION
+  }
+
+  private final Match match;
+  private final Matcher matcher;
+  private final ByteCharSequence chars = new ByteCharSequence();
+  private final int maxLines;
+  private final int maxBytes;
+  private final long timeoutMillis;
+  private final byte[] separator;
+  private final Timer timer;
+
+  private ChannelHandlerContext ctx;
+  private SocketAddress remoteAddress;
+  private ChannelBuffer pending;
+  private int pendingLines;
+  private long lastAppend;
+  private Timeout timeout;
+
+  public MultilineAggregator(Pattern pattern, Match match, int maxLines, int maxBytes, long timeoutMillis, byte[] separator, Timer timer) {
+    if (pattern == null) {
+      throw new NullPointerException("pattern");
+    }
+    this.matcher = pattern.matcher("");
+    this.match = match == null ? Match.START : match;
+    this.maxLines = maxLines;
+    this.maxBytes = maxBytes;
+    this.timeoutMillis = timeoutMillis;
+    this.separator = separator == null ? new byte[0] : separator;
+    this.timer = timer;
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object m = e.getMessage();
+    if (!(m instanceof ChannelBuffer)) {
+      ctx.sendUpstream(e);
+      return;
+    }
+    ChannelBuffer line = (ChannelBuffer) m;
+
+    synchronized (this) {
+      this.ctx = ctx;
+      this.remoteAddress = e.getRemoteAddress();
+
+      if (pending != null && (isEventStart(line) || pending.readableBytes() + separator.length + line.readableBytes() > maxBytes)) {
+        flush();
+      }
+      append(line);
+
+      if (pendingLines >= maxLines || pending.readableBytes() >= maxBytes) {
+        flush();
+      } else if (timeout == null && timer != null && timeoutMillis > 0) {
+        timeout = timer.newTimeout(new FlushTask(), timeoutMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    synchronized (this) {
+      if (pending != null) {
+        log.trace("Channel closed, flush pending event of {} lines", pendingLines);
+        flush();
+      }
+    }
+    super.channelClosed(ctx, e);
+  }
+
+  private boolean isEventStart(ChannelBuffer line) {
+    boolean found = matcher.reset(chars.wrap(line)).find();
+    return match == Match.START ? found : !found;
+  }
+
+  private void append(ChannelBuffer line) {
+    if (pending == null) {
+      pending = ChannelBuffers.dynamicBuffer(Math.max(256, line.readableBytes() * 4));
+    } else {
+      pending.writeBytes(separator);
+    }
+    pending.writeBytes(line, line.readerIndex(), line.readableBytes());
+    pendingLines++;
+    lastAppend = System.currentTimeMillis();
+  }
+
+  private void flush() {
+    ChannelBuffer event = pending;
+    pending = null;
+    pendingLines = 0;
+    if (timeout != null) {
+      timeout.cancel();
+      timeout = null;
+    }
+    if (event != null && ctx != null) {
+      Channels.fireMessageReceived(ctx, event, remoteAddress);
+    }
+  }
+
+  private class FlushTask implements TimerTask {
+    @Override
+    public void run(Timeout t) throws Exception {
+      synchronized (MultilineAggregator.this) {
+        if (timeout != t) {
+          return;
+        }
+        timeout = null;
+        if (pending == null) {
+          return;
+        }
+        long idle = System.currentTimeMillis() - lastAppend;
+        if (idle >= timeoutMillis) {
+          flush();
+        } else {
+          timeout = timer.newTimeout(this, timeoutMillis - idle, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+  }
+
+}
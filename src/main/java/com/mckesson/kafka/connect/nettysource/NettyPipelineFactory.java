@@ -23,6 +23,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
@@ -32,27 +35,95 @@ import javax.net.ssl.X509ExtendedKeyManager;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.SslConfigs;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.source.SourceRecord;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpMessage;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.util.DefaultObjectSizeEstimator;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mckesson.kafka.connect.utils.ConfigUtils;
 import com.mckesson.kafka.connect.utils.SslUtils;
 
 public abstract class NettyPipelineFactory implements ChannelPipelineFactory, Configurable, Closeable {
 
   private static final Logger log = LoggerFactory.getLogger(NettyPipelineFactory.class);
 
+  public static final String FUSED_DECODER_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".fusedDecoder";
+  private static final Boolean FUSED_DECODER_DEFAULT = Boolean.FALSE;
+
+  public enum ValueFormat {
+    STRING, BYTES
+  }
+
+  public static final String VALUE_FORMAT_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".valueFormat";
+  private static final String VALUE_FORMAT_DEFAULT = ValueFormat.STRING.name();
+
+  /**
+   * handler option: name of the handler to add new handler before
+   */
+  public static final String HANDLER_BEFORE_CONFIG = "before";
+  /**
+   * handler option: name of the handler to add new handler after
+   */
+  public static final String HANDLER_AFTER_CONFIG = "after";
+
+  public static final String EXECUTOR_THREADS_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".executor.threads";
+  private static final int EXECUTOR_THREADS_DEFAULT = 0;
+
+  public static final String EXECUTOR_MAX_CHANNEL_MEMORY_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".executor.maxChannelMemory";
+  private static final Long EXECUTOR_MAX_CHANNEL_MEMORY_DEFAULT = 1048576L;
+
+  public static final String EXECUTOR_MAX_TOTAL_MEMORY_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".executor.maxTotalMemory";
+  private static final Long EXECUTOR_MAX_TOTAL_MEMORY_DEFAULT = 67108864L;
+
+  public static final String EXECUTOR_KEEP_ALIVE_MS_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".executor.keepAliveMs";
+  private static final Long EXECUTOR_KEEP_ALIVE_MS_DEFAULT = 30000L;
+
+  /**
+   * name of the execution stage in the pipeline
+   */
+  public static final String EXECUTOR_HANDLER_NAME = "executor";
+
+  private static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(FUSED_DECODER_CONFIG, ConfigDef.Type.BOOLEAN, FUSED_DECODER_DEFAULT, ConfigDef.Importance.MEDIUM,
+          "frame and decode to String in one pass with ASCII fast path, replaces 'framer' and 'decoder' handlers. Supported by default tcp and udp factories")
+      .define(VALUE_FORMAT_CONFIG, ConfigDef.Type.STRING, VALUE_FORMAT_DEFAULT, ConfigUtils.validEnum(ValueFormat.class), ConfigDef.Importance.MEDIUM,
+          "STRING - frames are decoded to String, BYTES - 'decoder' is not added, records carry exact frame bytes. Supported by default tcp, udp and syslog factories")
+      .define(EXECUTOR_THREADS_CONFIG, ConfigDef.Type.INT, EXECUTOR_THREADS_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.MEDIUM,
+          "number of worker threads to run record handler on, preserving per-channel order. 0 - record handler runs on I/O threads")
+      .define(EXECUTOR_MAX_CHANNEL_MEMORY_CONFIG, ConfigDef.Type.LONG, EXECUTOR_MAX_CHANNEL_MEMORY_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW,
+          "max size of queued frames per channel (bytes), reading from the channel is suspended when exceeded. 0 - unlimited")
+      .define(EXECUTOR_MAX_TOTAL_MEMORY_CONFIG, ConfigDef.Type.LONG, EXECUTOR_MAX_TOTAL_MEMORY_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW,
+          "max size of all queued frames (bytes), I/O threads are blocked when exceeded. 0 - unlimited")
+      .define(EXECUTOR_KEEP_ALIVE_MS_CONFIG, ConfigDef.Type.LONG, EXECUTOR_KEEP_ALIVE_MS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW,
+          "idle worker threads are stopped after (millis)");
+
   protected NettySourceConnectorConfig config;
   protected BlockingQueue<SourceRecord> messageQueue;
   protected String topic;
   protected boolean sslEnabled = false;
+  protected boolean fusedDecoder = false;
+  protected ValueFormat valueFormat = ValueFormat.STRING;
+  protected TopicRouter topicRouter;
+
+  private Timer timer;
+  private ExecutionHandler executionHandler;
+  private final Map<String, ChannelHandler> sharedHandlers = new ConcurrentHashMap<>();
 
   public abstract LinkedHashMap<String, ChannelHandler> defaultHandlers(NettySourceConnectorConfig conf);
 
@@ -60,6 +131,14 @@ public abstract class NettyPipelineFactory implements ChannelPipelineFactory, Co
     this.messageQueue = messageQueue;
   }
 
+  /**
+   * @return {@code @Sharable} handler configured by {@code pipeline.factory.handlers},
+   *         null if it's not created yet (no connections) or not sharable
+   */
+  public ChannelHandler getSharedHandler(String name) {
+    return sharedHandlers.get(name);
+  }
+
   @Override
   public ChannelPipeline getPipeline() throws Exception {
     ChannelPipeline pipeline = Channels.pipeline();
@@ -78,6 +157,9 @@ public abstract class NettyPipelineFactory implements ChannelPipelineFactory, Co
     }
 
     configureHandlers(config, pipeline);
+    if (executionHandler != null) {
+      addExecutionHandler(pipeline);
+    }
 
     return pipeline;
 
@@ -88,10 +170,97 @@ public abstract class NettyPipelineFactory implements ChannelPipelineFactory, Co
     this.config = new NettySourceConnectorConfig(configs);
     this.topic = config.getString(NettySourceConnectorConfig.TOPIC_CONFIG);
     this.sslEnabled = config.getBoolean(NettySourceConnectorConfig.SSL_ENABLED_CONFIG);
+
+    SimpleConfig factoryConfig = new SimpleConfig(CONFIG_DEF, configs);
+    this.fusedDecoder = factoryConfig.getBoolean(FUSED_DECODER_CONFIG);
+    this.valueFormat = ConfigUtils.getEnum(factoryConfig, VALUE_FORMAT_CONFIG, ValueFormat.class);
+    this.topicRouter = TopicRouter.fromConfig(configs);
+
+    int executorThreads = factoryConfig.getInt(EXECUTOR_THREADS_CONFIG);
+    if (executorThreads > 0) {
+      this.executionHandler = new ExecutionHandler(new OrderedMemoryAwareThreadPoolExecutor(executorThreads,
+          factoryConfig.getLong(EXECUTOR_MAX_CHANNEL_MEMORY_CONFIG),
+          factoryConfig.getLong(EXECUTOR_MAX_TOTAL_MEMORY_CONFIG),
+          factoryConfig.getLong(EXECUTOR_KEEP_ALIVE_MS_CONFIG), TimeUnit.MILLISECONDS,
+          new ContentSizeEstimator(), Executors.defaultThreadFactory()));
+      log.debug("Record handlers run on {} worker threads", executorThreads);
+    }
+  }
+
+  /**
+   * Adds execution stage before the first record handler, so framing and decoding stay on I/O threads
+   * and parsing and record building run on the workers. Events of one channel are handled in order.
+   */
+  private void addExecutionHandler(ChannelPipeline pipeline) {
+    for (Entry<String, ChannelHandler> e : pipeline.toMap().entrySet()) {
+      if (e.getValue() instanceof SourceRecordHandler) {
+        pipeline.addBefore(e.getKey(), EXECUTOR_HANDLER_NAME, executionHandler);
+        return;
+      }
+    }
+    log.warn("No record handler in the pipeline, '{}' is not added", EXECUTOR_HANDLER_NAME);
+  }
+
+  /**
+   * Counts content of HTTP messages and chunks, so memory limits of the execution stage apply to HTTP bodies.
+   * {@link DefaultObjectSizeEstimator} sizes them by their fields only.
+   */
+  static class ContentSizeEstimator extends DefaultObjectSizeEstimator {
+
+    @Override
+    public int estimateSize(Object o) {
+      int size = super.estimateSize(o);
+      ChannelBuffer content = null;
+      if (o instanceof HttpMessage) {
+        content = ((HttpMessage) o).getContent();
+      } else if (o instanceof HttpChunk) {
+        content = ((HttpChunk) o).getContent();
+      }
+      if (content != null) {
+        size += content.readableBytes();
+      }
+      return size;
+    }
+  }
+
+  /**
+   * Sets topic, queue, topic router and timer (if required) to the record handler.
+   * Handler must be already configured.
+   */
+  protected <T extends SourceRecordHandler> T initRecordHandler(T handler) {
+    handler.setTopic(topic);
+    handler.setRecordQueue(messageQueue);
+    handler.setTopicRouter(topicRouter);
+    if (handler.isEnvelopeEnabled()) {
+      handler.setTimer(getTimer());
+    }
+    return handler;
+  }
+
+  /**
+   * Timer shared by all channels created by the factory.
+   * Created on first use, stopped on {@link #close()}
+   */
+  protected synchronized Timer getTimer() {
+    if (timer == null) {
+      timer = new HashedWheelTimer();
+    }
+    return timer;
   }
 
   @Override
   public void close() throws IOException {
+    synchronized (this) {
+      if (timer != null) {
+        timer.stop();
+        timer = null;
+      }
+      if (executionHandler != null) {
+        executionHandler.releaseExternalResources();
+        executionHandler = null;
+      }
+    }
+    sharedHandlers.clear();
   }
 
   public void configureHandlers(NettySourceConnectorConfig config, ChannelPipeline pipeline) {
@@ -112,32 +281,81 @@ public abstract class NettyPipelineFactory implements ChannelPipelineFactory, Co
     for (String handlerName : handlersList) {
       Map<String, Object> handlerConf = config
           .originalsWithPrefix(NettySourceConnectorConfig.PIPELINE_FACTORY_HANDLERS_CONFIG + "." + handlerName + ".");
-      ChannelHandler handler = ChannelHandlerFactory.createHandler(handlerConf);
-      log.debug("created handler for '{}' -> {}", handlerName, handler);
-
-      if (handler instanceof Configurable) {
-        ((Configurable) handler).configure(handlerConf);
-      }
-
-      if (handler != null && handler instanceof SourceRecordHandler) {
-        ((SourceRecordHandler) handler).setTopic(topic);
-        ((SourceRecordHandler) handler).setRecordQueue(messageQueue);
+      ChannelHandler handler = sharedHandlers.get(handlerName);
+      if (handler == null) {
+        handler = createHandler(handlerName, handlerConf);
+        if (handler != null && handler instanceof SourceRecordHandler) {
+          initRecordHandler((SourceRecordHandler) handler);
+        }
       }
       // remove, replace or add
       if (handler == null && pipeline.get(handlerName) != null) {
         pipeline.remove(handlerName);
         log.debug("removed handler for '{}'", handlerName);
+      } else if (handler == null) {
+        log.debug("nothing to remove for '{}'", handlerName);
       } else if (pipeline.get(handlerName) != null) {
         pipeline.replace(handlerName, handlerName, handler);
         log.debug("replaced handler for '{}'", handlerName);
       } else {
-        pipeline.addLast(handlerName, handler);
-        log.debug("added handler for '{}'", handlerName);
+        Object before = handlerConf.get(HANDLER_BEFORE_CONFIG);
+        Object after = handlerConf.get(HANDLER_AFTER_CONFIG);
+        if (before != null && pipeline.get(before.toString()) != null) {
+          pipeline.addBefore(before.toString(), handlerName, handler);
+          log.debug("added handler for '{}' before '{}'", handlerName, before);
+        } else if (after != null && pipeline.get(after.toString()) != null) {
+          pipeline.addAfter(after.toString(), handlerName, handler);
+          log.debug("added handler for '{}' after '{}'", handlerName, after);
+        } else {
+          pipeline.addLast(handlerName, handler);
+          log.debug("added handler for '{}'", handlerName);
+        }
       }
     }
 
   }
 
+  /**
+   * Creates {@code @Sharable} handlers of {@code pipeline.factory.handlers} and validates configs of the others,
+   * so a bad handler config fails the task on start rather than every new connection.
+   * Called by the task once the factory is configured.
+   */
+  public void createSharedHandlers() {
+    List<String> handlersList = config.getList(NettySourceConnectorConfig.PIPELINE_FACTORY_HANDLERS_CONFIG);
+    if (handlersList == null) {
+      return;
+    }
+    for (String handlerName : handlersList) {
+      Map<String, Object> handlerConf = config
+          .originalsWithPrefix(NettySourceConnectorConfig.PIPELINE_FACTORY_HANDLERS_CONFIG + "." + handlerName + ".");
+      ChannelHandler handler = createHandler(handlerName, handlerConf);
+      if (handler != null && sharedHandlers.get(handlerName) == handler && handler instanceof SourceRecordHandler) {
+        initRecordHandler((SourceRecordHandler) handler);
+      }
+    }
+  }
+
+  /**
+   * Creates and configures the handler. {@code @Sharable} handlers are created once per factory
+   * and keep state across channels
+   */
+  private ChannelHandler createHandler(String handlerName, Map<String, Object> handlerConf) {
+    ChannelHandler handler = ChannelHandlerFactory.createHandler(handlerConf);
+    log.debug("created handler for '{}' -> {}", handlerName, handler);
+
+    if (handler instanceof Configurable) {
+      ((Configurable) handler).configure(handlerConf);
+    }
+
+    if (handler != null && handler.getClass().isAnnotationPresent(ChannelHandler.Sharable.class)) {
+      ChannelHandler existing = sharedHandlers.putIfAbsent(handlerName, handler);
+      if (existing != null) {
+        handler = existing;
+      }
+    }
+    return handler;
+  }
+
   private SSLContext createSSLContext(NettySourceConnectorConfig config) throws Exception {
 
     KeyStore keyStore = SslUtils.loadKeyStore(config.getString(SslConfigs.SSL_KEYSTORE_TYPE_CONFIG),
@@ -120,6 +120,9 @@ public abstract class NettySourceTask extends SourceTask {
       if (pipelineFactory instanceof Configurable) {
         ((Configurable) pipelineFactory).configure(props);
       }
+      if (pipelineFactory instanceof NettyPipelineFactory) {
+        ((NettyPipelineFactory) pipelineFactory).createSharedHandlers();
+      }
 
       chGroup = new DefaultChannelGroup();
       this.workerChFactory = createWorkerChannelFactory(workingThreads);
@@ -275,6 +278,14 @@ public abstract class NettySourceTask extends SourceTask {
     return records;
   }
 
+  @Override
+  public void commitRecord(SourceRecord record) throws InterruptedException {
+    // record is written to Kafka, report HEC indexer acknowledgement
+    if (record instanceof HecAckTracker.AckedRecord) {
+      ((HecAckTracker.AckedRecord) record).committed();
+    }
+  }
+
   @Override
   public void stop() {
     log.debug("Stopping {}", this.tskName);
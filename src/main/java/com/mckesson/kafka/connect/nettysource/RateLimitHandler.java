@@ -0,0 +1,346 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mckesson.kafka.connect.nettysource.utils.Cidr;
+import com.mckesson.kafka.connect.utils.ConfigUtils;
+
+/**
+ * Per-sender rate limiting with token buckets.
+ *
+ * Senders are grouped by configured CIDR ranges or by source IP masked with prefix length.
+ * Messages over the limit are discarded (or sampled 1-in-N) before anything is decoded,
+ * so the handler should be placed right after the framer.
+ * Instance is shared by all pipelines of the factory: bucket state is kept per sender, not per channel.
+ * When {@code maxSenders} buckets are tracked, idle buckets are evicted for a new sender; if none is
+ * idle, new senders share one {@code overflow} bucket, so they limit each other until buckets expire.
+ * Counters are logged every {@code reportIntervalMs}.
+ */
+@Sharable
+public class RateLimitHandler extends SimpleChannelUpstreamHandler implements Configurable {
+
+  private static final Logger log = LoggerFactory.getLogger(RateLimitHandler.class);
+
+  public enum Unit {
+    MESSAGES, BYTES
+  }
+
+  public static final String RATE_CONFIG = "rate";
+
+  public static final String BURST_CONFIG = "burst";
+
+  public static final String UNIT_CONFIG = "unit";
+  private static final String UNIT_DEFAULT = Unit.MESSAGES.name();
+
+  public static final String SAMPLE_RATE_CONFIG = "sampleRate";
+  private static final int SAMPLE_RATE_DEFAULT = 0;
+
+  public static final String CIDRS_CONFIG = "cidrs";
+
+  public static final String IPV4_PREFIX_LENGTH_CONFIG = "ipv4PrefixLength";
+  private static final int IPV4_PREFIX_LENGTH_DEFAULT = 32;
+
+  public static final String IPV6_PREFIX_LENGTH_CONFIG = "ipv6PrefixLength";
+  private static final int IPV6_PREFIX_LENGTH_DEFAULT = 128;
+
+  public static final String MAX_SENDERS_CONFIG = "maxSenders";
+  private static final int MAX_SENDERS_DEFAULT = 10000;
+
+  public static final String EXPIRE_MS_CONFIG = "expireMs";
+  private static final Long EXPIRE_MS_DEFAULT = 60000L;
+
+  public static final String REPORT_INTERVAL_MS_CONFIG = "reportIntervalMs";
+  private static final Long REPORT_INTERVAL_MS_DEFAULT = 60000L;
+
+  /**
+   * min interval of idle bucket eviction forced by a new sender when maxSenders is reached
+   */
+  private static final long FORCED_EXPIRE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(RATE_CONFIG, ConfigDef.Type.DOUBLE, ConfigDef.NO_DEFAULT_VALUE, ConfigDef.Range.atLeast(0), ConfigDef.Importance.HIGH, "permits per second for each sender")
+      .define(BURST_CONFIG, ConfigDef.Type.DOUBLE, null, ConfigDef.Importance.MEDIUM, "bucket size. default: rate")
+      .define(UNIT_CONFIG, ConfigDef.Type.STRING, UNIT_DEFAULT, ConfigUtils.validEnum(Unit.class), ConfigDef.Importance.MEDIUM, "MESSAGES or BYTES")
+      .define(SAMPLE_RATE_CONFIG, ConfigDef.Type.INT, SAMPLE_RATE_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.MEDIUM, "pass 1 of N messages over the limit. 0 - drop all")
+      .define(CIDRS_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.MEDIUM, "CIDR ranges sharing one bucket per range")
+      .define(IPV4_PREFIX_LENGTH_CONFIG, ConfigDef.Type.INT, IPV4_PREFIX_LENGTH_DEFAULT, ConfigDef.Range.between(0, 32), ConfigDef.Importance.LOW, "IPv4 senders out of cidrs are grouped by this prefix")
+      .define(IPV6_PREFIX_LENGTH_CONFIG, ConfigDef.Type.INT, IPV6_PREFIX_LENGTH_DEFAULT, ConfigDef.Range.between(0, 128), ConfigDef.Importance.LOW, "IPv6 senders out of cidrs are grouped by this prefix")
+      .define(MAX_SENDERS_CONFIG, ConfigDef.Type.INT, MAX_SENDERS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, "max number of tracked buckets. when reached, idle buckets are evicted, new senders share one bucket if none is idle")
+      .define(EXPIRE_MS_CONFIG, ConfigDef.Type.LONG, EXPIRE_MS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, "idle bucket is removed after this time (millis)")
+      .define(REPORT_INTERVAL_MS_CONFIG, ConfigDef.Type.LONG, REPORT_INTERVAL_MS_DEFAULT, ConfigDef.Importance.LOW, "interval to log counters (millis). 0 - disabled");
+
+  private double intervalNanos;
+  private long toleranceNanos;
+  private Unit unit = Unit.MESSAGES;
+  private int sampleRate;
+  private List<Cidr> cidrs = Collections.emptyList();
+  private int ipv4PrefixLength = IPV4_PREFIX_LENGTH_DEFAULT;
+  private int ipv6PrefixLength = IPV6_PREFIX_LENGTH_DEFAULT;
+  private int maxSenders = MAX_SENDERS_DEFAULT;
+  private long expireNanos;
+  private long reportIntervalNanos;
+
+  private final ConcurrentHashMap<Object, Bucket> buckets = new ConcurrentHashMap<>();
+  private final Bucket overflowBucket = new Bucket("overflow", System.nanoTime());
+  private final AtomicLong nextExpire = new AtomicLong(System.nanoTime());
+  private final AtomicLong nextForcedExpire = new AtomicLong(System.nanoTime());
+  private final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+  private final AtomicLong passed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong sampled = new AtomicLong();
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
+    double rate = conf.getDouble(RATE_CONFIG);
+    Double burst = conf.getDouble(BURST_CONFIG);
+    if (rate <= 0) {
+      throw new ConfigException(RATE_CONFIG, rate, "rate must be positive");
+    }
+    this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+    this.toleranceNanos = (long) (intervalNanos * Math.max(1d, burst == null ? rate : burst));
+    this.unit = ConfigUtils.getEnum(conf, UNIT_CONFIG, Unit.class);
+    this.sampleRate = conf.getInt(SAMPLE_RATE_CONFIG);
+    List<Cidr> cidrList = new ArrayList<>();
+    for (String c : conf.getList(CIDRS_CONFIG)) {
+      try {
+        cidrList.add(Cidr.parse(c));
+      } catch (IllegalArgumentException e) {
+        throw new ConfigException(CIDRS_CONFIG, c, e.getMessage());
+      }
+    }
+    this.cidrs = cidrList;
+    this.ipv4PrefixLength = conf.getInt(IPV4_PREFIX_LENGTH_CONFIG);
+    this.ipv6PrefixLength = conf.getInt(IPV6_PREFIX_LENGTH_CONFIG);
+    this.maxSenders = conf.getInt(MAX_SENDERS_CONFIG);
+    this.expireNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(EXPIRE_MS_CONFIG));
+    this.reportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(REPORT_INTERVAL_MS_CONFIG));
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    SocketAddress remoteAddr = e.getRemoteAddress();
+    if (remoteAddr == null) {
+      remoteAddr = ctx.getChannel().getRemoteAddress();
+    }
+    if (!(remoteAddr instanceof InetSocketAddress) || ((InetSocketAddress) remoteAddr).getAddress() == null) {
+      ctx.sendUpstream(e);
+      return;
+    }
+
+    long now = System.nanoTime();
+    expire(now);
+    report(now);
+    Bucket bucket = bucket(((InetSocketAddress) remoteAddr).getAddress(), now);
+    bucket.lastSeen = now;
+
+    if (tryAcquire(bucket, cost(e.getMessage()), now)) {
+      if (bucket.limiting) {
+        bucket.limiting = false;
+        log.info("Sender {} is back under the rate limit, total over limit: {}", bucket.name, bucket.limited.get());
+      }
+      passed.incrementAndGet();
+      ctx.sendUpstream(e);
+      return;
+    }
+
+    long limited = bucket.limited.incrementAndGet();
+    if (!bucket.limiting) {
+      bucket.limiting = true;
+      log.warn("Sender {} exceeded the rate limit, {}", bucket.name, sampleRate > 0 ? "sampling 1 of " + sampleRate : "dropping");
+    }
+    if (sampleRate > 0 && limited % sampleRate == 0) {
+      sampled.incrementAndGet();
+      ctx.sendUpstream(e);
+    } else {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private long cost(Object msg) {
+    if (unit == Unit.MESSAGES) {
+      return 1;
+    }
+    if (msg instanceof ChannelBuffer) {
+      return ((ChannelBuffer) msg).readableBytes();
+    }
+    if (msg instanceof String) {
+      return ((String) msg).length();
+    }
+    return 1;
+  }
+
+  /**
+   * GCRA form of token bucket: a single CAS on theoretical arrival time.
+   */
+  private boolean tryAcquire(Bucket bucket, long cost, long now) {
+    long increment = (long) (cost * intervalNanos);
+    while (true) {
+      long tat = bucket.tat.get();
+      long newTat = Math.max(tat, now) + increment;
+      if (newTat - now > toleranceNanos) {
+        return false;
+      }
+      if (bucket.tat.compareAndSet(tat, newTat)) {
+        return true;
+      }
+    }
+  }
+
+  private Bucket bucket(InetAddress addr, long now) {
+    Object key = null;
+    for (Cidr c : cidrs) {
+      if (c.matches(addr)) {
+        key = c;
+        break;
+      }
+    }
+    int prefixLength = 0;
+    byte[] bytes = addr.getAddress();
+    if (key == null) {
+      if (bytes.length == 4) {
+        prefixLength = ipv4PrefixLength;
+        int ip = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+        key = ipv4PrefixLength == 0 ? 0L : (long) (ip & (0xffffffff << (32 - ipv4PrefixLength)));
+      } else {
+        prefixLength = ipv6PrefixLength;
+        key = ByteBuffer.wrap(Cidr.mask(bytes, ipv6PrefixLength));
+      }
+    }
+
+    Bucket bucket = buckets.get(key);
+    if (bucket != null) {
+      return bucket;
+    }
+    if (buckets.size() >= maxSenders && !evictIdle(now)) {
+      return overflowBucket;
+    }
+    String name;
+    if (key instanceof Cidr) {
+      name = key.toString();
+    } else if (prefixLength < bytes.length * 8) {
+      name = addr.getHostAddress() + "/" + prefixLength;
+    } else {
+      name = addr.getHostAddress();
+    }
+    Bucket newBucket = new Bucket(name, now);
+    bucket = buckets.putIfAbsent(key, newBucket);
+    return bucket == null ? newBucket : bucket;
+  }
+
+  private void expire(long now) {
+    long next = nextExpire.get();
+    if (now - next < 0 || !nextExpire.compareAndSet(next, now + Math.max(expireNanos / 4, TimeUnit.SECONDS.toNanos(1)))) {
+      return;
+    }
+    buckets.values().removeIf(b -> now - b.lastSeen > expireNanos);
+  }
+
+  /**
+   * Evicts idle buckets for a new sender, at most once per {@link #FORCED_EXPIRE_INTERVAL_NANOS}
+   *
+   * @return true if there is room for a new bucket
+   */
+  private boolean evictIdle(long now) {
+    long next = nextForcedExpire.get();
+    if (now - next >= 0 && nextForcedExpire.compareAndSet(next, now + FORCED_EXPIRE_INTERVAL_NANOS)) {
+      buckets.values().removeIf(b -> now - b.lastSeen > expireNanos);
+    }
+    return buckets.size() < maxSenders;
+  }
+
+  private void report(long now) {
+    if (reportIntervalNanos <= 0) {
+      return;
+    }
+    long last = lastReport.get();
+    if (now - last < reportIntervalNanos || !lastReport.compareAndSet(last, now)) {
+      return;
+    }
+    log.info("Rate limit: passed={}, dropped={}, sampled={}, senders={}, overLimit={}", passed.get(), dropped.get(), sampled.get(), buckets.size(),
+        getLimitedSenders());
+  }
+
+  public long getPassed() {
+    return passed.get();
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  public long getSampled() {
+    return sampled.get();
+  }
+
+  /**
+   * @return number of messages over the limit by sender (CIDR or IP) for tracked senders
+   */
+  public Map<String, Long> getLimitedSenders() {
+    Map<String, Long> result = new HashMap<>();
+    for (Bucket b : buckets.values()) {
+      long l = b.limited.get();
+      if (l > 0) {
+        result.merge(b.name, l, Long::sum);
+      }
+    }
+    if (overflowBucket.limited.get() > 0) {
+      result.put(overflowBucket.name, overflowBucket.limited.get());
+    }
+    return result;
+  }
+
+  private static final class Bucket {
+    private final String name;
+    private final AtomicLong tat;
+    private final AtomicLong limited = new AtomicLong();
+    private volatile long lastSeen;
+    private volatile boolean limiting;
+
+    Bucket(String name, long now) {
+      this.name = name;
+      this.tat = new AtomicLong(now);
+      this.lastSeen = now;
+    }
+  }
+
+}
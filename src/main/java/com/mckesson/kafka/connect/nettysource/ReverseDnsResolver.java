@@ -0,0 +1,238 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Non-blocking reverse DNS lookups with a bounded TTL cache.
+ *
+ * {@link #lookup(InetAddress)} never blocks: cached name is returned if present,
+ * otherwise the lookup is submitted to a small resolver pool and null is returned,
+ * so the first record from a new address goes out without a hostname.
+ * Failed lookups are cached for {@code negativeTtlMs}. Expired names are still
+ * returned while they are being refreshed. Static names from {@code hosts}
+ * or {@code hostsFile} (hosts file format) take precedence over DNS.
+ */
+public class ReverseDnsResolver implements Configurable, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(ReverseDnsResolver.class);
+
+  public static final String THREADS_CONFIG = "threads";
+  private static final int THREADS_DEFAULT = 2;
+
+  public static final String TTL_MS_CONFIG = "ttlMs";
+  private static final Long TTL_MS_DEFAULT = 3600000L;
+
+  public static final String NEGATIVE_TTL_MS_CONFIG = "negativeTtlMs";
+  private static final Long NEGATIVE_TTL_MS_DEFAULT = 300000L;
+
+  public static final String MAX_ENTRIES_CONFIG = "maxEntries";
+  private static final int MAX_ENTRIES_DEFAULT = 10000;
+
+  public static final String MAX_PENDING_CONFIG = "maxPending";
+  private static final int MAX_PENDING_DEFAULT = 1000;
+
+  public static final String HOSTS_CONFIG = "hosts";
+
+  public static final String HOSTS_FILE_CONFIG = "hostsFile";
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(THREADS_CONFIG, ConfigDef.Type.INT, THREADS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, "number of resolver threads")
+      .define(TTL_MS_CONFIG, ConfigDef.Type.LONG, TTL_MS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.MEDIUM, "time to cache resolved names (millis)")
+      .define(NEGATIVE_TTL_MS_CONFIG, ConfigDef.Type.LONG, NEGATIVE_TTL_MS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.MEDIUM, "time to cache failed lookups (millis)")
+      .define(MAX_ENTRIES_CONFIG, ConfigDef.Type.INT, MAX_ENTRIES_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, "max number of cached addresses")
+      .define(MAX_PENDING_CONFIG, ConfigDef.Type.INT, MAX_PENDING_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, "max number of queued lookups, new lookups are skipped when reached")
+      .define(HOSTS_CONFIG, ConfigDef.Type.LIST, null, ConfigDef.Importance.LOW, "static names: list of ip=hostname")
+      .define(HOSTS_FILE_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.LOW, "static names from file in hosts format: ip hostname [aliases]");
+
+  private long ttlNanos = TimeUnit.MILLISECONDS.toNanos(TTL_MS_DEFAULT);
+  private long negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(NEGATIVE_TTL_MS_DEFAULT);
+  private int maxEntries = MAX_ENTRIES_DEFAULT;
+
+  private Map<InetAddress, String> staticNames = new HashMap<>();
+  private final ConcurrentHashMap<InetAddress, Entry> cache = new ConcurrentHashMap<>();
+  private ThreadPoolExecutor executor;
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(TTL_MS_CONFIG));
+    this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(NEGATIVE_TTL_MS_CONFIG));
+    this.maxEntries = conf.getInt(MAX_ENTRIES_CONFIG);
+
+    Map<InetAddress, String> names = new HashMap<>();
+    String hostsFile = conf.getString(HOSTS_FILE_CONFIG);
+    if (hostsFile != null) {
+      try {
+        for (String line : Files.readAllLines(Paths.get(hostsFile), StandardCharsets.UTF_8)) {
+          int hash = line.indexOf('#');
+          String[] parts = (hash < 0 ? line : line.substring(0, hash)).trim().split("\\s+");
+          if (parts.length >= 2) {
+            names.putIfAbsent(parseAddress(parts[0], HOSTS_FILE_CONFIG), parts[1]);
+          }
+        }
+      } catch (IOException e) {
+        throw new ConfigException(HOSTS_FILE_CONFIG, hostsFile, "Failed to read: " + e.getMessage());
+      }
+    }
+    List<String> hosts = conf.getList(HOSTS_CONFIG);
+    if (hosts != null) {
+      for (String h : hosts) {
+        int eq = h.indexOf('=');
+        if (eq <= 0 || eq == h.length() - 1) {
+          throw new ConfigException(HOSTS_CONFIG, h, "Expected ip=hostname");
+        }
+        names.put(parseAddress(h.substring(0, eq).trim(), HOSTS_CONFIG), h.substring(eq + 1).trim());
+      }
+    }
+    this.staticNames = names;
+
+    int threads = conf.getInt(THREADS_CONFIG);
+    AtomicInteger threadNum = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(conf.getInt(MAX_PENDING_CONFIG)), r -> {
+      Thread t = new Thread(r, "reverse-dns-" + threadNum.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    this.executor.allowCoreThreadTimeOut(true);
+    log.debug("Reverse DNS resolver: {} threads, {} static names", threads, names.size());
+  }
+
+  private static InetAddress parseAddress(String ip, String configName) {
+    try {
+      return InetAddresses.forString(ip);
+    } catch (IllegalArgumentException e) {
+      throw new ConfigException(configName, ip, "Invalid ip address");
+    }
+  }
+
+  /**
+   * @return cached or static hostname, null if not resolved (yet)
+   */
+  public String lookup(InetAddress addr) {
+    if (addr == null) {
+      return null;
+    }
+    String name = staticNames.get(addr);
+    if (name != null) {
+      return name;
+    }
+
+    long now = System.nanoTime();
+    Entry entry = cache.get(addr);
+    if (entry != null && now - entry.expires < 0) {
+      return entry.name;
+    }
+    if (entry == null && cache.size() >= maxEntries && !evictExpired(now)) {
+      log.trace("Reverse DNS cache is full, skipped lookup of {}", addr);
+      return null;
+    }
+
+    // entry with refreshing flag guards against duplicate lookups
+    Entry refreshing = new Entry(entry == null ? null : entry.name, entry == null ? now + negativeTtlNanos : entry.expires, true);
+    boolean submit = entry == null ? cache.putIfAbsent(addr, refreshing) == null : !entry.refreshing && cache.replace(addr, entry, refreshing);
+    if (submit) {
+      try {
+        executor.execute(() -> resolve(addr));
+      } catch (RejectedExecutionException e) {
+        log.trace("Reverse DNS queue is full, skipped lookup of {}", addr);
+        cache.remove(addr, refreshing);
+      }
+    }
+    return entry == null ? null : entry.name;
+  }
+
+  private void resolve(InetAddress addr) {
+    String name = null;
+    try {
+      // new instance without cached host name
+      String resolved = InetAddress.getByAddress(addr.getAddress()).getCanonicalHostName();
+      if (resolved != null && !resolved.equals(addr.getHostAddress())) {
+        name = resolved;
+      }
+    } catch (Exception e) {
+      log.trace("Reverse DNS lookup of {} failed", addr, e);
+    }
+    long now = System.nanoTime();
+    cache.put(addr, new Entry(name, now + (name == null ? negativeTtlNanos : ttlNanos), false));
+    log.trace("Reverse DNS {} -> {}", addr, name);
+  }
+
+  /**
+   * @return true if anything was evicted
+   */
+  private boolean evictExpired(long now) {
+    boolean evicted = false;
+    for (Iterator<Entry> it = cache.values().iterator(); it.hasNext();) {
+      Entry e = it.next();
+      if (!e.refreshing && now - e.expires >= 0) {
+        it.remove();
+        evicted = true;
+      }
+    }
+    return evicted;
+  }
+
+  public int getCacheSize() {
+    return cache.size();
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    cache.clear();
+  }
+
+  private static final class Entry {
+    private final String name;
+    private final long expires;
+    private final boolean refreshing;
+
+    Entry(String name, long expires, boolean refreshing) {
+      this.name = name;
+      this.expires = expires;
+      this.refreshing = refreshing;
+    }
+  }
+
+}
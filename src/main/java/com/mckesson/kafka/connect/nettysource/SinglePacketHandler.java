@@ -15,6 +15,8 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
+import java.nio.charset.Charset;
+
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.Channels;
@@ -27,6 +29,20 @@ public class SinglePacketHandler extends SimpleChannelUpstreamHandler {
 
   private static final Logger LOG = LoggerFactory.getLogger(SinglePacketHandler.class);
 
+  private final Charset charset;
+
+  public SinglePacketHandler() {
+    this(null);
+  }
+
+  /**
+   * @param charset if not null each packet is decoded to String,
+   *                ASCII packets are decoded as ISO-8859-1 without CharsetDecoder
+   */
+  public SinglePacketHandler(Charset charset) {
+    this.charset = charset;
+  }
+
   @Override
   public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
 
@@ -47,7 +63,11 @@ public class SinglePacketHandler extends SimpleChannelUpstreamHandler {
     }
 
     int packetSize = buffer.readableBytes();
-    if (packetSize > 0) {
+    if (packetSize > 0 && charset != null) {
+      String msg = StringFrameDecoder.decodeString(buffer, buffer.readerIndex(), packetSize, charset);
+      LOG.trace("Received packet size {} bytes from {}", packetSize, e.getRemoteAddress());
+      Channels.fireMessageReceived(ctx, msg, e.getRemoteAddress());
+    } else if (packetSize > 0) {
       ChannelBuffer msg = buffer.factory().getBuffer(packetSize);
       msg.writeBytes(buffer, buffer.readerIndex(), packetSize);
       LOG.trace("Received packet size {} bytes from {}", packetSize, e.getRemoteAddress());
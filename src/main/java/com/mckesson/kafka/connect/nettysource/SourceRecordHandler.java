@@ -15,20 +15,47 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.kafka.common.Configurable;
 import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.header.ConnectHeaders;
+import org.apache.kafka.connect.header.Header;
 import org.apache.kafka.connect.source.SourceRecord;
 import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.jboss.netty.channel.socket.ServerSocketChannel;
+import org.jboss.netty.channel.socket.SocketChannel;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mckesson.kafka.connect.utils.ConfigUtils;
+
 /**
  * Base class for message handling ChannelHandlers
  */
@@ -42,21 +69,123 @@ public class SourceRecordHandler extends SimpleChannelUpstreamHandler implements
   public static final String QUEUE_FILLED_THRESHOLD_CONFIG = "queueFilledThreshold";
   public static final int QUEUE_FILLED_THRESHOLD_DEFAULT = 95;
 
+  public enum EnvelopeFormat {
+    /**
+     * frames joined with new line, bytes value
+     */
+    NEWLINE,
+    /**
+     * each frame prefixed with 4 bytes big-endian length, bytes value
+     */
+    LENGTH_PREFIXED,
+    /**
+     * array of frame values
+     */
+    ARRAY
+  }
+
+  public static final String ENVELOPE_MAX_FRAMES_CONFIG = "envelope.maxFrames";
+  public static final int ENVELOPE_MAX_FRAMES_DEFAULT = 0;
+
+  public static final String ENVELOPE_MAX_BYTES_CONFIG = "envelope.maxBytes";
+  public static final int ENVELOPE_MAX_BYTES_DEFAULT = 1048576;
+
+  public static final String ENVELOPE_LINGER_MS_CONFIG = "envelope.lingerMs";
+  public static final Long ENVELOPE_LINGER_MS_DEFAULT = 100L;
+
+  public static final String ENVELOPE_FORMAT_CONFIG = "envelope.format";
+  public static final String ENVELOPE_FORMAT_DEFAULT = EnvelopeFormat.NEWLINE.name();
+
+  /**
+   * header with number of frames packed into the envelope record
+   */
+  public static final String ENVELOPE_COUNT_HEADER = "envelope.count";
+
+  public enum HeadersMode {
+    /**
+     * no connection headers
+     */
+    NONE,
+    /**
+     * remote host only
+     */
+    MINIMAL,
+    /**
+     * remote and local addresses, transport protocol
+     */
+    FULL
+  }
+
+  public static final String REMOTE_HOST_HEADER = "remoteHost";
+  public static final String REMOTE_PORT_HEADER = "remotePort";
+  public static final String REMOTE_ADDRESS_HEADER = "remoteAddress";
+  public static final String TRANSPORT_PROTOCOL_HEADER = "transportProtocol";
+  public static final String LOCAL_HOST_HEADER = "localHost";
+  public static final String LOCAL_PORT_HEADER = "localPort";
+  public static final String LOCAL_ADDRESS_HEADER = "localAddress";
+
+  public static final String HEADERS_MODE_CONFIG = "headers.mode";
+  public static final String HEADERS_ALLOWLIST_CONFIG = "headers.allowlist";
+
   public static final ConfigDef CONFIG_DEF = new ConfigDef()
       .define(CLOSE_ON_QUEUE_OVERFLOW_CONFIG, ConfigDef.Type.BOOLEAN, CLOSE_ON_QUEUE_OVERFLOW_DEFAULT, ConfigDef.Importance.LOW, "Close channel on queue reached filled threshold")
-      .define(QUEUE_FILLED_THRESHOLD_CONFIG, ConfigDef.Type.INT, QUEUE_FILLED_THRESHOLD_DEFAULT, ConfigDef.Importance.LOW, "Queue filled treshold in percent. default: 95");
+      .define(QUEUE_FILLED_THRESHOLD_CONFIG, ConfigDef.Type.INT, QUEUE_FILLED_THRESHOLD_DEFAULT, ConfigDef.Importance.LOW, "Queue filled treshold in percent. default: 95")
+      .define(ENVELOPE_MAX_FRAMES_CONFIG, ConfigDef.Type.INT, ENVELOPE_MAX_FRAMES_DEFAULT, ConfigDef.Importance.LOW, "max number of frames packed into one record. envelope mode is disabled if less than 2")
+      .define(ENVELOPE_MAX_BYTES_CONFIG, ConfigDef.Type.INT, ENVELOPE_MAX_BYTES_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, "max size of envelope payload in bytes")
+      .define(ENVELOPE_LINGER_MS_CONFIG, ConfigDef.Type.LONG, ENVELOPE_LINGER_MS_DEFAULT, ConfigDef.Range.atLeast(0), ConfigDef.Importance.LOW, "max time in millis the first frame waits in the envelope")
+      .define(ENVELOPE_FORMAT_CONFIG, ConfigDef.Type.STRING, ENVELOPE_FORMAT_DEFAULT, ConfigUtils.validEnum(EnvelopeFormat.class), ConfigDef.Importance.LOW, "NEWLINE, LENGTH_PREFIXED or ARRAY")
+      .define(HEADERS_MODE_CONFIG, ConfigDef.Type.STRING, null, ConfigDef.Importance.MEDIUM, "connection headers added to records: NONE, MINIMAL (remoteHost) or FULL. default depends on handler")
+      .define(HEADERS_ALLOWLIST_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.LOW, "if not empty, only listed headers of the mode are added");
 
   protected BlockingQueue<SourceRecord> recordQueue;
   protected String topic;
+  protected TopicRouter topicRouter;
   private boolean closeOnQueueOverflow = false;
   private int queueFilledThreshold = 95;
 
+  private int envelopeMaxFrames;
+  private int envelopeMaxBytes = ENVELOPE_MAX_BYTES_DEFAULT;
+  private long envelopeLingerMs;
+  private EnvelopeFormat envelopeFormat = EnvelopeFormat.NEWLINE;
+  private Timer timer;
+  private final Map<Object, Envelope> envelopes = new HashMap<>();
+  private boolean unpackableWarned;
+
+  private HeadersMode headersMode = defaultHeadersMode();
+  private Set<String> headersAllowlist = Collections.emptySet();
+  private volatile CachedHeaders cachedHeaders;
+
   @Override
   public void configure(Map<String, ?> configs) {
 
     SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
     closeOnQueueOverflow = conf.getBoolean(CLOSE_ON_QUEUE_OVERFLOW_CONFIG);
     queueFilledThreshold = conf.getInt(QUEUE_FILLED_THRESHOLD_CONFIG);
+    envelopeMaxFrames = conf.getInt(ENVELOPE_MAX_FRAMES_CONFIG);
+    envelopeMaxBytes = conf.getInt(ENVELOPE_MAX_BYTES_CONFIG);
+    envelopeLingerMs = conf.getLong(ENVELOPE_LINGER_MS_CONFIG);
+    envelopeFormat = ConfigUtils.getEnum(conf, ENVELOPE_FORMAT_CONFIG, EnvelopeFormat.class);
+    headersMode = conf.getString(HEADERS_MODE_CONFIG) == null ? defaultHeadersMode() : ConfigUtils.getEnum(conf, HEADERS_MODE_CONFIG, HeadersMode.class);
+    headersAllowlist = new HashSet<>(conf.getList(HEADERS_ALLOWLIST_CONFIG));
+  }
+
+  /**
+   * Headers mode used if {@code headers.mode} is not configured
+   */
+  protected HeadersMode defaultHeadersMode() {
+    return HeadersMode.FULL;
+  }
+
+  public boolean isEnvelopeEnabled() {
+    return envelopeMaxFrames > 1;
+  }
+
+  /**
+   * Timer to flush envelopes after linger time.
+   * If not set, envelope is flushed by the next frame or on channel close.
+   */
+  public void setTimer(Timer timer) {
+    this.timer = timer;
   }
 
   public void setTopic(String topic) {
@@ -67,6 +196,38 @@ public class SourceRecordHandler extends SimpleChannelUpstreamHandler implements
     this.recordQueue = queue;
   }
 
+  public void setTopicRouter(TopicRouter topicRouter) {
+    this.topicRouter = topicRouter;
+  }
+
+  /**
+   * Topic for the frame: routed by content and sender if routes are configured, otherwise {@link #topic}
+   */
+  protected String topicFor(ChannelHandlerContext ctx, MessageEvent e, Object value) {
+    if (topicRouter == null) {
+      return topic;
+    }
+    SocketAddress remoteAddr = e.getRemoteAddress();
+    if (remoteAddr == null) {
+      remoteAddr = ctx.getChannel().getRemoteAddress();
+    }
+    return topicRouter.route(value, remoteAddr, topic);
+  }
+
+  /**
+   * Routes already created record. Records with topic other than {@link #topic} (overridden) are not changed
+   */
+  protected SourceRecord route(SourceRecord rec, SocketAddress remoteAddr) {
+    if (topicRouter == null || topic == null || !topic.equals(rec.topic())) {
+      return rec;
+    }
+    String routed = topicRouter.route(rec.value(), remoteAddr, topic);
+    if (topic.equals(routed)) {
+      return rec;
+    }
+    return rec.newRecord(routed, rec.kafkaPartition(), rec.keySchema(), rec.key(), rec.valueSchema(), rec.value(), rec.timestamp(), rec.headers());
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
     if (e.getCause() instanceof QueueOverflowException) { //handle capacity overflow
@@ -76,6 +237,300 @@ public class SourceRecordHandler extends SimpleChannelUpstreamHandler implements
     ctx.sendUpstream(e);
   }
 
+  /**
+   * Connection headers for the message according to configured mode and allowlist.
+   * Headers are built once per channel and remote address: for tcp once per connection,
+   * for udp while datagrams come from the same sender.
+   *
+   * @param withLocal add transport protocol and local address headers in FULL mode
+   */
+  protected List<Header> connectionHeaders(ChannelHandlerContext ctx, MessageEvent e, boolean withLocal) {
+    if (headersMode == HeadersMode.NONE) {
+      return Collections.emptyList();
+    }
+
+    Channel channel = e.getChannel();
+    if (channel == null) {
+      channel = ctx.getChannel();
+    }
+    SocketAddress remoteAddr = e.getRemoteAddress();
+    if (remoteAddr == null && channel != null) {
+      remoteAddr = channel.getRemoteAddress();
+    }
+
+    CachedHeaders cached = cachedHeaders;
+    if (cached != null && cached.channel == channel && cached.withLocal == withLocal && Objects.equals(cached.remoteAddr, remoteAddr)) {
+      return cached.headers;
+    }
+
+    List<Header> headers = new ArrayList<>(7);
+    if (remoteAddr != null) {
+      if (remoteAddr instanceof InetSocketAddress) {
+        addHeader(headers, REMOTE_HOST_HEADER, Schema.STRING_SCHEMA, ((InetSocketAddress) remoteAddr).getHostString());
+        if (headersMode == HeadersMode.FULL) {
+          addHeader(headers, REMOTE_PORT_HEADER, Schema.INT32_SCHEMA, ((InetSocketAddress) remoteAddr).getPort());
+        }
+      }
+      if (headersMode == HeadersMode.FULL) {
+        addHeader(headers, REMOTE_ADDRESS_HEADER, Schema.STRING_SCHEMA, remoteAddr.toString());
+      }
+    }
+
+    if (headersMode == HeadersMode.FULL && withLocal && channel != null) {
+      addHeader(headers, TRANSPORT_PROTOCOL_HEADER, Schema.STRING_SCHEMA, transportProtocol(channel));
+
+      SocketAddress localAddr = channel.getLocalAddress();
+      if (localAddr != null) {
+        if (localAddr instanceof InetSocketAddress) {
+          addHeader(headers, LOCAL_HOST_HEADER, Schema.STRING_SCHEMA, ((InetSocketAddress) localAddr).getHostString());
+          addHeader(headers, LOCAL_PORT_HEADER, Schema.INT32_SCHEMA, ((InetSocketAddress) localAddr).getPort());
+        }
+        addHeader(headers, LOCAL_ADDRESS_HEADER, Schema.STRING_SCHEMA, localAddr.toString());
+      }
+    }
+
+    headers = Collections.unmodifiableList(headers);
+    cachedHeaders = new CachedHeaders(channel, remoteAddr, withLocal, headers);
+    return headers;
+  }
+
+  /**
+   * @return "tcp" for server and accepted socket channels, "udp" for datagram channels, null if channel is null
+   */
+  protected static String transportProtocol(Channel channel) {
+    if (channel == null) {
+      return null;
+    }
+    if (channel instanceof ServerSocketChannel || channel instanceof SocketChannel) {
+      return "tcp";
+    } else if (channel instanceof DatagramChannel) {
+      return "udp";
+    }
+    return channel.toString();
+  }
+
+  private void addHeader(List<Header> headers, String key, Schema schema, Object value) {
+    if (headersAllowlist.isEmpty() || headersAllowlist.contains(key)) {
+      // ConnectHeader is not public, ConnectHeaders creates it
+      headers.add(new ConnectHeaders().add(key, value, schema).lastWithName(key));
+    }
+  }
+
+  /**
+   * Adds connection headers to the record
+   */
+  protected void addConnectionHeaders(ChannelHandlerContext ctx, MessageEvent e, SourceRecord rec) {
+    for (Header h : connectionHeaders(ctx, e, true)) {
+      rec.headers().add(h);
+    }
+  }
+
+  /**
+   * Adds record to the queue. In envelope mode record is packed with other
+   * frames of the same sender (remote address or channel).
+   */
+  protected void enqueue(ChannelHandlerContext ctx, MessageEvent e, SourceRecord rec) {
+    if (!isEnvelopeEnabled()) {
+      recordQueue.add(rec);
+      checkQueueCapacity();
+      return;
+    }
+
+    Object value = rec.value();
+    if (envelopeFormat != EnvelopeFormat.ARRAY && !(value instanceof byte[]) && !(value instanceof String)) {
+      if (!unpackableWarned) {
+        unpackableWarned = true;
+        LOG.warn("{} envelope supports String and byte[] values only, {} is queued as is. Consider ARRAY format", envelopeFormat,
+            value == null ? null : value.getClass());
+      }
+      recordQueue.add(rec);
+      checkQueueCapacity();
+      return;
+    }
+
+    SocketAddress remoteAddr = e.getRemoteAddress();
+    Object sender = remoteAddr != null ? remoteAddr : ctx.getChannel();
+
+    List<SourceRecord> ready = new ArrayList<>(2);
+    synchronized (envelopes) {
+      Envelope env = envelopes.get(sender);
+      Object frame = envelopeFormat == EnvelopeFormat.ARRAY ? value : toBytes(value);
+      int frameSize = sizeOf(frame);
+
+      if (env != null && (env.bytes + frameSize > envelopeMaxBytes || !env.sameTarget(rec))) {
+        ready.add(close(env));
+        env = null;
+      }
+      if (env == null) {
+        env = new Envelope(sender, rec);
+        envelopes.put(sender, env);
+        if (timer != null && envelopeLingerMs > 0) {
+          env.timeout = timer.newTimeout(env, envelopeLingerMs, TimeUnit.MILLISECONDS);
+        }
+      }
+      env.add(frame, frameSize);
+
+      if (env.frames.size() >= envelopeMaxFrames || env.bytes >= envelopeMaxBytes
+          || (timer == null && System.currentTimeMillis() - env.created >= envelopeLingerMs)) {
+        ready.add(close(env));
+      }
+    }
+
+    for (SourceRecord r : ready) {
+      recordQueue.add(r);
+    }
+    if (!ready.isEmpty()) {
+      checkQueueCapacity();
+    }
+  }
+
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    flushEnvelopes();
+    super.channelClosed(ctx, e);
+  }
+
+  /**
+   * Queues all pending envelopes
+   */
+  protected void flushEnvelopes() {
+    List<SourceRecord> ready;
+    synchronized (envelopes) {
+      if (envelopes.isEmpty()) {
+        return;
+      }
+      ready = new ArrayList<>(envelopes.size());
+      for (Envelope env : new ArrayList<>(envelopes.values())) {
+        ready.add(close(env));
+      }
+    }
+    LOG.trace("Flushed {} pending envelopes", ready.size());
+    if (recordQueue != null) {
+      // request handlers check capacity and queue records under the same lock
+      synchronized (recordQueue) {
+        recordQueue.addAll(ready);
+      }
+    }
+  }
+
+  private SourceRecord close(Envelope env) {
+    envelopes.remove(env.sender);
+    if (env.timeout != null) {
+      env.timeout.cancel();
+      env.timeout = null;
+    }
+    return env.toRecord();
+  }
+
+  private static byte[] toBytes(Object value) {
+    return value instanceof byte[] ? (byte[]) value : ((String) value).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int sizeOf(Object frame) {
+    if (frame instanceof byte[]) {
+      return ((byte[]) frame).length;
+    }
+    if (frame instanceof String) {
+      return ((String) frame).length();
+    }
+    return 0;
+  }
+
+  /**
+   * Frames of one sender waiting to be packed into a record
+   */
+  private class Envelope implements TimerTask {
+
+    private final Object sender;
+    private final SourceRecord first;
+    private final List<Object> frames = new ArrayList<>();
+    private final long created = System.currentTimeMillis();
+    private int bytes;
+    private Timeout timeout;
+
+    Envelope(Object sender, SourceRecord first) {
+      this.sender = sender;
+      this.first = first;
+    }
+
+    /**
+     * Same topic and value schema: ARRAY envelope schema is built from the schema of the first frame
+     */
+    boolean sameTarget(SourceRecord rec) {
+      return Objects.equals(first.topic(), rec.topic()) && Objects.equals(first.valueSchema(), rec.valueSchema());
+    }
+
+    void add(Object frame, int size) {
+      if (envelopeFormat == EnvelopeFormat.LENGTH_PREFIXED) {
+        bytes += 4;
+      } else if (envelopeFormat == EnvelopeFormat.NEWLINE && !frames.isEmpty()) {
+        bytes++;
+      }
+      frames.add(frame);
+      bytes += size;
+    }
+
+    SourceRecord toRecord() {
+      Schema schema;
+      Object value;
+      if (envelopeFormat == EnvelopeFormat.ARRAY) {
+        schema = first.valueSchema() == null ? null : SchemaBuilder.array(first.valueSchema()).build();
+        value = frames;
+      } else {
+        ByteBuffer buf = ByteBuffer.allocate(bytes);
+        for (int i = 0; i < frames.size(); i++) {
+          byte[] b = (byte[]) frames.get(i);
+          if (envelopeFormat == EnvelopeFormat.LENGTH_PREFIXED) {
+            buf.putInt(b.length);
+          } else if (i > 0) {
+            buf.put((byte) '\n');
+          }
+          buf.put(b);
+        }
+        schema = Schema.BYTES_SCHEMA;
+        value = buf.array();
+      }
+      SourceRecord rec = new SourceRecord(first.sourcePartition(), first.sourceOffset(), first.topic(), first.kafkaPartition(),
+          first.keySchema(), first.key(), schema, value, first.timestamp(), first.headers());
+      rec.headers().addInt(ENVELOPE_COUNT_HEADER, frames.size());
+      return rec;
+    }
+
+    @Override
+    public void run(Timeout t) throws Exception {
+      SourceRecord rec;
+      synchronized (envelopes) {
+        if (timeout != t || envelopes.get(sender) != this) {
+          return;
+        }
+        timeout = null;
+        rec = close(this);
+      }
+      synchronized (recordQueue) {
+        recordQueue.add(rec);
+      }
+      try {
+        checkQueueCapacity();
+      } catch (QueueOverflowException e) {
+        LOG.warn("Queue overflow on envelope flush for {}", sender);
+      }
+    }
+  }
+
+  private static final class CachedHeaders {
+    private final Channel channel;
+    private final SocketAddress remoteAddr;
+    private final boolean withLocal;
+    private final List<Header> headers;
+
+    CachedHeaders(Channel channel, SocketAddress remoteAddr, boolean withLocal, List<Header> headers) {
+      this.channel = channel;
+      this.remoteAddr = remoteAddr;
+      this.withLocal = withLocal;
+      this.headers = headers;
+    }
+  }
+
   protected void checkQueueCapacity() {
     //check capacity: through exception if reached % of capacity
     int denominator = (100 / (100 - queueFilledThreshold));
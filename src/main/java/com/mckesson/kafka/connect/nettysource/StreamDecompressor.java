@@ -0,0 +1,444 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decompresses gzip or zlib stream of a connection, must be placed before the framer.
+ *
+ * Format is configured or detected from the magic bytes of the stream. zlib header is only two bytes
+ * and matches some plain text (e.g. {@code "HK"}), so a detected zlib stream is confirmed by inflating:
+ * if it fails before any output, the buffered bytes are passed as is. Concatenated
+ * gzip members are supported. Output is collected in a reused buffer and emitted in chunks
+ * of at most {@code chunkSize} bytes, every chunk is a copy as framers may keep received buffer
+ * as cumulation. Connection is closed if decompressed bytes exceed {@code maxBytes} or
+ * {@code maxRatio} times compressed bytes (decompression bomb).
+ * zstd and lz4-frame streams are detected but not supported: connection is closed.
+ */
+public class StreamDecompressor extends SimpleChannelUpstreamHandler {
+
+  private static final Logger log = LoggerFactory.getLogger(StreamDecompressor.class);
+
+  public enum Format {
+    /**
+     * detect from magic bytes, not compressed stream is passed as is
+     */
+    AUTO,
+    NONE,
+    GZIP,
+    ZLIB
+  }
+
+  public static final int CHUNK_SIZE_DEFAULT = 8192;
+  public static final long MAX_BYTES_DEFAULT = 0L;
+  public static final int MAX_RATIO_DEFAULT = 100;
+
+  /**
+   * ratio is checked only after this many decompressed bytes, small inputs may have high ratio
+   */
+  private static final long RATIO_MIN_BYTES = 1024 * 1024;
+
+  /**
+   * detected zlib stream is confirmed once this many bytes are inflated without output
+   */
+  private static final int PROBE_MAX_BYTES = 64 * 1024;
+
+  private static final int GZIP_MAGIC = 0x1f8b;
+  private static final int ZSTD_MAGIC = 0x28b52ffd;
+  private static final int LZ4_FRAME_MAGIC = 0x04224d18;
+
+  private static final int FHCRC = 0x02;
+  private static final int FEXTRA = 0x04;
+  private static final int FNAME = 0x08;
+  private static final int FCOMMENT = 0x10;
+
+  private enum State {
+    DETECT, GZIP_HEADER, INFLATE, GZIP_TRAILER, PASS_THROUGH, FAILED
+  }
+
+  private final Format format;
+  private final int chunkSize;
+  private final long maxBytes;
+  private final int maxRatio;
+
+  private State state;
+  private boolean gzip;
+  private Inflater inflater;
+  private final CRC32 crc = new CRC32();
+  private ChannelBuffer pending;
+  private byte[] out;
+  private int outLength;
+  private long totalIn;
+  private long totalOut;
+  // bytes of a detected zlib stream not confirmed yet, output is held until confirmed
+  private ChannelBuffer probe;
+  private List<ChannelBuffer> held;
+
+  public StreamDecompressor() {
+    this(Format.AUTO, CHUNK_SIZE_DEFAULT);
+  }
+
+  public StreamDecompressor(Format format, int chunkSize) {
+    this(format, chunkSize, MAX_BYTES_DEFAULT, MAX_RATIO_DEFAULT);
+  }
+
+  /**
+   * @param maxBytes max decompressed bytes per connection, 0 - unlimited
+   * @param maxRatio max ratio of decompressed to compressed bytes, 0 - unlimited
+   */
+  public StreamDecompressor(Format format, int chunkSize, long maxBytes, int maxRatio) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be a positive integer: " + chunkSize);
+    }
+    this.format = format == null ? Format.AUTO : format;
+    this.chunkSize = chunkSize;
+    this.maxBytes = maxBytes;
+    this.maxRatio = maxRatio;
+    this.state = initialState();
+  }
+
+  private State initialState() {
+    switch (format) {
+      case NONE:
+        return State.PASS_THROUGH;
+      case GZIP:
+        gzip = true;
+        return State.GZIP_HEADER;
+      case ZLIB:
+        gzip = false;
+        return State.INFLATE;
+      default:
+        return State.DETECT;
+    }
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object m = e.getMessage();
+    if (state == State.PASS_THROUGH || !(m instanceof ChannelBuffer)) {
+      ctx.sendUpstream(e);
+      return;
+    }
+    if (state == State.FAILED) {
+      return;
+    }
+
+    ChannelBuffer input = (ChannelBuffer) m;
+    totalIn += input.readableBytes();
+    if (probe != null) {
+      probe.writeBytes(input, input.readerIndex(), input.readableBytes());
+    }
+    if (pending == null) {
+      pending = ChannelBuffers.dynamicBuffer(Math.max(input.readableBytes(), 256));
+    }
+    pending.writeBytes(input);
+
+    try {
+      decode(ctx, e.getRemoteAddress());
+    } catch (DataFormatException ex) {
+      fail(ctx, "Invalid compressed stream: " + ex.getMessage());
+    }
+
+    if (pending != null) {
+      if (pending.readable()) {
+        pending.discardReadBytes();
+      } else {
+        pending.clear();
+      }
+    }
+  }
+
+  private void decode(ChannelHandlerContext ctx, SocketAddress remoteAddr) throws DataFormatException {
+    while (pending != null && pending.readable()) {
+      switch (state) {
+        case DETECT:
+          if (!detect(ctx, remoteAddr)) {
+            return;
+          }
+          break;
+        case GZIP_HEADER:
+          if (!readGzipHeader()) {
+            return;
+          }
+          state = State.INFLATE;
+          break;
+        case INFLATE:
+          boolean finished;
+          if (probe != null) {
+            try {
+              finished = inflate(ctx, remoteAddr);
+            } catch (DataFormatException ex) {
+              passThrough(ctx, remoteAddr, ex.getMessage());
+              return;
+            }
+            if (probe != null && (finished || totalOut > 0 || probe.readableBytes() > PROBE_MAX_BYTES)) {
+              confirm(ctx, remoteAddr);
+            }
+          } else {
+            finished = inflate(ctx, remoteAddr);
+          }
+          if (!finished) {
+            return;
+          }
+          state = gzip ? State.GZIP_TRAILER : initialState();
+          break;
+        case GZIP_TRAILER:
+          if (pending.readableBytes() < 8) {
+            return;
+          }
+          long expectedCrc = Integer.reverseBytes(pending.readInt()) & 0xffffffffL;
+          pending.skipBytes(4); // ISIZE
+          if (expectedCrc != crc.getValue()) {
+            throw new DataFormatException("gzip CRC mismatch");
+          }
+          // next member may follow
+          state = State.GZIP_HEADER;
+          break;
+        default:
+          return;
+      }
+    }
+  }
+
+  private boolean detect(ChannelHandlerContext ctx, SocketAddress remoteAddr) {
+    int readable = pending.readableBytes();
+    int idx = pending.readerIndex();
+    if (readable >= 2 && pending.getUnsignedShort(idx) == GZIP_MAGIC) {
+      log.debug("gzip stream detected from {}", remoteAddr);
+      gzip = true;
+      state = State.GZIP_HEADER;
+      return true;
+    }
+    if (readable >= 2 && isZlibHeader(pending.getUnsignedByte(idx), pending.getUnsignedByte(idx + 1))) {
+      log.debug("zlib stream detected from {}", remoteAddr);
+      gzip = false;
+      state = State.INFLATE;
+      probe = ChannelBuffers.dynamicBuffer(Math.max(readable, 256));
+      probe.writeBytes(pending, idx, readable);
+      held = new ArrayList<>();
+      return true;
+    }
+    if (readable < 4) {
+      return false;
+    }
+    int magic = pending.getInt(idx);
+    if (magic == ZSTD_MAGIC || magic == LZ4_FRAME_MAGIC) {
+      fail(ctx, (magic == ZSTD_MAGIC ? "zstd" : "lz4") + " stream is not supported");
+      return false;
+    }
+
+    log.debug("Not compressed stream from {}", remoteAddr);
+    state = State.PASS_THROUGH;
+    ChannelBuffer data = pending;
+    pending = null;
+    Channels.fireMessageReceived(ctx, data, remoteAddr);
+    return false;
+  }
+
+  /**
+   * Detected zlib stream is inflated, held output is emitted
+   */
+  private void confirm(ChannelHandlerContext ctx, SocketAddress remoteAddr) {
+    List<ChannelBuffer> chunks = held;
+    probe = null;
+    held = null;
+    for (ChannelBuffer chunk : chunks) {
+      Channels.fireMessageReceived(ctx, chunk, remoteAddr);
+    }
+  }
+
+  /**
+   * Detected zlib header was plain text, bytes received so far are passed as is
+   */
+  private void passThrough(ChannelHandlerContext ctx, SocketAddress remoteAddr, String reason) {
+    log.debug("Not compressed stream from {} ({})", remoteAddr, reason);
+    ChannelBuffer data = probe;
+    probe = null;
+    held = null;
+    pending = null;
+    outLength = 0;
+    totalOut = 0;
+    inflater.end();
+    inflater = null;
+    state = State.PASS_THROUGH;
+    Channels.fireMessageReceived(ctx, data, remoteAddr);
+  }
+
+  private static boolean isZlibHeader(int cmf, int flg) {
+    return (cmf & 0x0f) == 8 && (cmf >> 4) <= 7 && (flg & 0x20) == 0 && ((cmf << 8) | flg) % 31 == 0;
+  }
+
+  /**
+   * @return false if more bytes required
+   */
+  private boolean readGzipHeader() throws DataFormatException {
+    int idx = pending.readerIndex();
+    int end = pending.writerIndex();
+    if (end - idx < 10) {
+      return false;
+    }
+    if (pending.getUnsignedShort(idx) != GZIP_MAGIC || pending.getUnsignedByte(idx + 2) != 8) {
+      throw new DataFormatException("Not in gzip format");
+    }
+    int flags = pending.getUnsignedByte(idx + 3);
+    int pos = idx + 10;
+    if ((flags & FEXTRA) != 0) {
+      if (end - pos < 2) {
+        return false;
+      }
+      pos += 2 + (pending.getUnsignedByte(pos) | (pending.getUnsignedByte(pos + 1) << 8));
+    }
+    if ((flags & FNAME) != 0) {
+      pos = skipZeroTerminated(pos, end);
+    }
+    if ((flags & FCOMMENT) != 0 && pos >= 0) {
+      pos = skipZeroTerminated(pos, end);
+    }
+    if ((flags & FHCRC) != 0 && pos >= 0) {
+      pos += 2;
+    }
+    if (pos < 0 || pos > end) {
+      return false;
+    }
+    pending.readerIndex(pos);
+    crc.reset();
+    resetInflater(true);
+    return true;
+  }
+
+  private int skipZeroTerminated(int pos, int end) {
+    if (pos >= end) {
+      return -1;
+    }
+    int zero = pending.indexOf(pos, end, (byte) 0);
+    return zero < 0 ? -1 : zero + 1;
+  }
+
+  private void resetInflater(boolean nowrap) {
+    if (inflater != null) {
+      inflater.end();
+    }
+    inflater = new Inflater(nowrap);
+  }
+
+  /**
+   * @return true if compressed stream is finished
+   */
+  private boolean inflate(ChannelHandlerContext ctx, SocketAddress remoteAddr) throws DataFormatException {
+    if (inflater == null || (!gzip && inflater.finished())) {
+      resetInflater(false);
+    }
+    int len = pending.readableBytes();
+    inflater.setInput(pending.array(), pending.arrayOffset() + pending.readerIndex(), len);
+    if (out == null) {
+      out = new byte[chunkSize];
+    }
+    try {
+      while (true) {
+        int n = inflater.inflate(out, outLength, chunkSize - outLength);
+        if (n > 0) {
+          if (gzip) {
+            crc.update(out, outLength, n);
+          }
+          outLength += n;
+          totalOut += n;
+          if (tooLarge()) {
+            fail(ctx, "Decompressed stream is too large (" + totalOut + " bytes from " + totalIn + ")");
+            return false;
+          }
+        }
+        boolean finished = inflater.finished();
+        // emit full chunk, or what is collected when input is exhausted
+        if (outLength == chunkSize || (outLength > 0 && (finished || n == 0))) {
+          ChannelBuffer chunk = ChannelBuffers.copiedBuffer(out, 0, outLength);
+          outLength = 0;
+          if (held != null) {
+            held.add(chunk);
+          } else {
+            Channels.fireMessageReceived(ctx, chunk, remoteAddr);
+          }
+        }
+        if (finished) {
+          return true;
+        }
+        if (inflater.needsDictionary()) {
+          throw new DataFormatException("Preset dictionary is not supported");
+        }
+        if (n == 0) {
+          // needs input
+          return false;
+        }
+      }
+    } finally {
+      if (pending != null) {
+        pending.skipBytes(len - inflater.getRemaining());
+      }
+    }
+  }
+
+  private boolean tooLarge() {
+    return (maxBytes > 0 && totalOut > maxBytes)
+        || (maxRatio > 0 && totalOut > RATIO_MIN_BYTES && totalOut > totalIn * maxRatio);
+  }
+
+  private void fail(ChannelHandlerContext ctx, String reason) {
+    log.warn("{} from {}, closing connection", reason, ctx.getChannel().getRemoteAddress());
+    state = State.FAILED;
+    pending = null;
+    probe = null;
+    held = null;
+    ctx.getChannel().close();
+  }
+
+  @Override
+  public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+    if (state == State.INFLATE || state == State.GZIP_HEADER && pending != null && pending.readable()) {
+      log.debug("Connection closed in the middle of compressed stream");
+    }
+    if (totalIn > 0 && totalOut > 0) {
+      log.debug("Decompressed {} bytes to {} bytes", totalIn, totalOut);
+    }
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+    if (probe != null && probe.readable()) {
+      // zlib header without any inflated output
+      log.debug("Not compressed stream from {}", ctx.getChannel().getRemoteAddress());
+      Channels.fireMessageReceived(ctx, probe, ctx.getChannel().getRemoteAddress());
+    }
+    pending = null;
+    probe = null;
+    super.channelClosed(ctx, e);
+  }
+
+}
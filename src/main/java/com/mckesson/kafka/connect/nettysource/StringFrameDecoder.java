@@ -0,0 +1,229 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fused {@link DelimeterOrMaxLengthFrameDecoder} and {@link org.jboss.netty.handler.codec.string.StringDecoder}.
+ *
+ * Frames are detected and checked for non-ASCII bytes in one pass and decoded to String
+ * directly from the cumulation buffer: pure ASCII frames are built as ISO-8859-1 strings
+ * (no CharsetDecoder involved), full charset decoding is used only when high bytes appear
+ * or the charset is not ASCII compatible.
+ *
+ * A frame without delimiter within {@code maxFrameLength} is truncated to {@code maxFrameLength},
+ * or discarded up to the next delimiter with {@link TooLongFrameException} if {@code failFast} is set.
+ */
+public class StringFrameDecoder extends FrameDecoder {
+
+  private static final Logger log = LoggerFactory.getLogger(StringFrameDecoder.class);
+
+  private final byte[][] delimiters;
+  private final int maxDelimiterLength;
+  private final int maxFrameLength;
+  private final boolean stripDelimiter;
+  private final boolean failFast;
+  private final Charset charset;
+
+  // scan state of incomplete frame
+  private int scannedBytes;
+  private int highBits;
+  // too long frame is discarded up to the next delimiter
+  private boolean discarding;
+
+  /**
+   * Frames are decoded with the platform default charset, as {@link org.jboss.netty.handler.codec.string.StringDecoder} does
+   */
+  public StringFrameDecoder(int maxFrameLength, boolean stripDelimiter, boolean failFast, ChannelBuffer... delimiters) {
+    this(maxFrameLength, stripDelimiter, failFast, Charset.defaultCharset(), delimiters);
+  }
+
+  public StringFrameDecoder(int maxFrameLength, boolean stripDelimiter, boolean failFast, Charset charset, ChannelBuffer... delimiters) {
+    if (maxFrameLength <= 0) {
+      throw new IllegalArgumentException("maxFrameLength must be a positive integer: " + maxFrameLength);
+    }
+    if (delimiters == null || delimiters.length == 0) {
+      throw new IllegalArgumentException("empty delimiters");
+    }
+    this.delimiters = new byte[delimiters.length][];
+    int maxDlLength = 0;
+    for (int i = 0; i < delimiters.length; i++) {
+      ChannelBuffer d = delimiters[i];
+      if (d == null || !d.readable()) {
+        throw new IllegalArgumentException("empty delimiter");
+      }
+      this.delimiters[i] = new byte[d.readableBytes()];
+      d.getBytes(d.readerIndex(), this.delimiters[i]);
+      maxDlLength = Math.max(maxDlLength, this.delimiters[i].length);
+    }
+    this.maxDelimiterLength = maxDlLength;
+    this.maxFrameLength = maxFrameLength;
+    this.stripDelimiter = stripDelimiter;
+    this.failFast = failFast;
+    this.charset = charset == null ? Charset.defaultCharset() : charset;
+  }
+
+  @Override
+  protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+
+    if (discarding && !discardToDelimiter(buffer)) {
+      return null;
+    }
+
+    final int readerIndex = buffer.readerIndex();
+    // delimiter may start at maxFrameLength at most
+    final int scanEnd = readerIndex + Math.min(buffer.readableBytes(), maxFrameLength + 1);
+    int i = readerIndex + Math.max(0, scannedBytes - maxDelimiterLength + 1);
+    int bits = highBits;
+
+    while (i < scanEnd) {
+      byte b = buffer.getByte(i);
+      for (byte[] dl : delimiters) {
+        if (b == dl[0] && matches(buffer, i, dl)) {
+          int frameLength = i - readerIndex;
+          String frame;
+          if (stripDelimiter) {
+            frame = decodeString(buffer, readerIndex, frameLength, bits, charset);
+            buffer.skipBytes(frameLength + dl.length);
+          } else {
+            frame = decodeString(buffer, readerIndex, frameLength + dl.length, bits | orBytes(dl), charset);
+            buffer.skipBytes(frameLength + dl.length);
+          }
+          scannedBytes = 0;
+          highBits = 0;
+          return frame;
+        }
+      }
+      bits |= b;
+      i++;
+    }
+
+    if (buffer.readableBytes() > maxFrameLength) {
+      scannedBytes = 0;
+      highBits = 0;
+      if (failFast) {
+        buffer.skipBytes(maxFrameLength);
+        discarding = true;
+        discardToDelimiter(buffer);
+        throw new TooLongFrameException("frame length exceeds " + maxFrameLength + " - discarded");
+      }
+      log.warn("Frame was not detected withing configured  maxFramelength {}", maxFrameLength);
+      String frame = decodeString(buffer, readerIndex, maxFrameLength, bits, charset);
+      buffer.skipBytes(maxFrameLength);
+      scannedBytes = 0;
+      highBits = 0;
+      return frame;
+    }
+
+    // frame is incomplete, remember what was scanned
+    scannedBytes = i - readerIndex;
+    highBits = bits;
+    return null;
+  }
+
+  /**
+   * Skips bytes up to and including the next delimiter.
+   *
+   * @return true if delimiter was found
+   */
+  private boolean discardToDelimiter(ChannelBuffer buffer) {
+    final int end = buffer.writerIndex();
+    for (int i = buffer.readerIndex(); i < end; i++) {
+      byte b = buffer.getByte(i);
+      for (byte[] dl : delimiters) {
+        if (b == dl[0] && matches(buffer, i, dl)) {
+          buffer.readerIndex(i + dl.length);
+          discarding = false;
+          return true;
+        }
+      }
+    }
+    // keep a possible delimiter prefix
+    buffer.readerIndex(Math.max(buffer.readerIndex(), end - maxDelimiterLength + 1));
+    return false;
+  }
+
+  private static boolean matches(ChannelBuffer buffer, int index, byte[] delimiter) {
+    if (index + delimiter.length > buffer.writerIndex()) {
+      return false;
+    }
+    for (int j = 1; j < delimiter.length; j++) {
+      if (buffer.getByte(index + j) != delimiter[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int orBytes(byte[] bytes) {
+    int bits = 0;
+    for (byte b : bytes) {
+      bits |= b;
+    }
+    return bits;
+  }
+
+  /**
+   * Decodes bytes to String, ASCII bytes are decoded as ISO-8859-1.
+   */
+  public static String decodeString(ChannelBuffer buffer, int index, int length, Charset charset) {
+    int bits = 0;
+    if (buffer.hasArray()) {
+      byte[] array = buffer.array();
+      int offset = buffer.arrayOffset() + index;
+      for (int i = offset; i < offset + length; i++) {
+        bits |= array[i];
+      }
+    } else {
+      for (int i = index; i < index + length; i++) {
+        bits |= buffer.getByte(i);
+      }
+    }
+    return decodeString(buffer, index, length, bits, charset);
+  }
+
+  /**
+   * @param bits OR of all bytes, negative if there is at least one byte &gt; 0x7F
+   */
+  private static String decodeString(ChannelBuffer buffer, int index, int length, int bits, Charset charset) {
+    Charset cs = (bits & 0x80) == 0 && isAsciiCompatible(charset) ? StandardCharsets.ISO_8859_1 : charset;
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + index, length, cs);
+    }
+    byte[] bytes = new byte[length];
+    buffer.getBytes(index, bytes);
+    return new String(bytes, cs);
+  }
+
+  /**
+   * @return true if ASCII bytes decode to the same chars as with ISO-8859-1
+   */
+  private static boolean isAsciiCompatible(Charset charset) {
+    String name = charset.name();
+    return "UTF-8".equals(name) || "US-ASCII".equals(name) || name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+  }
+
+}
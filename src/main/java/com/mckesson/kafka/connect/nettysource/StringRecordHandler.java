@@ -15,20 +15,13 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
-import java.net.InetSocketAddress;
-import java.net.SocketAddress;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.kafka.connect.data.Schema;
-import org.apache.kafka.connect.data.SchemaAndValue;
 import org.apache.kafka.connect.source.SourceRecord;
-import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
-import org.jboss.netty.channel.socket.DatagramChannel;
-import org.jboss.netty.channel.socket.ServerSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,53 +55,10 @@ public class StringRecordHandler extends SourceRecordHandler {
       throw new IllegalStateException("recordQueue is not configured");
     }
 
-    SourceRecord srcRec = new SourceRecord(sourcePartition, sourceOffset, topic, null, msg);
+    SourceRecord srcRec = new SourceRecord(sourcePartition, sourceOffset, topicFor(ctx, e, msg), null, msg);
 
-    //add remoteAddr to headers
-    SocketAddress remoteAddr = e.getRemoteAddress();
-    if (remoteAddr == null) {
-      remoteAddr = e.getChannel().getRemoteAddress();
-    }
-    if (remoteAddr == null) {
-      remoteAddr = ctx.getChannel().getRemoteAddress();
-    }
-    if (remoteAddr != null) {
-      if (remoteAddr instanceof InetSocketAddress) {
-        srcRec.headers().add("remoteHost", new SchemaAndValue(Schema.STRING_SCHEMA, ((InetSocketAddress) remoteAddr).getHostString()));
-        srcRec.headers().add("remotePort", new SchemaAndValue(Schema.INT32_SCHEMA, ((InetSocketAddress) remoteAddr).getPort()));
-      }
-      srcRec.headers().add("remoteAddress", new SchemaAndValue(Schema.STRING_SCHEMA, remoteAddr.toString()));
-    }
-
-    //add 'transportProtocol' header
-    Channel channel = e.getChannel();
-    if (channel == null) {
-      channel = ctx.getChannel();
-    }
-    if (channel != null) {
-
-      if (channel instanceof ServerSocketChannel) {
-        srcRec.headers().add("transportProtocol", new SchemaAndValue(Schema.STRING_SCHEMA, "tcp"));
-      } else if (channel instanceof DatagramChannel) {
-        srcRec.headers().add("transportProtocol", new SchemaAndValue(Schema.STRING_SCHEMA, "udp"));
-      } else {
-        srcRec.headers().add("transportProtocol", new SchemaAndValue(Schema.STRING_SCHEMA, channel.toString()));
-      }
-    }
-
-    SocketAddress localAddr = e.getChannel().getLocalAddress();
-    if (localAddr == null) {
-      localAddr = ctx.getChannel().getLocalAddress();
-    }
-    if (localAddr != null) {
-      if (localAddr instanceof InetSocketAddress) {
-        srcRec.headers().add("localHost", new SchemaAndValue(Schema.STRING_SCHEMA, ((InetSocketAddress) localAddr).getHostString()));
-        srcRec.headers().add("localPort", new SchemaAndValue(Schema.INT32_SCHEMA, ((InetSocketAddress) localAddr).getPort()));
-      }
-      srcRec.headers().add("localAddress", new SchemaAndValue(Schema.STRING_SCHEMA, localAddr.toString()));
-    }
-    recordQueue.add(srcRec);
-    checkQueueCapacity();
+    addConnectionHeaders(ctx, e, srcRec);
+    enqueue(ctx, e, srcRec);
 
   }
 
@@ -0,0 +1,319 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mckesson.kafka.connect.nettysource.utils.JsonStreamUtils;
+import com.mckesson.kafka.connect.utils.ConfigUtils;
+
+/**
+ * Parses {@code key=value} or JSON object lines into a {@link Struct}.
+ *
+ * Fields are optional and sorted by name. Schema is inferred from field names and types
+ * and cached by that signature, so lines of the same shape share one {@link Schema} instance.
+ * The cache is kept per handler (handler is not shared, so it's per connection) and evicts least recently used schemas.
+ * JSON numbers, booleans and strings keep their types, nested objects and arrays are kept as JSON text.
+ * Lines that can't be parsed are emitted as strings.
+ * Fields extracted by {@link GrokHandler} are routed by the matched line, other maps by sender only.
+ */
+public class StructuredLineRecordHandler extends SourceRecordHandler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StructuredLineRecordHandler.class);
+
+  public enum LineFormat {
+    /**
+     * JSON if line starts with '{', key=value otherwise
+     */
+    AUTO,
+    JSON,
+    KV
+  }
+
+  public static final String FORMAT_CONFIG = "format";
+  public static final String FORMAT_DEFAULT = LineFormat.AUTO.name();
+
+  public static final String INFER_TYPES_CONFIG = "inferTypes";
+  public static final Boolean INFER_TYPES_DEFAULT = Boolean.FALSE;
+
+  public static final String MAX_SCHEMAS_CONFIG = "maxSchemas";
+  public static final int MAX_SCHEMAS_DEFAULT = 1000;
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(FORMAT_CONFIG, ConfigDef.Type.STRING, FORMAT_DEFAULT, ConfigUtils.validEnum(LineFormat.class), ConfigDef.Importance.MEDIUM, "AUTO, JSON or KV")
+      .define(INFER_TYPES_CONFIG, ConfigDef.Type.BOOLEAN, INFER_TYPES_DEFAULT, ConfigDef.Importance.LOW, "key=value: convert numbers and booleans, all values are strings otherwise")
+      .define(MAX_SCHEMAS_CONFIG, ConfigDef.Type.INT, MAX_SCHEMAS_DEFAULT, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW, "max number of cached schemas");
+
+  private LineFormat format = LineFormat.AUTO;
+  private boolean inferTypes = INFER_TYPES_DEFAULT;
+  private int maxSchemas = MAX_SCHEMAS_DEFAULT;
+
+  private final StringBuilder signature = new StringBuilder();
+  private final Map<String, Schema> schemas = new LinkedHashMap<String, Schema>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Schema> eldest) {
+      return size() > maxSchemas;
+    }
+  };
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    super.configure(configs);
+    SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
+    this.format = ConfigUtils.getEnum(conf, FORMAT_CONFIG, LineFormat.class);
+    this.inferTypes = conf.getBoolean(INFER_TYPES_CONFIG);
+    this.maxSchemas = conf.getInt(MAX_SCHEMAS_CONFIG);
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object msg = e.getMessage();
+    if (msg instanceof Map) {
+      // fields extracted by GrokHandler
+      TreeMap<String, Object> fields = new TreeMap<>();
+      for (Map.Entry<?, ?> f : ((Map<?, ?>) msg).entrySet()) {
+        fields.put(f.getKey().toString(), f.getValue());
+      }
+      // routed by the original line, other maps by sender only
+      Object routingValue = msg instanceof GrokHandler.Fields ? ((GrokHandler.Fields) msg).getLine() : null;
+      emit(ctx, e, routingValue, fields, true);
+      return;
+    }
+    String line;
+    if (msg instanceof String) {
+      line = (String) msg;
+    } else if (msg instanceof ChannelBuffer) {
+      line = ((ChannelBuffer) msg).toString(StandardCharsets.UTF_8);
+    } else {
+      ctx.sendUpstream(e);
+      return;
+    }
+    if (StringUtils.isBlank(line)) {
+      return;
+    }
+
+    TreeMap<String, Object> fields = new TreeMap<>();
+    boolean json = format == LineFormat.JSON || (format == LineFormat.AUTO && line.trim().startsWith("{"));
+    boolean parsed = json ? parseJson(line, fields) : parseKv(line, fields);
+    emit(ctx, e, line, fields, parsed);
+  }
+
+  private void emit(ChannelHandlerContext ctx, MessageEvent e, Object line, TreeMap<String, Object> fields, boolean parsed) {
+
+    Map<String, ?> sourcePartition = Collections.emptyMap();
+    Map<String, ?> sourceOffset = Collections.emptyMap();
+    SourceRecord srcRec;
+    if (parsed && !fields.isEmpty()) {
+      Schema schema = schemaFor(fields);
+      Struct value = new Struct(schema);
+      for (Map.Entry<String, Object> f : fields.entrySet()) {
+        value.put(f.getKey(), f.getValue());
+      }
+      srcRec = new SourceRecord(sourcePartition, sourceOffset, topicFor(ctx, e, line), null, null, null, schema, value);
+    } else {
+      LOG.trace("Unstructured line from {}", e.getRemoteAddress());
+      srcRec = new SourceRecord(sourcePartition, sourceOffset, topicFor(ctx, e, line), null, line);
+    }
+
+    addConnectionHeaders(ctx, e, srcRec);
+    enqueue(ctx, e, srcRec);
+  }
+
+  private Schema schemaFor(TreeMap<String, Object> fields) {
+    StringBuilder sig = this.signature;
+    sig.setLength(0);
+    for (Map.Entry<String, Object> f : fields.entrySet()) {
+      sig.append(f.getKey()).append('\u0000').append(typeOf(f.getValue()).ordinal()).append('\u0001');
+    }
+    String key = sig.toString();
+    Schema schema = schemas.get(key);
+    if (schema != null) {
+      return schema;
+    }
+
+    SchemaBuilder builder = SchemaBuilder.struct();
+    for (Map.Entry<String, Object> f : fields.entrySet()) {
+      builder.field(f.getKey(), SchemaBuilder.type(typeOf(f.getValue())).optional().build());
+    }
+    schema = builder.build();
+    schemas.put(key, schema);
+    LOG.trace("Cached schema {} of {}: {}", schemas.size(), maxSchemas, fields.keySet());
+    return schema;
+  }
+
+  private static Schema.Type typeOf(Object value) {
+    if (value instanceof Long) {
+      return Schema.Type.INT64;
+    }
+    if (value instanceof Double) {
+      return Schema.Type.FLOAT64;
+    }
+    if (value instanceof Boolean) {
+      return Schema.Type.BOOLEAN;
+    }
+    return Schema.Type.STRING;
+  }
+
+  /**
+   * @return false if line is not a JSON object
+   */
+  private boolean parseJson(String line, Map<String, Object> fields) {
+    try (JsonParser p = JsonStreamUtils.JSON_FACTORY.createParser(line)) {
+      if (p.nextToken() != JsonToken.START_OBJECT) {
+        return false;
+      }
+      JsonToken t;
+      while ((t = p.nextToken()) == JsonToken.FIELD_NAME) {
+        String name = p.getCurrentName();
+        t = p.nextToken();
+        Object value;
+        switch (t) {
+          case VALUE_STRING:
+            value = p.getText();
+            break;
+          case VALUE_NUMBER_INT:
+            value = p.getNumberType() == JsonParser.NumberType.BIG_INTEGER ? p.getText() : p.getLongValue();
+            break;
+          case VALUE_NUMBER_FLOAT:
+            value = p.getDoubleValue();
+            break;
+          case VALUE_TRUE:
+          case VALUE_FALSE:
+            value = p.getBooleanValue();
+            break;
+          case START_OBJECT:
+          case START_ARRAY:
+            int start = (int) p.getTokenLocation().getCharOffset();
+            p.skipChildren();
+            value = line.substring(start, (int) p.getTokenLocation().getCharOffset() + 1);
+            break;
+          default:
+            value = null;
+        }
+        fields.put(name, value);
+      }
+      return t == JsonToken.END_OBJECT;
+    } catch (IOException ex) {
+      LOG.trace("Failed to parse JSON line", ex);
+      return false;
+    }
+  }
+
+  /**
+   * Space separated {@code key=value}, value may be double-quoted with {@code \"} and {@code \\} escapes.
+   * Tokens without '=' are skipped.
+   */
+  private boolean parseKv(String line, Map<String, Object> fields) {
+    int n = line.length();
+    int i = 0;
+    while (i < n) {
+      while (i < n && Character.isWhitespace(line.charAt(i))) {
+        i++;
+      }
+      int keyStart = i;
+      while (i < n && line.charAt(i) != '=' && !Character.isWhitespace(line.charAt(i))) {
+        i++;
+      }
+      if (i >= n || line.charAt(i) != '=' || i == keyStart) {
+        while (i < n && !Character.isWhitespace(line.charAt(i))) {
+          i++;
+        }
+        continue;
+      }
+      String key = line.substring(keyStart, i);
+      i++;
+
+      if (i < n && line.charAt(i) == '"') {
+        StringBuilder sb = null;
+        int valueStart = ++i;
+        while (i < n && line.charAt(i) != '"') {
+          if (line.charAt(i) == '\\' && i + 1 < n) {
+            if (sb == null) {
+              sb = new StringBuilder();
+            }
+            sb.append(line, valueStart, i);
+            valueStart = ++i;
+          }
+          i++;
+        }
+        String value = sb == null ? line.substring(valueStart, i) : sb.append(line, valueStart, i).toString();
+        fields.put(key, value);
+        i++;
+      } else {
+        int valueStart = i;
+        while (i < n && !Character.isWhitespace(line.charAt(i))) {
+          i++;
+        }
+        String value = line.substring(valueStart, i);
+        fields.put(key, inferTypes ? infer(value) : value);
+      }
+    }
+    return !fields.isEmpty();
+  }
+
+  private static Object infer(String value) {
+    if ("true".equals(value)) {
+      return Boolean.TRUE;
+    }
+    if ("false".equals(value)) {
+      return Boolean.FALSE;
+    }
+    int n = value.length();
+    if (n == 0 || n > 18) {
+      return value;
+    }
+    int i = value.charAt(0) == '-' ? 1 : 0;
+    int digits = 0;
+    int dots = 0;
+    for (; i < n; i++) {
+      char c = value.charAt(i);
+      if (c >= '0' && c <= '9') {
+        digits++;
+      } else if (c == '.') {
+        dots++;
+      } else {
+        return value;
+      }
+    }
+    if (digits == 0 || dots > 1) {
+      return value;
+    }
+    return dots == 0 ? (Object) Long.parseLong(value) : (Object) Double.parseDouble(value);
+  }
+
+}
@@ -17,14 +17,9 @@ package com.mckesson.kafka.connect.nettysource;
 
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.util.Calendar;
 import java.util.Date;
-import java.util.Locale;
+
+import com.mckesson.kafka.connect.utils.DateTimeUtils;
 
 public class SyslogEvent {
   private static final long serialVersionUID = 6136043067089899962L;
@@ -83,37 +78,26 @@ public class SyslogEvent {
 
   protected void parseDate() {
     int datelength = 16;
-    String dateFormatS = DATE_FORMAT;
-    boolean isDate8601 = false;
 
     if (this.message.length() > datelength) {
 
       // http://jira.graylog2.org/browse/SERVER-287
       if (this.message.charAt(5) == ' ') {
         datelength = 15;
-        dateFormatS = DATE_FORMAT_S;
       }
 
+      long millis;
       if (Character.isDigit(this.message.charAt(0))) {
         datelength = this.message.indexOf(' ') + 1;
-        isDate8601 = true;
+        millis = datelength > 0 ? DateTimeUtils.parseIso8601Millis(this.message.subSequence(0, datelength - 1)) : DateTimeUtils.NO_TIMESTAMP;
+      } else {
+        millis = DateTimeUtils.parseRfc3164Millis(this.message.subSequence(0, datelength - 1));
       }
 
-      String year = Integer.toString(Calendar.getInstance().get(Calendar.YEAR));
-      String originalDate = this.message.substring(0, datelength - 1);
-      String modifiedDate = originalDate + " " + year;
-
-      DateFormat dateFormat = new SimpleDateFormat(dateFormatS, Locale.ENGLISH);
-      try {
-        if (!isDate8601) {
-          this.date = dateFormat.parse(modifiedDate);
-        } else {
-          this.date = Date.from(LocalDateTime.parse(originalDate).toInstant(ZoneOffset.UTC));
-        }
-
+      if (millis != DateTimeUtils.NO_TIMESTAMP) {
+        this.date = new Date(millis);
         this.message = this.message.substring(datelength);
-
-      } catch (ParseException pe) {
+      } else {
         this.date = new Date();
       }
     }
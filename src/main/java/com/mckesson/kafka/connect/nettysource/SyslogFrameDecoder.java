@@ -0,0 +1,310 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Syslog framer for stream transports (RFC 6587, RFC 5425).
+ *
+ * In {@code AUTO} mode framing is detected once per connection, on its first frame:
+ * {@code MSG-LEN SP <} selects octet counting, anything else non-transparent framing
+ * by the configured delimiters. The connection keeps the detected framing.
+ * Leading CR, LF and NUL bytes between frames are skipped, CR before LF is stripped
+ * with the delimiter. Too long frames are truncated, or dropped with
+ * {@link TooLongFrameException} if {@code failFast} is set.
+ */
+public class SyslogFrameDecoder extends FrameDecoder {
+
+  private static final Logger log = LoggerFactory.getLogger(SyslogFrameDecoder.class);
+
+  public enum Framing {
+    AUTO, OCTET_COUNTING, NON_TRANSPARENT
+  }
+
+  /**
+   * max number of digits in MSG-LEN
+   */
+  private static final int MAX_LENGTH_DIGITS = 10;
+
+  private static final ChannelBuffer[] DEFAULT_DELIMITERS = new ChannelBuffer[] {ChannelBuffers.wrappedBuffer(new byte[] {'\n'})};
+
+  private final int maxFrameLength;
+  private final boolean stripDelimiter;
+  private final boolean failFast;
+  private final Framing framing;
+  private final ChannelBuffer[] delimiters;
+
+  // framing of the connection, null until detected in AUTO mode
+  private Framing detected;
+  // MSG-LEN of the last header found by headerLength()
+  private long msgLen;
+  // bytes of the octet-counted frame left to discard when it exceeds maxFrameLength
+  private long bytesToDiscard;
+  // too long non-transparent frame is discarded up to the next delimiter
+  private boolean discardingFrame;
+
+  public SyslogFrameDecoder(int maxFrameLength) {
+    this(maxFrameLength, true, false, Framing.AUTO, DEFAULT_DELIMITERS);
+  }
+
+  public SyslogFrameDecoder(int maxFrameLength, boolean stripDelimiter, boolean failFast, Framing framing, ChannelBuffer... delimiters) {
+    if (maxFrameLength <= 0) {
+      throw new IllegalArgumentException("maxFrameLength must be a positive integer: " + maxFrameLength);
+    }
+    this.maxFrameLength = maxFrameLength;
+    this.stripDelimiter = stripDelimiter;
+    this.failFast = failFast;
+    this.framing = framing == null ? Framing.AUTO : framing;
+    this.detected = this.framing == Framing.AUTO ? null : this.framing;
+    if (delimiters == null || delimiters.length == 0) {
+      delimiters = DEFAULT_DELIMITERS;
+    }
+    this.delimiters = new ChannelBuffer[delimiters.length];
+    for (int i = 0; i < delimiters.length; i++) {
+      ChannelBuffer d = delimiters[i];
+      if (d == null || !d.readable()) {
+        throw new IllegalArgumentException("empty delimiter");
+      }
+      this.delimiters[i] = d.slice(d.readerIndex(), d.readableBytes());
+    }
+  }
+
+  @Override
+  protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+
+    if (bytesToDiscard > 0) {
+      int discard = (int) Math.min(bytesToDiscard, buffer.readableBytes());
+      buffer.skipBytes(discard);
+      bytesToDiscard -= discard;
+      if (bytesToDiscard > 0) {
+        return null;
+      }
+    }
+    if (discardingFrame) {
+      int[] delim = findDelimiter(buffer);
+      if (delim == null) {
+        buffer.skipBytes(buffer.readableBytes());
+        return null;
+      }
+      buffer.skipBytes(delim[0] + delim[1]);
+      discardingFrame = false;
+    }
+
+    // skip trailers left between frames
+    while (buffer.readable()) {
+      byte b = buffer.getByte(buffer.readerIndex());
+      if (b != '\n' && b != '\r' && b != 0) {
+        break;
+      }
+      buffer.skipBytes(1);
+    }
+    if (!buffer.readable()) {
+      return null;
+    }
+
+    if (detected == null) {
+      int header = headerLength(buffer, true);
+      if (header == 0) {
+        // not enough bytes to decide
+        return null;
+      }
+      detected = header > 0 ? Framing.OCTET_COUNTING : Framing.NON_TRANSPARENT;
+      log.debug("Detected {} framing for {}", detected, channel);
+    }
+
+    if (detected == Framing.OCTET_COUNTING) {
+      int header = headerLength(buffer, false);
+      if (header > 0) {
+        return decodeOctetCounted(buffer, header, msgLen);
+      }
+      if (header == 0) {
+        return null;
+      }
+      log.warn("Invalid octet-counting frame header, frame is framed by delimiters");
+    }
+
+    return decodeNonTransparent(buffer);
+  }
+
+  /**
+   * Checks for {@code MSG-LEN SP} at the reader index, MSG-LEN is stored to {@link #msgLen}.
+   *
+   * @param detect also require {@code <} (start of PRI) after SP
+   * @return header length, 0 if more bytes are needed, -1 if there is no header
+   */
+  private int headerLength(ChannelBuffer buffer, boolean detect) {
+    int digits = 0;
+    long len = 0;
+    int idx = buffer.readerIndex();
+    final int end = buffer.writerIndex();
+    while (idx < end && digits <= MAX_LENGTH_DIGITS) {
+      byte b = buffer.getByte(idx);
+      if (b < '0' || b > '9') {
+        break;
+      }
+      len = len * 10 + (b - '0');
+      digits++;
+      idx++;
+    }
+    if (digits == 0 || digits > MAX_LENGTH_DIGITS) {
+      return -1;
+    }
+    if (idx == end) {
+      return 0;
+    }
+    if (buffer.getByte(idx) != ' ' || len == 0) {
+      return -1;
+    }
+    if (detect) {
+      if (idx + 1 == end) {
+        return 0;
+      }
+      if (buffer.getByte(idx + 1) != '<') {
+        return -1;
+      }
+    }
+    msgLen = len;
+    return idx + 1 - buffer.readerIndex();
+  }
+
+  private Object decodeOctetCounted(ChannelBuffer buffer, int headerLength, long msgLen) throws TooLongFrameException {
+    if (msgLen > maxFrameLength) {
+      if (failFast) {
+        buffer.skipBytes(headerLength);
+        bytesToDiscard = msgLen;
+        fail(msgLen);
+      }
+      if (buffer.readableBytes() < headerLength + maxFrameLength) {
+        return null;
+      }
+      log.warn("Too long frame detected. Consider to increase max frame length. Current lenght: {}, Max lenght: {}", msgLen, maxFrameLength);
+      buffer.skipBytes(headerLength);
+      ChannelBuffer frame = extractFrame(buffer, buffer.readerIndex(), maxFrameLength);
+      buffer.skipBytes(maxFrameLength);
+      bytesToDiscard = msgLen - maxFrameLength;
+      return frame;
+    }
+
+    int frameLength = (int) msgLen;
+    if (buffer.readableBytes() < headerLength + frameLength) {
+      return null;
+    }
+    buffer.skipBytes(headerLength);
+    ChannelBuffer frame = extractFrame(buffer, buffer.readerIndex(), frameLength);
+    buffer.skipBytes(frameLength);
+    return frame;
+  }
+
+  private Object decodeNonTransparent(ChannelBuffer buffer) throws TooLongFrameException {
+    int[] delim = findDelimiter(buffer);
+
+    if (delim == null) {
+      if (buffer.readableBytes() > maxFrameLength) {
+        if (failFast) {
+          int discarded = buffer.readableBytes();
+          buffer.skipBytes(discarded);
+          discardingFrame = true;
+          fail(discarded);
+        }
+        ChannelBuffer frame = extractFrame(buffer, buffer.readerIndex(), maxFrameLength);
+        buffer.skipBytes(maxFrameLength);
+        log.warn("Frame was not detected withing configured  maxFramelength {}", maxFrameLength);
+        return frame;
+      }
+      return null;
+    }
+
+    int frameLength = delim[0];
+    int delimLength = delim[1];
+    ChannelBuffer frame;
+    if (frameLength > maxFrameLength) {
+      if (failFast) {
+        buffer.skipBytes(frameLength + delimLength);
+        fail(frameLength);
+      }
+      frame = extractFrame(buffer, buffer.readerIndex(), maxFrameLength);
+      buffer.skipBytes(maxFrameLength);
+      log.warn("Too long frame detected. Consider to increase max frame length. Current lenght: {}, Max lenght: {}", frameLength, maxFrameLength);
+    } else if (stripDelimiter) {
+      int length = frameLength;
+      if (length > 0 && delimLength == 1 && buffer.getByte(buffer.readerIndex() + length) == '\n'
+          && buffer.getByte(buffer.readerIndex() + length - 1) == '\r') {
+        length--;
+      }
+      frame = extractFrame(buffer, buffer.readerIndex(), length);
+      buffer.skipBytes(frameLength + delimLength);
+    } else {
+      frame = extractFrame(buffer, buffer.readerIndex(), frameLength + delimLength);
+      buffer.skipBytes(frameLength + delimLength);
+    }
+    return frame;
+  }
+
+  private static void fail(long frameLength) throws TooLongFrameException {
+    throw new TooLongFrameException("frame length exceeds max frame length: " + frameLength + " - discarded");
+  }
+
+  /**
+   * Tries all delimiters and chooses the one which yields the shortest frame.
+   *
+   * @return frame length and delimiter length, null if no delimiter is found
+   */
+  private int[] findDelimiter(ChannelBuffer buffer) {
+    int frameLength = Integer.MAX_VALUE;
+    ChannelBuffer selectedDelim = null;
+    for (ChannelBuffer delim : delimiters) {
+      int len = indexOf(buffer, delim);
+      if (len >= 0 && len < frameLength) {
+        frameLength = len;
+        selectedDelim = delim;
+      }
+    }
+    return selectedDelim == null ? null : new int[] {frameLength, selectedDelim.capacity()};
+  }
+
+  /**
+   * Returns the number of bytes between the readerIndex of the haystack and
+   * the first needle found in the haystack.  -1 is returned if no needle is
+   * found in the haystack.
+   */
+  private static int indexOf(ChannelBuffer haystack, ChannelBuffer needle) {
+    final int needleLength = needle.capacity();
+    if (needleLength == 1) {
+      int i = haystack.indexOf(haystack.readerIndex(), haystack.writerIndex(), needle.getByte(0));
+      return i < 0 ? -1 : i - haystack.readerIndex();
+    }
+    final int last = haystack.writerIndex() - needleLength;
+    for (int i = haystack.readerIndex(); i <= last; i++) {
+      int needleIndex = 0;
+      while (needleIndex < needleLength && haystack.getByte(i + needleIndex) == needle.getByte(needleIndex)) {
+        needleIndex++;
+      }
+      if (needleIndex == needleLength) {
+        return i - haystack.readerIndex();
+      }
+    }
+    return -1;
+  }
+
+}
@@ -15,6 +15,7 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -27,10 +28,16 @@ import org.apache.kafka.connect.transforms.util.SimpleConfig;
 import org.jboss.netty.buffer.ByteBufferBackedChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.jboss.netty.handler.codec.frame.LineBasedFrameDecoder;
-import org.jboss.netty.handler.codec.string.StringDecoder;
+
+import com.github.jkmart.kafka.connect.nettysource.BytesRecordHandler;
+import com.mckesson.kafka.connect.nettysource.SyslogFrameDecoder.Framing;
+import com.mckesson.kafka.connect.utils.ConfigUtils;
+import com.mckesson.kafka.connect.utils.SyslogParser.SyslogFacility;
+import com.mckesson.kafka.connect.utils.SyslogParser.SyslogSeverity;
 
 public class SyslogPipelineFactory extends NettyPipelineFactory {
 
@@ -47,16 +54,52 @@ public class SyslogPipelineFactory extends NettyPipelineFactory {
 
   public static final String DELIMETERS_CONFIG = CONFIG_PREFIX + "delimeters";
 
+  public static final String FRAMING_CONFIG = CONFIG_PREFIX + "framing";
+  private static final String FRAMING_DEFAULT = Framing.NON_TRANSPARENT.name();
+
+  public static final String REVERSE_DNS_CONFIG = CONFIG_PREFIX + "reverseDns";
+  private static final Boolean REVERSE_DNS_DEFAULT = Boolean.FALSE;
+
+  public static final String STRUCTURED_DATA_CONFIG = CONFIG_PREFIX + "structuredData";
+  private static final Boolean STRUCTURED_DATA_DEFAULT = Boolean.FALSE;
+
+  public static final String SEVERITIES_CONFIG = CONFIG_PREFIX + "severities";
+
+  public static final String FACILITIES_CONFIG = CONFIG_PREFIX + "facilities";
+
+  public static final String APP_NAME_DENYLIST_CONFIG = CONFIG_PREFIX + "appNameDenylist";
+
+  public static final String FILTER_REPORT_INTERVAL_MS_CONFIG = CONFIG_PREFIX + "filter.reportIntervalMs";
+  private static final Long FILTER_REPORT_INTERVAL_MS_DEFAULT = 60000L;
+
   private static final ConfigDef CONFIG_DEF = new ConfigDef()
       .define(MAX_LENGTH_CONFIG, ConfigDef.Type.INT, MAX_LENGTH_DEFAULT, ConfigDef.Importance.MEDIUM, "Max Message Length")
       .define(STRIP_DELIMETER_CONFIG, ConfigDef.Type.BOOLEAN, STRIP_DELIMETER_DEFAULT, ConfigDef.Importance.MEDIUM, "whether the decoded frame should strip out the delimiter or not")
       .define(FAIL_FAST_CONFIG, ConfigDef.Type.BOOLEAN, FAIL_FAST_DEFAULT, ConfigDef.Importance.MEDIUM, "see LineBasedFrameDecoder javadoc")
-      .define(DELIMETERS_CONFIG, ConfigDef.Type.LIST, null, ConfigDef.Importance.MEDIUM, "list of delimeter strings");
+      .define(DELIMETERS_CONFIG, ConfigDef.Type.LIST, null, ConfigDef.Importance.MEDIUM, "list of delimeter strings")
+      .define(FRAMING_CONFIG, ConfigDef.Type.STRING, FRAMING_DEFAULT, ConfigUtils.validEnum(Framing.class), ConfigDef.Importance.MEDIUM,
+          "Framing method (RFC 6587): AUTO - detect octet-counting or non-transparent framing once per connection, OCTET_COUNTING, NON_TRANSPARENT")
+      .define(REVERSE_DNS_CONFIG, ConfigDef.Type.BOOLEAN, REVERSE_DNS_DEFAULT, ConfigDef.Importance.MEDIUM,
+          "populate 'hostname' field with reverse DNS of the sender. Resolver options: " + REVERSE_DNS_CONFIG + ".*")
+      .define(STRUCTURED_DATA_CONFIG, ConfigDef.Type.BOOLEAN, STRUCTURED_DATA_DEFAULT, ConfigDef.Importance.MEDIUM,
+          "populate 'structuredData' field with decoded RFC 5424 STRUCTURED-DATA")
+      .define(SEVERITIES_CONFIG, ConfigDef.Type.LIST, null, ConfigDef.Importance.MEDIUM,
+          "allowed severities (names or numbers), other frames are dropped before decoding. Empty - all")
+      .define(FACILITIES_CONFIG, ConfigDef.Type.LIST, null, ConfigDef.Importance.MEDIUM,
+          "allowed facilities (names or numbers), other frames are dropped before decoding. Empty - all")
+      .define(APP_NAME_DENYLIST_CONFIG, ConfigDef.Type.LIST, null, ConfigDef.Importance.MEDIUM,
+          "RFC 5424 APP-NAMEs to drop before decoding")
+      .define(FILTER_REPORT_INTERVAL_MS_CONFIG, ConfigDef.Type.LONG, FILTER_REPORT_INTERVAL_MS_DEFAULT, ConfigDef.Importance.LOW,
+          "interval to log frames dropped by the filter per severity (millis), 0 - disabled");
 
   private int maxLength = 8192;
   private boolean stripDelimiter = true;
   private boolean failFast = false;
   private List<ChannelBuffer> delimeters;
+  private Framing framing;
+  private ReverseDnsResolver reverseDnsResolver;
+  private boolean structuredData;
+  private SyslogPriorityFilter filter;
 
   @Override
   public void configure(Map<String, ?> configs) {
@@ -74,6 +117,33 @@ public class SyslogPipelineFactory extends NettyPipelineFactory {
       }
 
     }
+    this.framing = ConfigUtils.getEnum(syslogConfig, FRAMING_CONFIG, Framing.class);
+    this.structuredData = syslogConfig.getBoolean(STRUCTURED_DATA_CONFIG);
+
+    List<String> severityNames = syslogConfig.getList(SEVERITIES_CONFIG);
+    List<String> facilityNames = syslogConfig.getList(FACILITIES_CONFIG);
+    List<String> appNameDenylist = syslogConfig.getList(APP_NAME_DENYLIST_CONFIG);
+    this.filter = null;
+    if (notEmpty(severityNames) || notEmpty(facilityNames) || notEmpty(appNameDenylist)) {
+      List<SyslogSeverity> severities = new ArrayList<>();
+      if (severityNames != null) {
+        for (String name : severityNames) {
+          severities.add(SyslogPriorityFilter.severity(name, SEVERITIES_CONFIG));
+        }
+      }
+      List<SyslogFacility> facilities = new ArrayList<>();
+      if (facilityNames != null) {
+        for (String name : facilityNames) {
+          facilities.add(SyslogPriorityFilter.facility(name, FACILITIES_CONFIG));
+        }
+      }
+      this.filter = new SyslogPriorityFilter(severities, facilities, appNameDenylist);
+      this.filter.setReportIntervalMs(syslogConfig.getLong(FILTER_REPORT_INTERVAL_MS_CONFIG));
+    }
+    if (syslogConfig.getBoolean(REVERSE_DNS_CONFIG)) {
+      this.reverseDnsResolver = new ReverseDnsResolver();
+      this.reverseDnsResolver.configure(syslogConfig.originalsWithPrefix(REVERSE_DNS_CONFIG + "."));
+    }
 
   }
 
@@ -81,7 +151,10 @@ public class SyslogPipelineFactory extends NettyPipelineFactory {
   public LinkedHashMap<String, ChannelHandler> defaultHandlers(NettySourceConnectorConfig conf) {
 
     FrameDecoder framer;
-    if (this.delimeters == null || this.delimeters.size() == 0) {
+    if (framing != Framing.NON_TRANSPARENT) {
+      ChannelBuffer[] dl = this.delimeters == null ? null : delimeters.toArray(new ChannelBuffer[0]);
+      framer = new SyslogFrameDecoder(maxLength, stripDelimiter, failFast, framing, dl);
+    } else if (this.delimeters == null || this.delimeters.size() == 0) {
       framer = new LineBasedFrameDecoder(maxLength, stripDelimiter, failFast);
     } else {
       framer = new DelimiterBasedFrameDecoder(maxLength, stripDelimiter, failFast, delimeters.toArray(new ChannelBuffer[0]));
@@ -89,12 +162,50 @@ public class SyslogPipelineFactory extends NettyPipelineFactory {
 
     LinkedHashMap<String, ChannelHandler> defaultHandlers = new LinkedHashMap<>();
     defaultHandlers.put("framer", framer);
-    defaultHandlers.put("decoder", new StringDecoder());
-    SyslogRecordHandler handler = new SyslogRecordHandler();
-    handler.setTopic(topic);
-    handler.setRecordQueue(messageQueue);
+    if (filter != null) {
+      defaultHandlers.put("filter", filter);
+    }
+    SourceRecordHandler handler;
+    if (valueFormat == ValueFormat.BYTES) {
+      handler = new BytesRecordHandler();
+    } else {
+      // record handler parses frame bytes, pass-through 'decoder' keeps handler names for before/after/overrides
+      defaultHandlers.put("decoder", new SimpleChannelUpstreamHandler());
+      handler = createRecordHandler();
+    }
+    initRecordHandler(handler);
     defaultHandlers.put("recordHandler", handler);
     return defaultHandlers;
   }
 
+  /**
+   * Creates record handler for {@code STRING} value format
+   */
+  protected SourceRecordHandler createRecordHandler() {
+    SyslogRecordHandler handler = new SyslogRecordHandler();
+    handler.setReverseDnsResolver(reverseDnsResolver);
+    handler.setStructuredData(structuredData);
+    return handler;
+  }
+
+  private static boolean notEmpty(List<String> list) {
+    return list != null && !list.isEmpty();
+  }
+
+  /**
+   * @return shared priority filter or null if not configured
+   */
+  public SyslogPriorityFilter getFilter() {
+    return filter;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (reverseDnsResolver != null) {
+      reverseDnsResolver.close();
+      reverseDnsResolver = null;
+    }
+    super.close();
+  }
+
 }
@@ -0,0 +1,246 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandler.Sharable;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mckesson.kafka.connect.utils.SyslogParser.SyslogFacility;
+import com.mckesson.kafka.connect.utils.SyslogParser.SyslogSeverity;
+
+/**
+ * Drops syslog frames by severity, facility and RFC 5424 APP-NAME before they are decoded.
+ *
+ * Only PRI bytes (and the header up to APP-NAME if denylist is configured) of the
+ * frame are read. Frames without valid PRI (0-191) are passed. Must be placed after the framer.
+ * Dropped counts per severity are logged every report interval while frames are dropped.
+ */
+@Sharable
+public class SyslogPriorityFilter extends SimpleChannelUpstreamHandler {
+
+  private static final Logger log = LoggerFactory.getLogger(SyslogPriorityFilter.class);
+
+  private static final int MAX_PRI = 191;
+
+  private final int severityMask;
+  private final int facilityMask;
+  private final byte[][] deniedAppNames;
+  private final AtomicLongArray dropped = new AtomicLongArray(SyslogSeverity.values().length);
+  private final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+  private long reportIntervalNanos = TimeUnit.MINUTES.toNanos(1);
+
+  /**
+   * @param severities allowed severities, null or empty - all
+   * @param facilities allowed facilities, null or empty - all
+   * @param appNameDenylist APP-NAMEs to drop, may be null
+   */
+  public SyslogPriorityFilter(Collection<SyslogSeverity> severities, Collection<SyslogFacility> facilities, Collection<String> appNameDenylist) {
+    this.severityMask = mask(severities);
+    this.facilityMask = mask(facilities);
+    int i = 0;
+    this.deniedAppNames = new byte[appNameDenylist == null ? 0 : appNameDenylist.size()][];
+    if (appNameDenylist != null) {
+      for (String name : appNameDenylist) {
+        deniedAppNames[i++] = name.getBytes(StandardCharsets.UTF_8);
+      }
+    }
+  }
+
+  /**
+   * @param reportIntervalMs interval to log dropped counts, 0 - disabled
+   */
+  public void setReportIntervalMs(long reportIntervalMs) {
+    this.reportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reportIntervalMs);
+  }
+
+  private static int mask(Collection<? extends Enum<?>> values) {
+    if (values == null || values.isEmpty()) {
+      return -1;
+    }
+    int mask = 0;
+    for (Enum<?> v : values) {
+      mask |= 1 << v.ordinal();
+    }
+    return mask;
+  }
+
+  @Override
+  public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    Object m = e.getMessage();
+    if (!(m instanceof ChannelBuffer)) {
+      ctx.sendUpstream(e);
+      return;
+    }
+    ChannelBuffer buf = (ChannelBuffer) m;
+    int idx = buf.readerIndex();
+    int end = buf.writerIndex();
+    if (end - idx < 3 || buf.getByte(idx) != '<') {
+      ctx.sendUpstream(e);
+      return;
+    }
+    int p = idx + 1;
+    int pri = 0;
+    while (p < end && p <= idx + 3 && isDigit(buf.getByte(p))) {
+      pri = pri * 10 + (buf.getByte(p) - '0');
+      p++;
+    }
+    // PRI above 191 (facility above 23) is not valid
+    if (p == idx + 1 || p >= end || buf.getByte(p) != '>' || pri > MAX_PRI) {
+      ctx.sendUpstream(e);
+      return;
+    }
+
+    int severity = pri & 0x07;
+    int facility = pri >> 3;
+    if ((severityMask & (1 << severity)) == 0 || (facilityMask & (1 << facility)) == 0) {
+      drop(severity, e);
+      return;
+    }
+    if (deniedAppNames.length > 0 && isDeniedAppName(buf, p + 1, end)) {
+      drop(severity, e);
+      return;
+    }
+    ctx.sendUpstream(e);
+  }
+
+  /**
+   * @param p position after PRI
+   */
+  private boolean isDeniedAppName(ChannelBuffer buf, int p, int end) {
+    // RFC 5424: VERSION SP TIMESTAMP SP HOSTNAME SP APP-NAME SP
+    if (end - p < 2 || buf.getByte(p) != '1' || buf.getByte(p + 1) != ' ') {
+      return false;
+    }
+    p += 2;
+    for (int field = 0; field < 2; field++) {
+      int sp = buf.indexOf(p, end, (byte) ' ');
+      if (sp < 0) {
+        return false;
+      }
+      p = sp + 1;
+    }
+    int appEnd = buf.indexOf(p, end, (byte) ' ');
+    if (appEnd < 0) {
+      appEnd = end;
+    }
+    int len = appEnd - p;
+    for (byte[] name : deniedAppNames) {
+      if (name.length == len && equals(buf, p, name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean equals(ChannelBuffer buf, int p, byte[] name) {
+    for (int i = 0; i < name.length; i++) {
+      if (buf.getByte(p + i) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private void drop(int severity, MessageEvent e) {
+    dropped.incrementAndGet(severity);
+    log.trace("Dropped frame of severity {} from {}", severity, e.getRemoteAddress());
+    report();
+  }
+
+  private void report() {
+    if (reportIntervalNanos <= 0) {
+      return;
+    }
+    long now = System.nanoTime();
+    long last = lastReport.get();
+    if (now - last < reportIntervalNanos || !lastReport.compareAndSet(last, now)) {
+      return;
+    }
+    log.info("Syslog filter dropped: {}", getDroppedCounts());
+  }
+
+  public long getDropped(SyslogSeverity severity) {
+    return dropped.get(severity.ordinal());
+  }
+
+  /**
+   * @return dropped frames count per severity
+   */
+  public Map<SyslogSeverity, Long> getDroppedCounts() {
+    Map<SyslogSeverity, Long> result = new LinkedHashMap<>();
+    for (SyslogSeverity s : SyslogSeverity.values()) {
+      result.put(s, dropped.get(s.ordinal()));
+    }
+    return result;
+  }
+
+  /**
+   * Parses severity names (EMERG, ALERT, CRIT, ERR, WARNING, NOTICE, INFO, DEBUG; ERROR and WARN aliases) or numbers
+   */
+  public static SyslogSeverity severity(String value, String configName) {
+    String v = value.trim().toUpperCase();
+    if ("ERROR".equals(v)) {
+      return SyslogSeverity.ERR;
+    }
+    if ("WARN".equals(v)) {
+      return SyslogSeverity.WARNING;
+    }
+    return parseEnum(SyslogSeverity.class, v, configName);
+  }
+
+  /**
+   * Parses facility names (KERN, USER, ... LOCAL7) or numbers
+   */
+  public static SyslogFacility facility(String value, String configName) {
+    return parseEnum(SyslogFacility.class, value.trim().toUpperCase(), configName);
+  }
+
+  private static <E extends Enum<E>> E parseEnum(Class<E> cls, String v, String configName) {
+    E[] values = cls.getEnumConstants();
+    if (!v.isEmpty() && v.length() <= 3 && v.chars().allMatch(Character::isDigit)) {
+      int n = Integer.parseInt(v);
+      if (n < values.length) {
+        return values[n];
+      }
+    } else {
+      for (E e : values) {
+        if (e.name().equals(v)) {
+          return e;
+        }
+      }
+    }
+    throw new ConfigException(configName, v, "Unknown " + cls.getSimpleName());
+  }
+
+}
@@ -15,24 +15,28 @@
  */
 package com.mckesson.kafka.connect.nettysource;
 
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Map;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaBuilder;
 import org.apache.kafka.connect.data.Struct;
 import org.apache.kafka.connect.data.Timestamp;
 import org.apache.kafka.connect.source.SourceRecord;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
-import org.jboss.netty.channel.socket.DatagramChannel;
-import org.jboss.netty.channel.socket.ServerSocketChannel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.mckesson.kafka.connect.nettysource.utils.SyslogFrameParser;
+
 public class SyslogRecordHandler extends SourceRecordHandler {
 
   public static final String HOST = "host";
@@ -44,6 +48,7 @@ public class SyslogRecordHandler extends SourceRecordHandler {
   public static final String REMOTE_ADDRESS = "remote_address";
   public static final String HOSTNAME = "hostname";
   public static final String TRANSPORT_PROTOCOL = "transportProtocol";
+  public static final String STRUCTURED_DATA = "structuredData";
 
   static final Schema KEY_SCHEMA = SchemaBuilder.struct().name("com.mckesson.kafka.connect.syslog.SyslogKey")
       .doc("This schema represents the key that is written to Kafka for syslog data. This will ensure that all data for " +
@@ -81,15 +86,67 @@ public class SyslogRecordHandler extends SourceRecordHandler {
       .field(
           TRANSPORT_PROTOCOL,
           SchemaBuilder.string().optional().doc("Transport protocol.").build())
+      .field(
+          STRUCTURED_DATA,
+          SchemaBuilder.map(Schema.STRING_SCHEMA, SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.STRING_SCHEMA).build())
+              .optional().doc("RFC 5424 STRUCTURED-DATA: SD-ID to map of PARAM-NAME to PARAM-VALUE. Populated if enabled.").build())
       .build();
 
   private static final Logger LOG = LoggerFactory.getLogger(SyslogRecordHandler.class);
 
+  private final SyslogFrameParser.Cursor cursor = new SyslogFrameParser.Cursor();
+  private ReverseDnsResolver reverseDnsResolver;
+  private boolean structuredData = false;
+  private Charset charset = Charset.defaultCharset();
+
+  /**
+   * Enables '{@value #HOSTNAME}' field, null - disabled
+   */
+  public void setReverseDnsResolver(ReverseDnsResolver reverseDnsResolver) {
+    this.reverseDnsResolver = reverseDnsResolver;
+  }
+
+  /**
+   * Enables '{@value #STRUCTURED_DATA}' field, structured data is not decoded otherwise
+   */
+  public void setStructuredData(boolean structuredData) {
+    this.structuredData = structuredData;
+  }
+
+  /**
+   * Charset of frame bytes, platform default as used by {@code StringDecoder}
+   */
+  public void setCharset(Charset charset) {
+    this.charset = charset;
+  }
+
   @Override
   public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
 
-    // Cast to a String first.
-    String msg = (String) e.getMessage();
+    Object msg = e.getMessage();
+    byte[] bytes;
+    int offset;
+    int length;
+    if (msg instanceof ChannelBuffer) {
+      ChannelBuffer buf = (ChannelBuffer) msg;
+      length = buf.readableBytes();
+      if (buf.hasArray()) {
+        bytes = buf.array();
+        offset = buf.arrayOffset() + buf.readerIndex();
+      } else {
+        bytes = new byte[length];
+        buf.getBytes(buf.readerIndex(), bytes);
+        offset = 0;
+      }
+    } else if (msg instanceof String) {
+      // decoder configured in front of the handler
+      bytes = ((String) msg).getBytes(charset);
+      offset = 0;
+      length = bytes.length;
+    } else {
+      ctx.sendUpstream(e);
+      return;
+    }
 
     SocketAddress remoteAddr = e.getRemoteAddress();
     if (remoteAddr == null) {
@@ -101,66 +158,68 @@ public class SyslogRecordHandler extends SourceRecordHandler {
     String remoteAddress = remoteAddr == null ? null : remoteAddr.toString();
 
     //add 'transportProtocol' header
-    String transportProtocol = null;
     Channel channel = e.getChannel();
     if (channel == null) {
       channel = ctx.getChannel();
     }
-    if (channel != null) {
-
-      if (channel instanceof ServerSocketChannel) {
-        transportProtocol = "tcp";
-      } else if (channel instanceof DatagramChannel) {
-        transportProtocol = "udp";
-      } else {
-        transportProtocol = channel.toString();
-      }
-    }
+    String transportProtocol = transportProtocol(channel);
 
-    if (StringUtils.isBlank(msg)) {
+    if (SyslogFrameParser.isBlank(bytes, offset, length)) {
       LOG.trace("Skipped empty message from {}", remoteAddress);
       return;
     }
 
-    SyslogEvent event = null;
-    try {
-      event = new SyslogEvent(msg, null);
-    } catch (Exception e1) {
-      LOG.warn("Failed to parse message: '{}' from {}", msg, remoteAddress);
-      event = new SyslogEvent();
-      event.setMessage(msg);
-
+    SyslogFrameParser.Cursor event = this.cursor;
+    if (!SyslogFrameParser.parse(bytes, offset, length, event)) {
+      LOG.trace("Message without priority from {}", remoteAddress);
+    }
+    Date date = null;
+    if (event.getTimestamp() != SyslogFrameParser.NO_TIMESTAMP) {
+      date = new Date(event.getTimestamp());
+    } else if (event.hasTimestampField()) {
+      LOG.trace("Failed to parse timestamp '{}' from {}", event.getTimestampField(charset), remoteAddress);
+      date = new Date();
+    }
+    String host = event.getHost(charset);
+    String hostname = null;
+    if (reverseDnsResolver != null && remoteAddr instanceof InetSocketAddress) {
+      hostname = reverseDnsResolver.lookup(((InetSocketAddress) remoteAddr).getAddress());
     }
 
-    Map<String, String> partition = Collections.singletonMap(HOST, event.getHost());
+    Map<String, String> partition = Collections.singletonMap(HOST, host);
     Map<String, String> sourceOffset = Collections.emptyMap();
 
     Struct keyStruct = new Struct(this.KEY_SCHEMA)
         .put(REMOTE_ADDRESS, remoteAddress);
 
     Struct valueStruct = new Struct(this.VALUE_SCHEMA)
-        .put(DATE, event.getDate())
+        .put(DATE, date)
         .put(FACILITY, event.getFacility())
-        .put(HOST, event.getHost())
+        .put(HOST, host)
         .put(LEVEL, event.getLevel())
-        .put(MESSAGE, event.getMessage())
-        .put(CHARSET, event.getCharSet())
+        .put(MESSAGE, event.getMessage(charset))
+        .put(CHARSET, charset.name())
         .put(REMOTE_ADDRESS, remoteAddress)
-        .put(FACILITY, event.getFacility())
+        .put(HOSTNAME, hostname)
         .put(TRANSPORT_PROTOCOL, transportProtocol);
+    if (structuredData && event.hasStructuredData()) {
+      valueStruct.put(STRUCTURED_DATA, event.getStructuredData());
+    }
 
+    Object routingValue = null;
+    if (topicRouter != null) {
+      routingValue = msg instanceof String ? msg : Arrays.copyOfRange(bytes, offset, offset + length);
+    }
     SourceRecord sourceRecord = new SourceRecord(
         partition,
         sourceOffset,
-        topic,
+        topicFor(ctx, e, routingValue),
         null,
         KEY_SCHEMA,
         keyStruct,
         VALUE_SCHEMA,
         valueStruct);
-    this.recordQueue.add(sourceRecord);
-
-    checkQueueCapacity();
+    enqueue(ctx, e, sourceRecord);
   }
 
 }
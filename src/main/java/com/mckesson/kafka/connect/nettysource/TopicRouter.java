@@ -0,0 +1,357 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.transforms.util.SimpleConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mckesson.kafka.connect.nettysource.utils.Cidr;
+
+/**
+ * Routes records to topics by frame content and sender.
+ *
+ * Each route has a topic and optional conditions: literal substrings ({@code contains}),
+ * {@code prefix}es and sender {@code cidrs}. Route matches if sender is in any of the cidrs (when configured)
+ * and frame contains any of the substrings or starts with any of the prefixes (when configured).
+ * The first matching route in configured order wins, default topic is used if nothing matched.
+ *
+ * All literals are compiled into one Aho-Corasick automaton over UTF-8 bytes,
+ * frame is scanned once regardless of number of routes. Instance is immutable and thread safe.
+ */
+public class TopicRouter {
+
+  private static final Logger log = LoggerFactory.getLogger(TopicRouter.class);
+
+  public static final String ROUTES_CONFIG = NettySourceConnectorConfig.PIPELINE_FACTORY_CONFIG + ".routes";
+
+  public static final String ROUTE_TOPIC_CONFIG = "topic";
+  public static final String ROUTE_CONTAINS_CONFIG = "contains";
+  public static final String ROUTE_PREFIX_CONFIG = "prefix";
+  public static final String ROUTE_CIDRS_CONFIG = "cidrs";
+
+  private static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(ROUTES_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.MEDIUM, "names of topic routes");
+
+  private static final ConfigDef ROUTE_CONFIG_DEF = new ConfigDef()
+      .define(ROUTE_TOPIC_CONFIG, ConfigDef.Type.STRING, ConfigDef.NO_DEFAULT_VALUE, ConfigDef.Importance.HIGH, "target topic")
+      .define(ROUTE_CONTAINS_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.MEDIUM, "literal substrings")
+      .define(ROUTE_PREFIX_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.MEDIUM, "literal prefixes")
+      .define(ROUTE_CIDRS_CONFIG, ConfigDef.Type.LIST, Collections.emptyList(), ConfigDef.Importance.MEDIUM, "sender CIDR ranges");
+
+  private static final int ALPHABET = 256;
+
+  private final String[] topics;
+  private final boolean[] hasContent;
+  private final Cidr[][] cidrs;
+
+  // automaton: transitions (state * 256 + byte), rules matched anywhere / as prefix in the state
+  private final int[] delta;
+  private final int[][] containsOut;
+  private final int[][] prefixOut;
+  private final int[] depth;
+  private final int maxPrefixLength;
+
+  private TopicRouter(List<Route> routes) {
+    int n = routes.size();
+    this.topics = new String[n];
+    this.hasContent = new boolean[n];
+    this.cidrs = new Cidr[n][];
+
+    List<int[]> trie = new ArrayList<>();
+    List<int[]> contains = new ArrayList<>();
+    List<int[]> prefixes = new ArrayList<>();
+    List<Integer> depths = new ArrayList<>();
+    newNode(trie, contains, prefixes, depths, 0);
+    int maxPrefix = 0;
+
+    for (int r = 0; r < n; r++) {
+      Route route = routes.get(r);
+      topics[r] = route.topic;
+      cidrs[r] = route.cidrs.toArray(new Cidr[0]);
+      hasContent[r] = !route.contains.isEmpty() || !route.prefixes.isEmpty();
+      for (String s : route.contains) {
+        int node = insert(trie, contains, prefixes, depths, s.getBytes(StandardCharsets.UTF_8));
+        contains.set(node, add(contains.get(node), r));
+      }
+      for (String s : route.prefixes) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int node = insert(trie, contains, prefixes, depths, bytes);
+        prefixes.set(node, add(prefixes.get(node), r));
+        maxPrefix = Math.max(maxPrefix, bytes.length);
+      }
+    }
+    this.maxPrefixLength = maxPrefix;
+
+    int states = trie.size();
+    this.delta = new int[states * ALPHABET];
+    this.containsOut = contains.toArray(new int[0][]);
+    this.prefixOut = prefixes.toArray(new int[0][]);
+    this.depth = new int[states];
+    for (int i = 0; i < states; i++) {
+      depth[i] = depths.get(i);
+    }
+
+    // BFS: failure links folded into full DFA transitions, outputs merged along failure chain
+    int[] fail = new int[states];
+    Queue<Integer> queue = new ArrayDeque<>();
+    int[] root = trie.get(0);
+    for (int c = 0; c < ALPHABET; c++) {
+      int child = root[c];
+      if (child > 0) {
+        fail[child] = 0;
+        delta[c] = child;
+        queue.add(child);
+      } else {
+        delta[c] = 0;
+      }
+    }
+    while (!queue.isEmpty()) {
+      int s = queue.poll();
+      containsOut[s] = merge(containsOut[s], containsOut[fail[s]]);
+      int[] next = trie.get(s);
+      for (int c = 0; c < ALPHABET; c++) {
+        int child = next[c];
+        if (child > 0) {
+          fail[child] = delta[fail[s] * ALPHABET + c];
+          delta[s * ALPHABET + c] = child;
+          queue.add(child);
+        } else {
+          delta[s * ALPHABET + c] = delta[fail[s] * ALPHABET + c];
+        }
+      }
+    }
+    log.debug("Compiled {} routes into automaton of {} states", n, states);
+  }
+
+  /**
+   * Creates router from {@code pipeline.factory.routes.*} options.
+   *
+   * @return null if no routes configured
+   */
+  public static TopicRouter fromConfig(Map<String, ?> configs) {
+    SimpleConfig conf = new SimpleConfig(CONFIG_DEF, configs);
+    List<String> names = conf.getList(ROUTES_CONFIG);
+    if (names == null || names.isEmpty()) {
+      return null;
+    }
+    List<Route> routes = new ArrayList<>(names.size());
+    for (String name : names) {
+      SimpleConfig routeConf = new SimpleConfig(ROUTE_CONFIG_DEF, conf.originalsWithPrefix(ROUTES_CONFIG + "." + name + "."));
+      Route route = new Route(routeConf.getString(ROUTE_TOPIC_CONFIG));
+      if (StringUtils.isBlank(route.topic)) {
+        throw new ConfigException(ROUTES_CONFIG + "." + name + "." + ROUTE_TOPIC_CONFIG, route.topic, "topic is required");
+      }
+      for (String s : routeConf.getList(ROUTE_CONTAINS_CONFIG)) {
+        if (!s.isEmpty()) {
+          route.contains.add(s);
+        }
+      }
+      for (String s : routeConf.getList(ROUTE_PREFIX_CONFIG)) {
+        if (!s.isEmpty()) {
+          route.prefixes.add(s);
+        }
+      }
+      for (String s : routeConf.getList(ROUTE_CIDRS_CONFIG)) {
+        try {
+          route.cidrs.add(Cidr.parse(s));
+        } catch (IllegalArgumentException e) {
+          throw new ConfigException(ROUTES_CONFIG + "." + name + "." + ROUTE_CIDRS_CONFIG, s, e.getMessage());
+        }
+      }
+      routes.add(route);
+    }
+    return new TopicRouter(routes);
+  }
+
+  /**
+   * @param value frame: String or byte[], other values are routed by sender only
+   * @param remoteAddr sender address, may be null
+   * @param defaultTopic topic if no route matched
+   */
+  public String route(Object value, SocketAddress remoteAddr, String defaultTopic) {
+    long[] matched = new long[(topics.length + 63) >>> 6];
+    if (value instanceof byte[]) {
+      scan((byte[]) value, matched);
+    } else if (value instanceof CharSequence) {
+      scan((CharSequence) value, matched);
+    }
+
+    InetAddress addr = null;
+    if (remoteAddr instanceof InetSocketAddress) {
+      addr = ((InetSocketAddress) remoteAddr).getAddress();
+    }
+    for (int r = 0; r < topics.length; r++) {
+      if (hasContent[r] && (matched[r >>> 6] & (1L << r)) == 0) {
+        continue;
+      }
+      if (cidrs[r].length > 0 && !matches(cidrs[r], addr)) {
+        continue;
+      }
+      return topics[r];
+    }
+    return defaultTopic;
+  }
+
+  private static boolean matches(Cidr[] ranges, InetAddress addr) {
+    if (addr == null) {
+      return false;
+    }
+    for (Cidr c : ranges) {
+      if (c.matches(addr)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void scan(byte[] bytes, long[] matched) {
+    int state = 0;
+    for (int i = 0; i < bytes.length; i++) {
+      state = delta[state * ALPHABET + (bytes[i] & 0xff)];
+      collect(state, i + 1, matched);
+    }
+  }
+
+  /**
+   * Scans UTF-8 bytes of the chars without encoding the string
+   */
+  private void scan(CharSequence chars, long[] matched) {
+    int state = 0;
+    int pos = 0;
+    final int len = chars.length();
+    for (int i = 0; i < len; i++) {
+      int c = chars.charAt(i);
+      if (c < 0x80) {
+        state = delta[state * ALPHABET + c];
+        collect(state, ++pos, matched);
+        continue;
+      }
+      if (Character.isHighSurrogate((char) c) && i + 1 < len && Character.isLowSurrogate(chars.charAt(i + 1))) {
+        c = Character.toCodePoint((char) c, chars.charAt(++i));
+      }
+      int n;
+      int first;
+      if (c < 0x800) {
+        n = 1;
+        first = 0xC0 | (c >> 6);
+      } else if (c < 0x10000) {
+        n = 2;
+        first = 0xE0 | (c >> 12);
+      } else {
+        n = 3;
+        first = 0xF0 | (c >> 18);
+      }
+      state = delta[state * ALPHABET + first];
+      collect(state, ++pos, matched);
+      for (int k = n - 1; k >= 0; k--) {
+        state = delta[state * ALPHABET + (0x80 | ((c >> (6 * k)) & 0x3F))];
+        collect(state, ++pos, matched);
+      }
+    }
+  }
+
+  private void collect(int state, int consumed, long[] matched) {
+    int[] out = containsOut[state];
+    if (out != null) {
+      for (int r : out) {
+        matched[r >>> 6] |= 1L << r;
+      }
+    }
+    if (consumed <= maxPrefixLength && depth[state] == consumed) {
+      out = prefixOut[state];
+      if (out != null) {
+        for (int r : out) {
+          matched[r >>> 6] |= 1L << r;
+        }
+      }
+    }
+  }
+
+  private static int insert(List<int[]> trie, List<int[]> contains, List<int[]> prefixes, List<Integer> depths, byte[] bytes) {
+    int node = 0;
+    for (int i = 0; i < bytes.length; i++) {
+      int c = bytes[i] & 0xff;
+      int next = trie.get(node)[c];
+      if (next <= 0) {
+        next = newNode(trie, contains, prefixes, depths, i + 1);
+        trie.get(node)[c] = next;
+      }
+      node = next;
+    }
+    return node;
+  }
+
+  private static int newNode(List<int[]> trie, List<int[]> contains, List<int[]> prefixes, List<Integer> depths, int depth) {
+    trie.add(new int[ALPHABET]);
+    contains.add(null);
+    prefixes.add(null);
+    depths.add(depth);
+    return trie.size() - 1;
+  }
+
+  private static int[] add(int[] rules, int r) {
+    if (rules == null) {
+      return new int[] {r};
+    }
+    for (int x : rules) {
+      if (x == r) {
+        return rules;
+      }
+    }
+    int[] result = Arrays.copyOf(rules, rules.length + 1);
+    result[rules.length] = r;
+    return result;
+  }
+
+  private static int[] merge(int[] rules, int[] other) {
+    if (other == null) {
+      return rules;
+    }
+    int[] result = rules;
+    for (int r : other) {
+      result = add(result, r);
+    }
+    return result;
+  }
+
+  private static final class Route {
+    private final String topic;
+    private final List<String> contains = new ArrayList<>();
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<Cidr> cidrs = new ArrayList<>();
+
+    Route(String topic) {
+      this.topic = topic;
+    }
+  }
+
+}
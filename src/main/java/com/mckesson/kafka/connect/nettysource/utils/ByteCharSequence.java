@@ -0,0 +1,70 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource.utils;
+
+import java.nio.charset.StandardCharsets;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Read-only ISO-8859-1 view of ChannelBuffer bytes.
+ * Allows to run {@link java.util.regex.Matcher} over a frame without decoding it to String.
+ * Not thread safe, instance can be re-used with {@link #wrap(ChannelBuffer, int, int)}
+ */
+public class ByteCharSequence implements CharSequence {
+
+  private ChannelBuffer buffer;
+  private int offset;
+  private int length;
+
+  public ByteCharSequence wrap(ChannelBuffer buffer) {
+    return wrap(buffer, buffer.readerIndex(), buffer.readableBytes());
+  }
+
+  public ByteCharSequence wrap(ChannelBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    return this;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+    }
+    return (char) (buffer.getByte(offset + index) & 0xff);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+    }
+    return new ByteCharSequence().wrap(buffer, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return buffer == null ? "" : buffer.toString(offset, length, StandardCharsets.ISO_8859_1);
+  }
+
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Single pass parser of ArcSight CEF and IBM LEEF events over frame bytes.
+ *
+ * CEF: {@code CEF:Version|Vendor|Product|Version|SignatureID|Name|Severity|ext}, header
+ * escapes {@code \|}, {@code \\}; extension is space separated {@code key=value}, value may
+ * contain spaces and escapes {@code \=}, {@code \\}, {@code \n}, {@code \r}.
+ * LEEF: {@code LEEF:Version|Vendor|Product|Version|EventID|[Delimiter|]ext}, extension is
+ * {@code key=value} separated by tab or the delimiter of LEEF 2.0.
+ *
+ * Not thread safe, instance keeps parse result and is re-used.
+ */
+public final class CefParser {
+
+  public enum Format {
+    CEF, LEEF
+  }
+
+  private static final byte[] CEF_MAGIC = "CEF:".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] LEEF_MAGIC = "LEEF:".getBytes(StandardCharsets.US_ASCII);
+
+  private static final int CEF_HEADER_FIELDS = 7;
+  private static final int LEEF_HEADER_FIELDS = 5;
+
+  private final String[] header = new String[CEF_HEADER_FIELDS];
+  private Format format;
+  private Map<String, String> extensions;
+  private byte[] scratch = new byte[256];
+
+  /**
+   * Searches event start from offset and parses it.
+   *
+   * @return false if there is no CEF or LEEF event or header is incomplete
+   */
+  public boolean parse(byte[] buf, int offset, int end) {
+    format = null;
+    extensions = null;
+    for (int i = 0; i < header.length; i++) {
+      header[i] = null;
+    }
+
+    int p = offset;
+    Format f = null;
+    for (; p < end - 4; p++) {
+      if (buf[p] == 'C' && startsWith(buf, p, end, CEF_MAGIC)) {
+        f = Format.CEF;
+        p += CEF_MAGIC.length;
+        break;
+      }
+      if (buf[p] == 'L' && startsWith(buf, p, end, LEEF_MAGIC)) {
+        f = Format.LEEF;
+        p += LEEF_MAGIC.length;
+        break;
+      }
+    }
+    if (f == null) {
+      return false;
+    }
+
+    int fields = f == Format.CEF ? CEF_HEADER_FIELDS : LEEF_HEADER_FIELDS;
+    for (int i = 0; i < fields; i++) {
+      int fieldEnd = p;
+      boolean escaped = false;
+      while (fieldEnd < end && buf[fieldEnd] != '|') {
+        if (buf[fieldEnd] == '\\' && fieldEnd + 1 < end) {
+          escaped = true;
+          fieldEnd++;
+        }
+        fieldEnd++;
+      }
+      if (fieldEnd >= end) {
+        return false;
+      }
+      header[i] = escaped ? unescapeHeader(buf, p, fieldEnd) : new String(buf, p, fieldEnd - p, StandardCharsets.UTF_8);
+      p = fieldEnd + 1;
+    }
+    format = f;
+
+    if (f == Format.CEF) {
+      extensions = parseCefExtension(buf, p, end);
+    } else {
+      byte delimiter = '\t';
+      if (header[0].startsWith("2")) {
+        int fieldEnd = p;
+        while (fieldEnd < end && buf[fieldEnd] != '|' && buf[fieldEnd] != '=') {
+          fieldEnd++;
+        }
+        if (fieldEnd < end && buf[fieldEnd] == '|') {
+          int d = leefDelimiter(buf, p, fieldEnd);
+          if (d >= 0) {
+            delimiter = (byte) d;
+            p = fieldEnd + 1;
+          }
+        }
+      }
+      extensions = parseLeefExtension(buf, p, end, delimiter);
+    }
+    return true;
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  public String getVersion() {
+    return header[0];
+  }
+
+  public String getDeviceVendor() {
+    return header[1];
+  }
+
+  public String getDeviceProduct() {
+    return header[2];
+  }
+
+  public String getDeviceVersion() {
+    return header[3];
+  }
+
+  /**
+   * @return CEF Device Event Class ID or LEEF EventID
+   */
+  public String getSignatureId() {
+    return header[4];
+  }
+
+  /**
+   * @return CEF Name, null for LEEF
+   */
+  public String getName() {
+    return header[5];
+  }
+
+  /**
+   * @return CEF Severity, null for LEEF
+   */
+  public String getSeverity() {
+    return header[6];
+  }
+
+  public Map<String, String> getExtensions() {
+    return extensions;
+  }
+
+  private Map<String, String> parseCefExtension(byte[] buf, int p, int end) {
+    Map<String, String> ext = new LinkedHashMap<>();
+    while (p < end) {
+      while (p < end && buf[p] == ' ') {
+        p++;
+      }
+      int keyStart = p;
+      while (p < end && isKeyChar(buf[p])) {
+        p++;
+      }
+      if (p >= end || buf[p] != '=' || p == keyStart) {
+        // not a key: skip the token
+        while (p < end && buf[p] != ' ') {
+          p++;
+        }
+        continue;
+      }
+      String key = new String(buf, keyStart, p - keyStart, StandardCharsets.US_ASCII);
+      p++;
+
+      int valueStart = p;
+      boolean escaped = false;
+      while (p < end) {
+        byte b = buf[p];
+        if (b == '\\' && p + 1 < end) {
+          escaped = true;
+          p += 2;
+          continue;
+        }
+        if (b == ' ' && isKeyAhead(buf, p + 1, end)) {
+          break;
+        }
+        p++;
+      }
+      int valueEnd = p;
+      while (valueEnd > valueStart && buf[valueEnd - 1] == ' ') {
+        valueEnd--;
+      }
+      ext.put(key, escaped ? unescapeValue(buf, valueStart, valueEnd) : new String(buf, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8));
+    }
+    return ext;
+  }
+
+  private static Map<String, String> parseLeefExtension(byte[] buf, int p, int end, byte delimiter) {
+    Map<String, String> ext = new LinkedHashMap<>();
+    while (p < end) {
+      int pairEnd = p;
+      int eq = -1;
+      while (pairEnd < end && buf[pairEnd] != delimiter) {
+        if (eq < 0 && buf[pairEnd] == '=') {
+          eq = pairEnd;
+        }
+        pairEnd++;
+      }
+      if (eq > p) {
+        ext.put(new String(buf, p, eq - p, StandardCharsets.UTF_8).trim(), new String(buf, eq + 1, pairEnd - eq - 1, StandardCharsets.UTF_8));
+      }
+      p = pairEnd + 1;
+    }
+    return ext;
+  }
+
+  /**
+   * LEEF 2.0 delimiter: single char, {@code xHH} or {@code 0xHH}
+   */
+  private static int leefDelimiter(byte[] buf, int start, int end) {
+    int len = end - start;
+    if (len == 1) {
+      return buf[start] & 0xff;
+    }
+    int hexStart = -1;
+    if (len == 3 && (buf[start] | 0x20) == 'x') {
+      hexStart = start + 1;
+    } else if (len == 4 && buf[start] == '0' && (buf[start + 1] | 0x20) == 'x') {
+      hexStart = start + 2;
+    }
+    if (hexStart < 0) {
+      return -1;
+    }
+    int hi = Character.digit(buf[hexStart], 16);
+    int lo = Character.digit(buf[hexStart + 1], 16);
+    return hi < 0 || lo < 0 ? -1 : (hi << 4) | lo;
+  }
+
+  private static boolean isKeyAhead(byte[] buf, int p, int end) {
+    int start = p;
+    while (p < end && isKeyChar(buf[p])) {
+      p++;
+    }
+    return p > start && p < end && buf[p] == '=';
+  }
+
+  private static boolean isKeyChar(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '.' || b == '-' || b == '[' || b == ']';
+  }
+
+  private static boolean startsWith(byte[] buf, int p, int end, byte[] prefix) {
+    if (end - p < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (buf[p + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private byte[] scratch(int len) {
+    if (scratch.length < len) {
+      scratch = new byte[Math.max(len, scratch.length * 2)];
+    }
+    return scratch;
+  }
+
+  /**
+   * Header escapes: \| and \\
+   */
+  private String unescapeHeader(byte[] buf, int start, int end) {
+    byte[] out = scratch(end - start);
+    int n = 0;
+    for (int i = start; i < end; i++) {
+      byte b = buf[i];
+      if (b == '\\' && i + 1 < end && (buf[i + 1] == '|' || buf[i + 1] == '\\')) {
+        b = buf[++i];
+      }
+      out[n++] = b;
+    }
+    return new String(out, 0, n, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Extension escapes: \=, \\, \n, \r
+   */
+  private String unescapeValue(byte[] buf, int start, int end) {
+    byte[] out = scratch(end - start);
+    int n = 0;
+    for (int i = start; i < end; i++) {
+      byte b = buf[i];
+      if (b == '\\' && i + 1 < end) {
+        byte next = buf[i + 1];
+        if (next == '=' || next == '\\') {
+          b = next;
+          i++;
+        } else if (next == 'n') {
+          b = '\n';
+          i++;
+        } else if (next == 'r') {
+          b = '\r';
+          i++;
+        }
+      }
+      out[n++] = b;
+    }
+    return new String(out, 0, n, StandardCharsets.UTF_8);
+  }
+
+}
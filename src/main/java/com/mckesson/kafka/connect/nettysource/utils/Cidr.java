@@ -0,0 +1,125 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource.utils;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * IPv4/IPv6 address range in CIDR notation: {@code 10.0.0.0/8}, {@code 2001:db8::/32}.
+ * Address without prefix length is a single host range.
+ */
+public final class Cidr {
+
+  private final byte[] network;
+  private final int prefixLength;
+  private final String text;
+
+  private Cidr(byte[] network, int prefixLength, String text) {
+    this.network = network;
+    this.prefixLength = prefixLength;
+    this.text = text;
+  }
+
+  /**
+   * @throws IllegalArgumentException if value is not valid CIDR
+   */
+  public static Cidr parse(String value) {
+    if (value == null) {
+      throw new IllegalArgumentException("null CIDR");
+    }
+    String v = value.trim();
+    int slash = v.indexOf('/');
+    InetAddress addr = InetAddresses.forString(slash < 0 ? v : v.substring(0, slash));
+    int maxLength = addr.getAddress().length * 8;
+    int prefixLength = maxLength;
+    if (slash >= 0) {
+      try {
+        prefixLength = Integer.parseInt(v.substring(slash + 1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid prefix length: " + value);
+      }
+      if (prefixLength < 0 || prefixLength > maxLength) {
+        throw new IllegalArgumentException("Invalid prefix length: " + value);
+      }
+    }
+    return new Cidr(mask(addr.getAddress(), prefixLength), prefixLength, v);
+  }
+
+  public boolean matches(InetAddress address) {
+    byte[] bytes = address.getAddress();
+    if (bytes.length != network.length) {
+      return false;
+    }
+    int fullBytes = prefixLength / 8;
+    for (int i = 0; i < fullBytes; i++) {
+      if (bytes[i] != network[i]) {
+        return false;
+      }
+    }
+    int rem = prefixLength % 8;
+    if (rem == 0) {
+      return true;
+    }
+    int m = 0xff << (8 - rem);
+    return (bytes[fullBytes] & m) == (network[fullBytes] & m);
+  }
+
+  public int getPrefixLength() {
+    return prefixLength;
+  }
+
+  /**
+   * Copy of address bytes with host bits cleared
+   */
+  public static byte[] mask(byte[] address, int prefixLength) {
+    byte[] masked = Arrays.copyOf(address, address.length);
+    for (int i = 0; i < masked.length; i++) {
+      int bits = prefixLength - i * 8;
+      if (bits <= 0) {
+        masked[i] = 0;
+      } else if (bits < 8) {
+        masked[i] = (byte) (masked[i] & (0xff << (8 - bits)));
+      }
+    }
+    return masked;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Cidr)) {
+      return false;
+    }
+    Cidr other = (Cidr) o;
+    return prefixLength == other.prefixLength && Arrays.equals(network, other.network);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(network) + prefixLength;
+  }
+
+  @Override
+  public String toString() {
+    return text;
+  }
+
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Grok-style expression compiled to a single {@link Pattern}.
+ *
+ * References: {@code %{NAME}}, {@code %{NAME:field}} and {@code %{NAME:field:type}},
+ * type is {@code int}, {@code long}, {@code float} or {@code double}. Everything else is regex.
+ * Expression is matched from the start of the line ({@link Matcher#lookingAt()}), so the
+ * leading literal of the expression is a required line prefix, see {@link #getLiteralPrefix()}.
+ *
+ * Thread safe, matchers are cached per thread.
+ */
+public final class Grok {
+
+  /**
+   * Subset of the logstash core patterns
+   */
+  public static final Map<String, String> BUILTIN_DEFINITIONS;
+
+  static {
+    Map<String, String> d = new HashMap<>();
+    d.put("USERNAME", "[a-zA-Z0-9._-]+");
+    d.put("USER", "%{USERNAME}");
+    d.put("INT", "(?:[+-]?(?:[0-9]+))");
+    d.put("BASE10NUM", "(?<![0-9.+-])(?>[+-]?(?:(?:[0-9]+(?:\\.[0-9]+)?)|(?:\\.[0-9]+)))");
+    d.put("NUMBER", "(?:%{BASE10NUM})");
+    d.put("POSINT", "\\b(?:[1-9][0-9]*)\\b");
+    d.put("NONNEGINT", "\\b(?:[0-9]+)\\b");
+    d.put("WORD", "\\b\\w+\\b");
+    d.put("NOTSPACE", "\\S+");
+    d.put("SPACE", "\\s*");
+    d.put("DATA", ".*?");
+    d.put("GREEDYDATA", ".*");
+    d.put("QUOTEDSTRING", "\"(?:[^\"\\\\]|\\\\.)*\"");
+    d.put("UUID", "[A-Fa-f0-9]{8}-(?:[A-Fa-f0-9]{4}-){3}[A-Fa-f0-9]{12}");
+    d.put("IPV4", "(?<![0-9])(?:(?:25[0-5]|2[0-4][0-9]|[0-1]?[0-9]{1,2})\\.){3}(?:25[0-5]|2[0-4][0-9]|[0-1]?[0-9]{1,2})(?![0-9])");
+    d.put("IPV6", "(?:[0-9A-Fa-f]{0,4}:){2,7}[0-9A-Fa-f]{0,4}");
+    d.put("IP", "(?:%{IPV6}|%{IPV4})");
+    d.put("HOSTNAME", "\\b(?:[0-9A-Za-z][0-9A-Za-z-]{0,62})(?:\\.(?:[0-9A-Za-z][0-9A-Za-z-]{0,62}))*(?:\\.?|\\b)");
+    d.put("IPORHOST", "(?:%{IP}|%{HOSTNAME})");
+    d.put("HOSTPORT", "%{IPORHOST}:%{POSINT}");
+    d.put("PATH", "(?:/[^\\s]*)+");
+    d.put("URIPATH", "(?:/[A-Za-z0-9$.+!*'(){},~:;=@#%&_\\-]*)+");
+    d.put("LOGLEVEL", "(?:[Aa]lert|ALERT|[Tt]race|TRACE|[Dd]ebug|DEBUG|[Nn]otice|NOTICE|[Ii]nfo|INFO|[Ww]arn?(?:ing)?|WARN?(?:ING)?|[Ee]rr?(?:or)?|ERR?(?:OR)?"
+        + "|[Cc]rit?(?:ical)?|CRIT?(?:ICAL)?|[Ff]atal|FATAL|[Ss]evere|SEVERE|EMERG(?:ENCY)?|[Ee]merg(?:ency)?)");
+    d.put("MONTH", "\\b(?:Jan|Feb|Mar|Apr|May|Jun|Jul|Aug|Sep|Oct|Nov|Dec)[a-z]*\\b");
+    d.put("MONTHNUM", "(?:0?[1-9]|1[0-2])");
+    d.put("MONTHDAY", "(?:0[1-9]|[12][0-9]|3[01]|[1-9])");
+    d.put("YEAR", "(?>\\d\\d){1,2}");
+    d.put("HOUR", "(?:2[0123]|[01]?[0-9])");
+    d.put("MINUTE", "(?:[0-5][0-9])");
+    d.put("SECOND", "(?:(?:[0-5]?[0-9]|60)(?:[:.,][0-9]+)?)");
+    d.put("TIME", "%{HOUR}:%{MINUTE}(?::%{SECOND})?(?![0-9])");
+    d.put("ISO8601_TIMEZONE", "(?:Z|[+-]%{HOUR}(?::?%{MINUTE}))");
+    d.put("TIMESTAMP_ISO8601", "%{YEAR}-%{MONTHNUM}-%{MONTHDAY}[T ]%{HOUR}:?%{MINUTE}(?::?%{SECOND})?%{ISO8601_TIMEZONE}?");
+    d.put("SYSLOGTIMESTAMP", "%{MONTH} +%{MONTHDAY} %{TIME}");
+    d.put("HTTPDATE", "%{MONTHDAY}/%{MONTH}/%{YEAR}:%{TIME} %{INT}");
+    BUILTIN_DEFINITIONS = Collections.unmodifiableMap(d);
+  }
+
+  public enum FieldType {
+    STRING, LONG, DOUBLE
+  }
+
+  private static final Pattern REFERENCE = Pattern.compile("%\\{(\\w+)(?::([^:}]+))?(?::(\\w+))?\\}");
+  private static final int MAX_DEPTH = 20;
+
+  private final String expression;
+  private final Pattern pattern;
+  private final String[] fields;
+  private final FieldType[] types;
+  private final String[] groups;
+  private final String literalPrefix;
+  private final ThreadLocal<Matcher> matchers;
+
+  private Grok(String expression, Pattern pattern, String[] fields, FieldType[] types, String literalPrefix) {
+    this.expression = expression;
+    this.pattern = pattern;
+    this.fields = fields;
+    this.types = types;
+    this.groups = new String[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      groups[i] = groupName(i);
+    }
+    this.literalPrefix = literalPrefix;
+    this.matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+  }
+
+  /**
+   * @param definitions named patterns, {@link #BUILTIN_DEFINITIONS} are used for names not found there
+   * @throws IllegalArgumentException if reference is unknown, recursive or regex is invalid
+   */
+  public static Grok compile(String expression, Map<String, String> definitions) {
+    List<String> fields = new ArrayList<>();
+    List<FieldType> types = new ArrayList<>();
+    String regex = expand(expression, definitions, fields, types, 0);
+    Pattern pattern = Pattern.compile(regex);
+    return new Grok(expression, pattern, fields.toArray(new String[0]), types.toArray(new FieldType[0]), literalPrefix(expression));
+  }
+
+  private static String expand(String expr, Map<String, String> definitions, List<String> fields, List<FieldType> types, int depth) {
+    if (depth > MAX_DEPTH) {
+      throw new IllegalArgumentException("Too deep or recursive pattern references: " + expr);
+    }
+    Matcher m = REFERENCE.matcher(expr);
+    StringBuilder sb = new StringBuilder();
+    int last = 0;
+    while (m.find()) {
+      sb.append(expr, last, m.start());
+      String name = m.group(1);
+      String def = definitions.get(name);
+      if (def == null) {
+        def = BUILTIN_DEFINITIONS.get(name);
+      }
+      if (def == null) {
+        throw new IllegalArgumentException("Unknown pattern: " + name);
+      }
+      String inner = expand(def, definitions, fields, types, depth + 1);
+      String field = m.group(2);
+      if (field == null) {
+        sb.append("(?:").append(inner).append(')');
+      } else {
+        sb.append("(?<").append(groupName(fields.size())).append('>').append(inner).append(')');
+        fields.add(field);
+        types.add(fieldType(m.group(3)));
+      }
+      last = m.end();
+    }
+    sb.append(expr, last, expr.length());
+    return sb.toString();
+  }
+
+  private static String groupName(int i) {
+    return "g" + i;
+  }
+
+  private static FieldType fieldType(String type) {
+    if (type == null) {
+      return FieldType.STRING;
+    }
+    switch (type) {
+      case "int":
+      case "long":
+        return FieldType.LONG;
+      case "float":
+      case "double":
+        return FieldType.DOUBLE;
+      default:
+        throw new IllegalArgumentException("Unknown field type: " + type);
+    }
+  }
+
+  /**
+   * Literal every matching line starts with, empty if there is none
+   */
+  static String literalPrefix(String expr) {
+    if (hasTopLevelAlternation(expr)) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder();
+    int i = expr.startsWith("^") ? 1 : 0;
+    while (i < expr.length()) {
+      char c = expr.charAt(i);
+      if (c == '\\' && i + 1 < expr.length()) {
+        char n = expr.charAt(i + 1);
+        if (Character.isLetterOrDigit(n)) {
+          break;
+        }
+        sb.append(n);
+        i += 2;
+        continue;
+      }
+      if (c == '%' && i + 1 < expr.length() && expr.charAt(i + 1) == '{') {
+        break;
+      }
+      if (".[]()*+?{}|^$".indexOf(c) >= 0) {
+        // quantifier which allows zero occurrences makes the last char optional
+        if ((c == '*' || c == '?' || c == '{') && sb.length() > 0) {
+          sb.setLength(sb.length() - 1);
+        }
+        break;
+      }
+      sb.append(c);
+      i++;
+    }
+    return sb.toString();
+  }
+
+  private static boolean hasTopLevelAlternation(String expr) {
+    int depth = 0;
+    boolean inClass = false;
+    for (int i = 0; i < expr.length(); i++) {
+      char c = expr.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (inClass) {
+        inClass = c != ']';
+      } else if (c == '[') {
+        inClass = true;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '|' && depth == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Matches from the start of the line and puts captured fields into the map.
+   * Fields which are not captured or can't be converted to the type are skipped.
+   *
+   * @return false if line doesn't match
+   */
+  public boolean match(CharSequence line, Map<String, Object> out) {
+    Matcher m = matchers.get();
+    m.reset(line);
+    try {
+      if (!m.lookingAt()) {
+        return false;
+      }
+      for (int i = 0; i < fields.length; i++) {
+        String value = m.group(groups[i]);
+        if (value != null) {
+          Object converted = convert(value, types[i]);
+          if (converted != null) {
+            out.put(fields[i], converted);
+          }
+        }
+      }
+      return true;
+    } finally {
+      // do not keep reference to the line
+      m.reset("");
+    }
+  }
+
+  private static Object convert(String value, FieldType type) {
+    try {
+      switch (type) {
+        case LONG:
+          return Long.valueOf(value.trim());
+        case DOUBLE:
+          return Double.valueOf(value.trim());
+        default:
+          return value;
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  public String getExpression() {
+    return expression;
+  }
+
+  public Pattern getPattern() {
+    return pattern;
+  }
+
+  public String getLiteralPrefix() {
+    return literalPrefix;
+  }
+
+  public String[] getFields() {
+    return fields.clone();
+  }
+
+}
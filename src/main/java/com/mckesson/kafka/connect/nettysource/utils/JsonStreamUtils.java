@@ -0,0 +1,83 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource.utils;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Helpers to locate values in JSON input with a streaming parser, without building a tree.
+ */
+public final class JsonStreamUtils {
+
+  /**
+   * Thread safe, shared by all handlers
+   */
+  public static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private JsonStreamUtils() {
+  }
+
+  /**
+   * Moves parser to the first token of the value at the pointer
+   *
+   * @return the token, null if pointer is missing
+   */
+  public static JsonToken moveTo(JsonParser parser, JsonPointer pointer) throws IOException {
+    JsonToken token = parser.nextToken();
+    while (token != null && !pointer.matches()) {
+      if (token == JsonToken.START_OBJECT) {
+        String name = pointer.getMatchingProperty();
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME && !name.equals(parser.getCurrentName())) {
+          parser.nextToken();
+          parser.skipChildren();
+        }
+        token = token == JsonToken.FIELD_NAME ? parser.nextToken() : null;
+      } else if (token == JsonToken.START_ARRAY && pointer.getMatchingIndex() >= 0) {
+        int index = pointer.getMatchingIndex();
+        int i = 0;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null && i++ < index) {
+          parser.skipChildren();
+        }
+        token = token == JsonToken.END_ARRAY ? null : token;
+      } else {
+        return null;
+      }
+      pointer = pointer.tail();
+    }
+    return token;
+  }
+
+  /**
+   * Skips the current value.
+   *
+   * @return byte offset after the value, parser must be created over bytes
+   */
+  public static int valueEnd(JsonParser parser, JsonToken token) throws IOException {
+    if (token.isStructStart()) {
+      parser.skipChildren();
+    } else if (token == JsonToken.VALUE_STRING) {
+      // string is read lazily, make parser reach the closing quote
+      parser.getTextLength();
+    }
+    return (int) parser.getCurrentLocation().getByteOffset();
+  }
+
+}
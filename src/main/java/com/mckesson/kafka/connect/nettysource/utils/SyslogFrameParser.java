@@ -0,0 +1,375 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource.utils;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mckesson.kafka.connect.utils.DateTimeUtils;
+
+/**
+ * Single pass RFC 3164 / RFC 5424 header parser working on frame bytes.
+ *
+ * Field positions are recorded into a reusable {@link Cursor}, Strings are created only
+ * when requested from the cursor. Malformed input is reported by the return value,
+ * no exceptions are thrown while parsing. Timestamps are parsed with per thread
+ * cache of {@link DateTimeUtils}.
+ *
+ * Field semantics follow {@code SyslogEvent}: message is the text after the timestamp
+ * (hostname included), host is the first token of the message.
+ */
+public final class SyslogFrameParser {
+
+  public static final long NO_TIMESTAMP = DateTimeUtils.NO_TIMESTAMP;
+
+  private SyslogFrameParser() {
+  }
+
+  /**
+   * Reusable parse result, not thread safe
+   */
+  public static final class Cursor {
+    private byte[] buf;
+    private int end;
+    private int facility;
+    private int level;
+    private int version;
+    private int tsStart;
+    private int tsEnd;
+    private long timestamp;
+    private int hostStart;
+    private int hostEnd;
+    private int msgStart;
+    private int appStart;
+    private int appEnd;
+    private int sdStart;
+    private int sdEnd;
+    private byte[] scratch;
+
+    void reset(byte[] buf, int offset, int length) {
+      this.buf = buf;
+      this.end = offset + length;
+      this.facility = -1;
+      this.level = -1;
+      this.version = 0;
+      this.tsStart = -1;
+      this.tsEnd = -1;
+      this.timestamp = NO_TIMESTAMP;
+      this.hostStart = -1;
+      this.hostEnd = -1;
+      this.msgStart = offset;
+      this.appStart = -1;
+      this.appEnd = -1;
+      this.sdStart = -1;
+      this.sdEnd = -1;
+    }
+
+    public int getFacility() {
+      return facility;
+    }
+
+    public int getLevel() {
+      return level;
+    }
+
+    /**
+     * @return 1 for RFC 5424 messages, 0 otherwise
+     */
+    public int getVersion() {
+      return version;
+    }
+
+    /**
+     * @return true if message has timestamp field, it may be not parsable
+     */
+    public boolean hasTimestampField() {
+      return tsStart >= 0;
+    }
+
+    /**
+     * @return epoch millis or {@link SyslogFrameParser#NO_TIMESTAMP}
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public String getTimestampField(Charset charset) {
+      return tsStart < 0 ? null : new String(buf, tsStart, tsEnd - tsStart, charset);
+    }
+
+    public String getHost(Charset charset) {
+      return hostStart < 0 ? null : new String(buf, hostStart, hostEnd - hostStart, charset);
+    }
+
+    public int getMessageOffset() {
+      return msgStart;
+    }
+
+    public int getMessageLength() {
+      return end - msgStart;
+    }
+
+    public String getMessage(Charset charset) {
+      return new String(buf, msgStart, end - msgStart, charset);
+    }
+
+    /**
+     * @return RFC 5424 APP-NAME or null
+     */
+    public String getAppName(Charset charset) {
+      return appStart < 0 ? null : new String(buf, appStart, appEnd - appStart, charset);
+    }
+
+    /**
+     * @return true if RFC 5424 STRUCTURED-DATA is present (not NILVALUE)
+     */
+    public boolean hasStructuredData() {
+      return sdStart >= 0;
+    }
+
+    /**
+     * Decodes STRUCTURED-DATA captured by the parser.
+     *
+     * @return SD-ID to map of PARAM-NAME to PARAM-VALUE, null if no structured data
+     */
+    public Map<String, Map<String, String>> getStructuredData() {
+      if (sdStart < 0) {
+        return null;
+      }
+      Map<String, Map<String, String>> result = new LinkedHashMap<>();
+      int p = sdStart;
+      while (p < sdEnd && buf[p] == '[') {
+        p++;
+        int idEnd = p;
+        while (idEnd < sdEnd && buf[idEnd] != ' ' && buf[idEnd] != ']') {
+          idEnd++;
+        }
+        Map<String, String> params = result.computeIfAbsent(ascii(p, idEnd), k -> new LinkedHashMap<>());
+        p = idEnd;
+        while (p < sdEnd && buf[p] == ' ') {
+          p++;
+          int eq = p;
+          while (eq < sdEnd && buf[eq] != '=' && buf[eq] != ']') {
+            eq++;
+          }
+          if (eq + 1 >= sdEnd || buf[eq] != '=' || buf[eq + 1] != '"') {
+            break;
+          }
+          String name = ascii(p, eq);
+          p = eq + 2;
+          int valueStart = p;
+          boolean escaped = false;
+          while (p < sdEnd && buf[p] != '"') {
+            if (buf[p] == '\\') {
+              escaped = true;
+              p++;
+            }
+            p++;
+          }
+          int valueEnd = Math.min(p, sdEnd);
+          params.put(name, escaped ? unescape(valueStart, valueEnd) : new String(buf, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8));
+          p++;
+        }
+        while (p < sdEnd && buf[p] != ']') {
+          p++;
+        }
+        p++;
+      }
+      return result;
+    }
+
+    private String ascii(int from, int to) {
+      return new String(buf, from, to - from, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * PARAM-VALUE escapes: \", \\ and \], other backslashes are kept
+     */
+    private String unescape(int from, int to) {
+      if (scratch == null || scratch.length < to - from) {
+        scratch = new byte[Math.max(to - from, 256)];
+      }
+      int n = 0;
+      for (int i = from; i < to; i++) {
+        byte b = buf[i];
+        if (b == '\\' && i + 1 < to && (buf[i + 1] == '"' || buf[i + 1] == '\\' || buf[i + 1] == ']')) {
+          b = buf[++i];
+        }
+        scratch[n++] = b;
+      }
+      return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * @return true if all bytes are whitespace or control chars
+   */
+  public static boolean isBlank(byte[] buf, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if ((buf[i] & 0xff) > ' ') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses header of the frame into cursor.
+   *
+   * @return false if frame has no valid PRI part, cursor message is the whole frame then
+   */
+  public static boolean parse(byte[] buf, int offset, int length, Cursor c) {
+    c.reset(buf, offset, length);
+    final int end = offset + length;
+    if (length < 3 || buf[offset] != '<') {
+      return false;
+    }
+
+    // PRI: 1-3 digits
+    int p = offset + 1;
+    int pri = 0;
+    while (p < end && p <= offset + 3 && isDigit(buf[p])) {
+      pri = pri * 10 + (buf[p] - '0');
+      p++;
+    }
+    if (p == offset + 1 || p >= end || buf[p] != '>') {
+      return false;
+    }
+    c.facility = pri >> 3;
+    c.level = pri & 0x07;
+    p++;
+    c.msgStart = p;
+
+    if (end - p >= 2 && buf[p] == '1' && buf[p + 1] == ' ') {
+      parseRfc5424(buf, p + 2, end, c);
+    } else if (end - p > 16) {
+      parseRfc3164Date(buf, p, end, c);
+    }
+    parseHost(buf, c.msgStart, end, c);
+    return true;
+  }
+
+  private static void parseRfc5424(byte[] buf, int p, int end, Cursor c) {
+    c.version = 1;
+    int sp = indexOf(buf, p, end, (byte) ' ');
+    int tsEnd = sp < 0 ? end : sp;
+    if (!(tsEnd - p == 1 && buf[p] == '-')) {
+      c.tsStart = p;
+      c.tsEnd = tsEnd;
+      c.timestamp = DateTimeUtils.parseIso8601Millis(buf, p, tsEnd);
+    }
+    c.msgStart = sp < 0 ? end : sp + 1;
+
+    // HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA, host is taken by parseHost
+    int hostEnd = indexOf(buf, c.msgStart, end, (byte) ' ');
+    if (hostEnd < 0) {
+      return;
+    }
+    int q = hostEnd + 1;
+    int appEnd = indexOf(buf, q, end, (byte) ' ');
+    if (appEnd < 0) {
+      return;
+    }
+    if (!(appEnd - q == 1 && buf[q] == '-')) {
+      c.appStart = q;
+      c.appEnd = appEnd;
+    }
+    int procIdEnd = indexOf(buf, appEnd + 1, end, (byte) ' ');
+    int msgIdEnd = procIdEnd < 0 ? -1 : indexOf(buf, procIdEnd + 1, end, (byte) ' ');
+    if (msgIdEnd < 0 || msgIdEnd + 1 >= end || buf[msgIdEnd + 1] != '[') {
+      return;
+    }
+    // only range is captured here, decoded by cursor on request
+    int sdEnd = scanStructuredData(buf, msgIdEnd + 1, end);
+    if (sdEnd > 0) {
+      c.sdStart = msgIdEnd + 1;
+      c.sdEnd = sdEnd;
+    }
+  }
+
+  /**
+   * @return end of SD-ELEMENTs starting at p or -1 if not terminated
+   */
+  private static int scanStructuredData(byte[] buf, int p, int end) {
+    while (p < end && buf[p] == '[') {
+      p++;
+      boolean quoted = false;
+      while (true) {
+        if (p >= end) {
+          return -1;
+        }
+        byte b = buf[p++];
+        if (quoted) {
+          if (b == '\\') {
+            p++;
+          } else if (b == '"') {
+            quoted = false;
+          }
+        } else if (b == '"') {
+          quoted = true;
+        } else if (b == ']') {
+          break;
+        }
+      }
+    }
+    return p;
+  }
+
+  private static void parseRfc3164Date(byte[] buf, int p, int end, Cursor c) {
+    int tsEnd;
+    long ts;
+    if (isDigit(buf[p])) {
+      // RFC 3339 timestamp in place of RFC 3164 one (rsyslog high precision format)
+      int sp = indexOf(buf, p, end, (byte) ' ');
+      tsEnd = sp < 0 ? end : sp;
+      ts = DateTimeUtils.parseIso8601Millis(buf, p, tsEnd);
+    } else {
+      // "Mmm dd hh:mm:ss" or "Mmm d hh:mm:ss"
+      tsEnd = buf[p + 5] == ' ' ? p + 14 : p + 15;
+      ts = buf[tsEnd] == ' ' ? DateTimeUtils.parseRfc3164Millis(buf, p, tsEnd) : NO_TIMESTAMP;
+    }
+    c.tsStart = p;
+    c.tsEnd = tsEnd;
+    c.timestamp = ts;
+    if (ts != NO_TIMESTAMP) {
+      c.msgStart = tsEnd < end ? tsEnd + 1 : end;
+    }
+  }
+
+  private static void parseHost(byte[] buf, int p, int end, Cursor c) {
+    int sp = indexOf(buf, p, end, (byte) ' ');
+    if (sp > p && !(sp - p == 1 && buf[p] == '-' && c.version == 1)) {
+      c.hostStart = p;
+      c.hostEnd = sp;
+    }
+  }
+
+  private static int indexOf(byte[] buf, int from, int end, byte b) {
+    for (int i = from; i < end; i++) {
+      if (buf[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource.utils;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * xxHash64 of ChannelBuffer bytes, reads the buffer in place.
+ */
+public final class XxHash64 {
+
+  private static final long P1 = 0x9E3779B185EBCA87L;
+  private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long P3 = 0x165667B19E3779F9L;
+  private static final long P4 = 0x85EBCA77C2B2AE63L;
+  private static final long P5 = 0x27D4EB2F165667C5L;
+
+  private XxHash64() {
+  }
+
+  public static long hash(ChannelBuffer buf, int index, int length, long seed) {
+    final int end = index + length;
+    int i = index;
+    long h;
+
+    if (length >= 32) {
+      long v1 = seed + P1 + P2;
+      long v2 = seed + P2;
+      long v3 = seed;
+      long v4 = seed - P1;
+      final int limit = end - 32;
+      do {
+        v1 = round(v1, getLongLE(buf, i));
+        v2 = round(v2, getLongLE(buf, i + 8));
+        v3 = round(v3, getLongLE(buf, i + 16));
+        v4 = round(v4, getLongLE(buf, i + 24));
+        i += 32;
+      } while (i <= limit);
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = mergeRound(h, v1);
+      h = mergeRound(h, v2);
+      h = mergeRound(h, v3);
+      h = mergeRound(h, v4);
+    } else {
+      h = seed + P5;
+    }
+
+    h += length;
+
+    while (i + 8 <= end) {
+      h ^= round(0, getLongLE(buf, i));
+      h = Long.rotateLeft(h, 27) * P1 + P4;
+      i += 8;
+    }
+    if (i + 4 <= end) {
+      h ^= (Integer.reverseBytes(buf.getInt(i)) & 0xFFFFFFFFL) * P1;
+      h = Long.rotateLeft(h, 23) * P2 + P3;
+      i += 4;
+    }
+    while (i < end) {
+      h ^= (buf.getByte(i) & 0xFF) * P5;
+      h = Long.rotateLeft(h, 11) * P1;
+      i++;
+    }
+
+    return avalanche(h);
+  }
+
+  /**
+   * Mixes a single long value, used to derive seeds
+   */
+  public static long hash(long value, long seed) {
+    long h = seed + P5 + 8;
+    h ^= round(0, value);
+    h = Long.rotateLeft(h, 27) * P1 + P4;
+    return avalanche(h);
+  }
+
+  private static long getLongLE(ChannelBuffer buf, int index) {
+    return Long.reverseBytes(buf.getLong(index));
+  }
+
+  private static long round(long acc, long input) {
+    acc += input * P2;
+    acc = Long.rotateLeft(acc, 31);
+    return acc * P1;
+  }
+
+  private static long mergeRound(long acc, long val) {
+    acc ^= round(0, val);
+    return acc * P1 + P4;
+  }
+
+  private static long avalanche(long h) {
+    h ^= h >>> 33;
+    h *= P2;
+    h ^= h >>> 29;
+    h *= P3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+}
@@ -22,6 +22,7 @@ import org.apache.kafka.common.config.ConfigDef.Validator;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.connect.transforms.util.SimpleConfig;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -74,6 +75,29 @@ public class ConfigUtils {
     return new ValidEnum<E>(enumClass);
   }
 
+  public static Validator validInt(Integer... values) {
+    return new ValidInt(values);
+  }
+
+  public static class ValidInt implements Validator {
+    List<Integer> validValues;
+
+    public ValidInt(Integer... values) {
+      this.validValues = Arrays.asList(values);
+    }
+
+    @Override
+    public void ensureValid(final String name, final Object value) {
+      if (value != null && !validValues.contains(value)) {
+        throw new ConfigException(name, value, "Value must be one of: " + validValues);
+      }
+    }
+
+    public String toString() {
+      return validValues.toString();
+    }
+  }
+
   public static class ValidEnum<E extends Enum<E>> implements Validator {
     Class<E> enumClass;
     Set<String> validNames;
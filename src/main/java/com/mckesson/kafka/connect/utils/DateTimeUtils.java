@@ -38,6 +38,25 @@ public class DateTimeUtils {
       DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSz").withZone(ZoneOffset.UTC),
       DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSSz").withZone(ZoneOffset.UTC) };
 
+  /**
+   * Returned by timestamp parsers for invalid input
+   */
+  public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+  private static final long NANOS_PER_SECOND = 1000_000_000L;
+  private static final long NANOS_PER_MILLI = 1000_000L;
+
+  private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+  private static final TimestampCache ISO8601_CACHE = new TimestampCache(256,
+      (buf, start, end) -> toMillis(parseIso8601Nanos(buf, start, end, true)));
+  private static final TimestampCache ISO8601_LOCAL_CACHE = new TimestampCache(256,
+      (buf, start, end) -> parseIso8601Nanos(buf, start, end, false));
+  private static final TimestampCache RFC3164_CACHE = new TimestampCache(256, DateTimeUtils::parseRfc3164);
+
+  // year, start and end millis of current year in local zone
+  private static volatile long[] currentYear = {0, 0, 0};
+
   public static LocalDateTime parseDateTime(String dtString) {
     return parseDateTime(dtString, null);
   }
@@ -51,6 +70,10 @@ public class DateTimeUtils {
       throw new NullPointerException("null DateTime string");
     }
     if (formatter == null) {
+      long localNanos = ISO8601_LOCAL_CACHE.parse(dtString, 0);
+      if (localNanos != NO_TIMESTAMP) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(localNanos, NANOS_PER_SECOND), (int) Math.floorMod(localNanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+      }
       DateTimeParseException ex = null;
       for (DateTimeFormatter dtf : FORMATTERS) {
         try {
@@ -233,4 +256,259 @@ public class DateTimeUtils {
     }
   }
 
+  /**
+   * Lenient ISO-8601 parser, results are cached per thread.
+   * Accepts {@code yyyy-MM-dd'T'HH:mm:ss[.fraction][zone]} with any number of fraction digits,
+   * 'T' or space separator and zone as {@code Z}, {@code +hh}, {@code +hhmm}, {@code +hh:mm}, {@code UTC}, {@code GMT}.
+   * Without zone UTC is assumed.
+   *
+   * @return epoch millis or {@link #NO_TIMESTAMP}
+   */
+  public static long parseIso8601Millis(byte[] buf, int start, int end) {
+    return ISO8601_CACHE.parse(buf, start, end, 0);
+  }
+
+  /**
+   * @see #parseIso8601Millis(byte[], int, int)
+   */
+  public static long parseIso8601Millis(CharSequence chars) {
+    return ISO8601_CACHE.parse(chars, 0);
+  }
+
+  /**
+   * RFC 3164 timestamp {@code Mmm dd hh:mm:ss} (or {@code Mmm d hh:mm:ss}) in local zone and current year,
+   * results are cached per thread.
+   *
+   * @return epoch millis or {@link #NO_TIMESTAMP}
+   */
+  public static long parseRfc3164Millis(byte[] buf, int start, int end) {
+    return RFC3164_CACHE.parse(buf, start, end, currentYear()[1]);
+  }
+
+  /**
+   * @see #parseRfc3164Millis(byte[], int, int)
+   */
+  public static long parseRfc3164Millis(CharSequence chars) {
+    return RFC3164_CACHE.parse(chars, currentYear()[1]);
+  }
+
+  private static long parseRfc3164(byte[] buf, int start, int end) {
+    int len = end - start;
+    if (len < 14 || len > 15) {
+      return NO_TIMESTAMP;
+    }
+    int month = month(buf[start], buf[start + 1], buf[start + 2]);
+    if (month < 0 || buf[start + 3] != ' ') {
+      return NO_TIMESTAMP;
+    }
+    int p = start + 4;
+    int day;
+    if (len == 14) {
+      day = digit(buf[p]);
+      p += 1;
+    } else if (buf[p] == ' ') {
+      day = digit(buf[p + 1]);
+      p += 2;
+    } else {
+      day = digits2(buf, p);
+      p += 2;
+    }
+    if (buf[p] != ' ' || buf[p + 3] != ':' || buf[p + 6] != ':') {
+      return NO_TIMESTAMP;
+    }
+    int hour = digits2(buf, p + 1);
+    int minute = digits2(buf, p + 4);
+    int second = digits2(buf, p + 7);
+
+    int year = (int) currentYear()[0];
+    if (!validDateTime(year, month, day, hour, minute, second)) {
+      return NO_TIMESTAMP;
+    }
+    LocalDateTime local = LocalDateTime.of(year, month, day, hour, minute, Math.min(second, 59));
+    return local.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+
+  /**
+   * @param applyOffset false - zone is validated but ignored, result is local date time as epoch nanos in UTC
+   * @return epoch nanos or {@link #NO_TIMESTAMP}, years out of nanos range are not supported
+   */
+  private static long parseIso8601Nanos(byte[] buf, int start, int end, boolean applyOffset) {
+    if (end - start < 19 || buf[start + 4] != '-' || buf[start + 7] != '-' || buf[start + 13] != ':' || buf[start + 16] != ':') {
+      return NO_TIMESTAMP;
+    }
+    byte sep = buf[start + 10];
+    if (sep != 'T' && sep != 't' && sep != ' ') {
+      return NO_TIMESTAMP;
+    }
+    int century = digits2(buf, start);
+    int yy = digits2(buf, start + 2);
+    int year = century < 0 || yy < 0 ? -1 : century * 100 + yy;
+    int month = digits2(buf, start + 5);
+    int day = digits2(buf, start + 8);
+    int hour = digits2(buf, start + 11);
+    int minute = digits2(buf, start + 14);
+    int second = digits2(buf, start + 17);
+    if (year < 1678 || year > 2261 || !validDateTime(year, month, day, hour, minute, second)) {
+      return NO_TIMESTAMP;
+    }
+
+    int p = start + 19;
+    long nanos = 0;
+    if (p < end && (buf[p] == '.' || buf[p] == ',')) {
+      p++;
+      int digits = 0;
+      while (p < end && buf[p] >= '0' && buf[p] <= '9') {
+        if (digits < 9) {
+          nanos = nanos * 10 + (buf[p] - '0');
+        }
+        digits++;
+        p++;
+      }
+      if (digits == 0) {
+        return NO_TIMESTAMP;
+      }
+      for (int i = digits; i < 9; i++) {
+        nanos *= 10;
+      }
+    }
+
+    int offsetSeconds = 0;
+    int zoneLen = end - p;
+    if (zoneLen > 0) {
+      byte z = buf[p];
+      if (z == '+' || z == '-') {
+        int oh = zoneLen >= 3 ? digits2(buf, p + 1) : -1;
+        int om;
+        if (zoneLen == 6 && buf[p + 3] == ':') {
+          om = digits2(buf, p + 4);
+        } else if (zoneLen == 5) {
+          om = digits2(buf, p + 3);
+        } else if (zoneLen == 3) {
+          om = 0;
+        } else {
+          return NO_TIMESTAMP;
+        }
+        if (oh < 0 || oh > 18 || om < 0 || om > 59) {
+          return NO_TIMESTAMP;
+        }
+        offsetSeconds = (z == '-' ? -1 : 1) * (oh * 3600 + om * 60);
+      } else if (!(zoneLen == 1 && (z == 'Z' || z == 'z')) && !isUtcName(buf, p, zoneLen)) {
+        return NO_TIMESTAMP;
+      }
+    }
+
+    long epochSecond = daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + Math.min(second, 59);
+    if (applyOffset) {
+      epochSecond -= offsetSeconds;
+    }
+    return epochSecond * NANOS_PER_SECOND + nanos;
+  }
+
+  private static boolean isUtcName(byte[] buf, int p, int len) {
+    return len == 3 && ((buf[p] == 'U' && buf[p + 1] == 'T' && buf[p + 2] == 'C') || (buf[p] == 'G' && buf[p + 1] == 'M' && buf[p + 2] == 'T'));
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos == NO_TIMESTAMP ? NO_TIMESTAMP : Math.floorDiv(nanos, NANOS_PER_MILLI);
+  }
+
+  private static long[] currentYear() {
+    long now = System.currentTimeMillis();
+    long[] y = currentYear;
+    if (now < y[1] || now >= y[2]) {
+      ZoneId zone = ZoneId.systemDefault();
+      ZonedDateTime start = LocalDateTime.now(zone).withDayOfYear(1).toLocalDate().atStartOfDay(zone);
+      y = new long[] {start.getYear(), start.toInstant().toEpochMilli(), start.plusYears(1).toInstant().toEpochMilli()};
+      currentYear = y;
+    }
+    return y;
+  }
+
+  private static boolean validDateTime(int year, int month, int day, int hour, int minute, int second) {
+    return month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+        && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 60;
+  }
+
+  /**
+   * Days since 1970-01-01 of the proleptic Gregorian date
+   */
+  private static long daysFromCivil(int year, int month, int day) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yoe = y - era * 400;
+    long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+      return 29;
+    }
+    return DAYS_IN_MONTH[month - 1];
+  }
+
+  /**
+   * @return month number of English abbreviation (case insensitive) or -1
+   */
+  private static int month(byte b0, byte b1, byte b2) {
+    int c0 = b0 | 0x20;
+    int c1 = b1 | 0x20;
+    int c2 = b2 | 0x20;
+    switch (c0) {
+      case 'j':
+        if (c1 == 'a' && c2 == 'n') {
+          return 1;
+        }
+        if (c1 == 'u' && c2 == 'n') {
+          return 6;
+        }
+        if (c1 == 'u' && c2 == 'l') {
+          return 7;
+        }
+        return -1;
+      case 'f':
+        return c1 == 'e' && c2 == 'b' ? 2 : -1;
+      case 'm':
+        if (c1 == 'a' && c2 == 'r') {
+          return 3;
+        }
+        if (c1 == 'a' && c2 == 'y') {
+          return 5;
+        }
+        return -1;
+      case 'a':
+        if (c1 == 'p' && c2 == 'r') {
+          return 4;
+        }
+        if (c1 == 'u' && c2 == 'g') {
+          return 8;
+        }
+        return -1;
+      case 's':
+        return c1 == 'e' && c2 == 'p' ? 9 : -1;
+      case 'o':
+        return c1 == 'c' && c2 == 't' ? 10 : -1;
+      case 'n':
+        return c1 == 'o' && c2 == 'v' ? 11 : -1;
+      case 'd':
+        return c1 == 'e' && c2 == 'c' ? 12 : -1;
+      default:
+        return -1;
+    }
+  }
+
+  private static int digit(byte b) {
+    return b >= '0' && b <= '9' ? b - '0' : -1;
+  }
+
+  /**
+   * @return two digits value or -1
+   */
+  private static int digits2(byte[] buf, int p) {
+    int d1 = digit(buf[p]);
+    int d2 = digit(buf[p + 1]);
+    return d1 < 0 || d2 < 0 ? -1 : d1 * 10 + d2;
+  }
+
 }
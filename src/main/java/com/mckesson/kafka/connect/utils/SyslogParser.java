@@ -154,7 +154,7 @@ public final class SyslogParser {
 
     if (!isRfc5424) {
       // Parse rfc 3164 date
-      syslogMessage.put(SYSLOG_TIMESTAMP, parseRfc3164Date(byteBuffer).getTimeInMillis());
+      syslogMessage.put(SYSLOG_TIMESTAMP, parseRfc3164Millis(byteBuffer));
     } else {
 
       charFound = (char) byteBuffer.get();
@@ -172,11 +172,16 @@ public final class SyslogParser {
         date.append(charFound);
       }
 
-      try {
-        Calendar ts = DatatypeConverter.parseDateTime(date.toString());
-        syslogMessage.put(SYSLOG_TIMESTAMP, ts.getTimeInMillis());
-      } catch (Exception e) {
-        LOG.trace("Invalid syslog message, failed to parse date: {}", date.toString(), e);
+      long millis = DateTimeUtils.parseIso8601Millis(date);
+      if (millis != DateTimeUtils.NO_TIMESTAMP) {
+        syslogMessage.put(SYSLOG_TIMESTAMP, millis);
+      } else {
+        try {
+          Calendar ts = DatatypeConverter.parseDateTime(date.toString());
+          syslogMessage.put(SYSLOG_TIMESTAMP, ts.getTimeInMillis());
+        } catch (Exception e) {
+          LOG.trace("Invalid syslog message, failed to parse date: {}", date.toString(), e);
+        }
       }
 
     }
@@ -234,6 +239,27 @@ public final class SyslogParser {
     return syslogMessage;
   }
 
+  /**
+   * Cached parse of "Mmm dd hh:mm:ss " at buffer position, falls back to {@link #parseRfc3164Date(ByteBuffer)}
+   */
+  private static long parseRfc3164Millis(ByteBuffer byteBuffer) {
+    int pos = byteBuffer.position();
+    int remaining = byteBuffer.remaining();
+    if (byteBuffer.hasArray() && remaining > 15) {
+      byte[] arr = byteBuffer.array();
+      int start = byteBuffer.arrayOffset() + pos;
+      int len = arr[start + 5] == ' ' ? 14 : 15;
+      if (arr[start + len] == ' ') {
+        long millis = DateTimeUtils.parseRfc3164Millis(arr, start, start + len);
+        if (millis != DateTimeUtils.NO_TIMESTAMP) {
+          byteBuffer.position(pos + len + 1);
+          return millis;
+        }
+      }
+    }
+    return parseRfc3164Date(byteBuffer).getTimeInMillis();
+  }
+
   private static Calendar parseRfc3164Date(ByteBuffer byteBuffer) {
     char charFound;
 
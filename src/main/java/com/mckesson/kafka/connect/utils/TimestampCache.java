@@ -0,0 +1,130 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cache of parsed timestamps keyed by raw timestamp bytes.
+ *
+ * Log timestamps repeat at second granularity across many messages, so a small
+ * direct-mapped table catches most of them: a hit costs a hash and a compare.
+ * Every thread has its own table, no locking. Entries are additionally tagged by
+ * a caller defined value (e.g. current year for timestamps without year),
+ * entry with other tag is a miss.
+ */
+public final class TimestampCache {
+
+  @FunctionalInterface
+  public interface Parser {
+    long parse(byte[] buf, int start, int end);
+  }
+
+  /**
+   * Longer keys are not cached
+   */
+  public static final int MAX_KEY_LENGTH = 40;
+
+  private final int mask;
+  private final Parser parser;
+  private final ThreadLocal<Table> tables;
+
+  public TimestampCache(int size, Parser parser) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("size must be a positive integer: " + size);
+    }
+    final int slots = size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    this.mask = slots - 1;
+    this.parser = parser;
+    this.tables = ThreadLocal.withInitial(() -> new Table(slots));
+  }
+
+  public long parse(byte[] buf, int start, int end, long tag) {
+    int len = end - start;
+    if (len <= 0 || len > MAX_KEY_LENGTH) {
+      return parser.parse(buf, start, end);
+    }
+    return parse(tables.get(), buf, start, len, tag);
+  }
+
+  /**
+   * Non-ASCII or too long values are parsed without cache
+   */
+  public long parse(CharSequence chars, long tag) {
+    int len = chars.length();
+    if (len > MAX_KEY_LENGTH) {
+      byte[] bytes = chars.toString().getBytes(StandardCharsets.UTF_8);
+      return parser.parse(bytes, 0, bytes.length);
+    }
+    Table t = tables.get();
+    byte[] scratch = t.scratch;
+    for (int i = 0; i < len; i++) {
+      char c = chars.charAt(i);
+      if (c >= 0x80) {
+        byte[] bytes = chars.toString().getBytes(StandardCharsets.UTF_8);
+        return parser.parse(bytes, 0, bytes.length);
+      }
+      scratch[i] = (byte) c;
+    }
+    if (len == 0) {
+      return parser.parse(scratch, 0, 0);
+    }
+    return parse(t, scratch, 0, len, tag);
+  }
+
+  private long parse(Table t, byte[] buf, int start, int len, long tag) {
+    int h = 0x811c9dc5;
+    for (int i = start; i < start + len; i++) {
+      h = (h ^ buf[i]) * 0x01000193;
+    }
+    int slot = (h ^ (h >>> 16)) & mask;
+    int keyOffset = slot * MAX_KEY_LENGTH;
+    if (t.lengths[slot] == len && t.tags[slot] == tag && matches(t.keys, keyOffset, buf, start, len)) {
+      return t.values[slot];
+    }
+    long value = parser.parse(buf, start, start + len);
+    System.arraycopy(buf, start, t.keys, keyOffset, len);
+    t.lengths[slot] = len;
+    t.tags[slot] = tag;
+    t.values[slot] = value;
+    return value;
+  }
+
+  private static boolean matches(byte[] keys, int keyOffset, byte[] buf, int start, int len) {
+    for (int i = 0; i < len; i++) {
+      if (keys[keyOffset + i] != buf[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class Table {
+    private final byte[] keys;
+    private final int[] lengths;
+    private final long[] tags;
+    private final long[] values;
+    private final byte[] scratch = new byte[MAX_KEY_LENGTH];
+
+    Table(int slots) {
+      this.keys = new byte[slots * MAX_KEY_LENGTH];
+      this.lengths = new int[slots];
+      this.tags = new long[slots];
+      this.values = new long[slots];
+    }
+  }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal timing loop for the benchmark mains (run with {@code -Pbenchmark}).
+ * Reports average time and bytes allocated by the calling thread per operation,
+ * an {@link Op} call may run several operations.
+ */
+final class BenchmarkSupport {
+
+  interface Op {
+    Object run() throws Exception;
+  }
+
+  static volatile Object sink;
+
+  private BenchmarkSupport() {
+  }
+
+  static void run(String name, int warmups, int iterations, int opsPerCall, TimeUnit unit, Op op) throws Exception {
+    for (int i = 0; i < warmups; i++) {
+      sink = op.run();
+    }
+    long tid = Thread.currentThread().getId();
+    long a0 = allocatedBytes(tid);
+    long t0 = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      sink = op.run();
+    }
+    long t1 = System.nanoTime();
+    long a1 = allocatedBytes(tid);
+    double ops = (double) iterations * opsPerCall;
+    System.out.printf("%-45s %10.2f %s/op %12.0f B/op%n", name, (t1 - t0) / (double) unit.toNanos(1) / ops,
+        unit == TimeUnit.MILLISECONDS ? "ms" : "ns", a1 < 0 ? Double.NaN : (a1 - a0) / ops);
+  }
+
+  static void header() {
+    System.out.printf("java %s (%s), %s%n", System.getProperty("java.version"), System.getProperty("java.vm.name"),
+        System.getProperty("os.arch"));
+  }
+
+  private static long allocatedBytes(long tid) {
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    if (mx instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(tid);
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON request body split by {@code data.jsonPointer}: tree and re-serialization of every element
+ * (before streaming) vs {@link HttpRequestContentRecordHandler}.
+ *
+ * Args: number of elements (94623, ~10 MB), iterations (10)
+ */
+public class JsonContentBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int elements = args.length > 0 ? Integer.parseInt(args[0]) : 94623;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    byte[] body = body(elements);
+    BenchmarkSupport.header();
+    System.out.printf("body: %d bytes, %d elements under /data%n", body.length, elements);
+
+    Map<String, Object> conf = new HashMap<>();
+    conf.put(HttpRequestContentRecordHandler.DATA_JSON_POINTER_CONFIG, "/data");
+    HttpRequestContentRecordHandler handler = new HttpRequestContentRecordHandler();
+    handler.configure(conf);
+    DefaultHttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+    request.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=utf-8");
+    request.setContent(ChannelBuffers.wrappedBuffer(body));
+
+    for (int round = 0; round < 2; round++) {
+      BenchmarkSupport.run("tree + writeValueAsString", 3, iterations, 1, TimeUnit.MILLISECONDS, () -> treeRecords(body, "/data"));
+      BenchmarkSupport.run("streaming (HttpRequestContentRecordHandler)", 3, iterations, 1, TimeUnit.MILLISECONDS,
+          () -> handler.produceRecordsFromContent(request, Collections.emptyMap()));
+    }
+  }
+
+  /**
+   * Request body parsing as it was before streaming
+   */
+  static List<SourceRecord> treeRecords(byte[] inputData, String dataPointer) throws Exception {
+    ObjectMapper jsonMapper = new ObjectMapper();
+    JsonNode dataNode = jsonMapper.readTree(inputData).at(dataPointer);
+    List<SourceRecord> result = new ArrayList<>(dataNode.size());
+    for (JsonNode rec : dataNode) {
+      String value = jsonMapper.writeValueAsString(rec);
+      result.add(new SourceRecord(null, null, null, null, Schema.STRING_SCHEMA, null, Schema.STRING_SCHEMA, value, System.currentTimeMillis()));
+    }
+    return result;
+  }
+
+  static byte[] body(int elements) {
+    StringBuilder sb = new StringBuilder(elements * 110).append("{\"meta\":{\"source\":\"bench\"},\"data\":[");
+    for (int i = 0; i < elements; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      sb.append("{\"id\":").append(i).append(",\"host\":\"host-").append(i % 100).append(".example.com\",\"level\":\"INFO\"")
+          .append(",\"value\":").append(i * 0.5).append(",\"ok\":true,\"message\":\"event number ").append(i).append("\"}");
+    }
+    return sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Test;
+
+import com.mckesson.kafka.connect.nettysource.StreamDecompressor.Format;
+
+public class StreamDecompressorTest {
+
+  private static final String TEXT = "HKLM\\SOFTWARE\\Microsoft\\Windows\\CurrentVersion\\Run changed\n"
+      + "HKCU\\Software\\Classes value set\n";
+
+  @Test
+  public void autoPassesPlainTextWithZlibLikeHeader() {
+    byte[] data = TEXT.getBytes(StandardCharsets.US_ASCII);
+    assertEquals(TEXT, decode(Format.AUTO, data, data.length));
+  }
+
+  @Test
+  public void autoPassesPlainTextSplitAfterHeader() {
+    byte[] data = TEXT.getBytes(StandardCharsets.US_ASCII);
+    assertEquals(TEXT, decode(Format.AUTO, data, 2));
+  }
+
+  @Test
+  public void autoInflatesZlib() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, new Deflater())) {
+      out.write(TEXT.getBytes(StandardCharsets.US_ASCII));
+    }
+    byte[] data = bytes.toByteArray();
+    assertEquals(TEXT, decode(Format.AUTO, data, data.length));
+    assertEquals(TEXT, decode(Format.AUTO, data, 3));
+  }
+
+  @Test
+  public void autoInflatesGzip() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(TEXT.getBytes(StandardCharsets.US_ASCII));
+    }
+    byte[] data = bytes.toByteArray();
+    assertEquals(TEXT, decode(Format.AUTO, data, 5));
+  }
+
+  /**
+   * Offers data in chunks of chunkSize bytes, returns all emitted bytes as ASCII
+   */
+  private static String decode(Format format, byte[] data, int chunkSize) {
+    DecoderEmbedder<ChannelBuffer> embedder = new DecoderEmbedder<>(new StreamDecompressor(format, 16));
+    for (int i = 0; i < data.length; i += chunkSize) {
+      embedder.offer(ChannelBuffers.wrappedBuffer(data, i, Math.min(chunkSize, data.length - i)));
+    }
+    embedder.finish();
+    ChannelBuffer result = ChannelBuffers.dynamicBuffer();
+    ChannelBuffer b;
+    while ((b = embedder.poll()) != null) {
+      result.writeBytes(b);
+    }
+    return result.toString(StandardCharsets.US_ASCII);
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright  Vitalii Rudenskyi (vrudenskyi@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mckesson.kafka.connect.nettysource;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.mckesson.kafka.connect.nettysource.utils.SyslogFrameParser;
+import com.mckesson.kafka.connect.utils.SyslogParser;
+
+/**
+ * Syslog frame parsing: String decode + {@link SyslogEvent} (before the single pass parser),
+ * {@link SyslogParser} and {@link SyslogFrameParser}.
+ *
+ * Args: messages per iteration (100000), iterations (20)
+ */
+public class SyslogParseBenchmark {
+
+  private static final String[] MESSAGES = {
+      "<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8",
+      "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"] An application event log entry",
+      "<13>Feb  5 17:32:18 10.0.0.99 Use the BFG! some more text to make the line a bit longer like real logs"
+  };
+
+  public static void main(String[] args) throws Exception {
+    int batch = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    byte[][] frames = new byte[MESSAGES.length][];
+    for (int i = 0; i < MESSAGES.length; i++) {
+      frames[i] = MESSAGES[i].getBytes(StandardCharsets.UTF_8);
+    }
+    Charset charset = Charset.defaultCharset();
+    SyslogFrameParser.Cursor cursor = new SyslogFrameParser.Cursor();
+    BenchmarkSupport.header();
+    System.out.printf("%d messages per call, times and allocations are per message%n", batch);
+
+    for (int round = 0; round < 2; round++) {
+      BenchmarkSupport.run("String + SyslogEvent", 5, iterations, batch, TimeUnit.NANOSECONDS, () -> {
+        Object last = null;
+        for (int i = 0; i < batch; i++) {
+          SyslogEvent event = new SyslogEvent(new String(frames[i % frames.length], charset), null);
+          last = event.getHost() + event.getMessage();
+        }
+        return last;
+      });
+      BenchmarkSupport.run("SyslogParser.parse", 5, iterations, batch, TimeUnit.NANOSECONDS, () -> {
+        Object last = null;
+        for (int i = 0; i < batch; i++) {
+          last = SyslogParser.parse(frames[i % frames.length]);
+        }
+        return last;
+      });
+      BenchmarkSupport.run("SyslogFrameParser + host/message", 5, iterations, batch, TimeUnit.NANOSECONDS, () -> {
+        Object last = null;
+        for (int i = 0; i < batch; i++) {
+          byte[] f = frames[i % frames.length];
+          SyslogFrameParser.parse(f, 0, f.length, cursor);
+          last = cursor.getHost(charset) + cursor.getMessage(charset);
+        }
+        return last;
+      });
+      BenchmarkSupport.run("SyslogFrameParser (offsets only)", 5, iterations, batch, TimeUnit.NANOSECONDS, () -> {
+        boolean last = false;
+        for (int i = 0; i < batch; i++) {
+          byte[] f = frames[i % frames.length];
+          last = SyslogFrameParser.parse(f, 0, f.length, cursor);
+        }
+        return last;
+      });
+    }
+  }
+}